@@ -29,7 +29,14 @@ import com.google.inject.Module;
 import com.google.inject.name.Named;
 import com.mastfrog.asyncpromises.MongoAsyncTest.M;
 import com.mastfrog.asyncpromises.mongo.CollectionPromises;
+import com.mastfrog.asyncpromises.mongo.DocumentReceiver;
+import com.mastfrog.asyncpromises.mongo.FindBuilder;
+import com.mastfrog.asyncpromises.mongo.FindPublisher;
 import com.mastfrog.asyncpromises.mongo.FindReceiver;
+import com.mastfrog.asyncpromises.mongo.IdLoader;
+import com.mastfrog.asyncpromises.mongo.Operation;
+import com.mastfrog.asyncpromises.mongo.Page;
+import com.mastfrog.asyncpromises.mongo.PageBuilder;
 import com.mastfrog.giulius.mongodb.async.GiuliusMongoAsyncModule;
 import com.mastfrog.giulius.mongodb.async.MongoAsyncInitializer;
 import com.mastfrog.giulius.mongodb.async.MongoHarness;
@@ -50,8 +57,10 @@ import java.util.concurrent.TimeUnit;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -268,6 +277,276 @@ public class MongoAsyncTest {
         assertEquals(1, replaceResult[0].getMatchedCount());
     }
 
+    @Test
+    public void testPublisher(@Named("stuff") MongoCollection<Document> coll) throws InterruptedException {
+        CollectionPromises<Document> p = new CollectionPromises<>(coll);
+        final List<Document> all = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean();
+        p.query().lessThan("ix", 50).build().ascendingSortBy("ix").publisher().subscribe(new FindPublisher.Subscriber<Document>() {
+            FindPublisher.Subscription subscription;
+
+            @Override
+            public void onSubscribe(FindPublisher.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(7);
+            }
+
+            @Override
+            public void onNext(Document item) {
+                all.add(item);
+                if (all.size() % 7 == 0) {
+                    subscription.request(7);
+                }
+            }
+
+            @Override
+            public void onError(Throwable thrown) {
+                thrown.printStackTrace();
+                failed.set(true);
+                latch.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                latch.countDown();
+            }
+        });
+        latch.await(10, SECONDS);
+        assertFalse(failed.get());
+        assertEquals(50, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(Integer.valueOf(i), all.get(i).get("ix"));
+        }
+    }
+
+    @Test
+    public void testForEachAndReduce(@Named("stuff") MongoCollection<Document> coll) throws InterruptedException {
+        CollectionPromises<Document> p = new CollectionPromises<>(coll);
+        final List<Integer> seen = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean();
+        p.query().lessThan("ix", 50).build().ascendingSortBy("ix").withBatchSize(7).forEach(new DocumentReceiver<Document>() {
+            @Override
+            public boolean withDocument(Document document, PromiseContext context) throws Exception {
+                seen.add(document.getInteger("ix"));
+                return seen.size() < 20;
+            }
+        }).start(null, new Trigger<Void>() {
+            @Override
+            public void trigger(Void obj, Throwable thrown) {
+                if (thrown != null) {
+                    thrown.printStackTrace();
+                    failed.set(true);
+                }
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, SECONDS));
+        assertFalse(failed.get());
+        assertEquals("Should stop when the receiver returns false", 20, seen.size());
+        for (int i = 0; i < seen.size(); i++) {
+            assertEquals(Integer.valueOf(i), seen.get(i));
+        }
+
+        AsyncPromise<Void, Integer> sum = p.query().lessThan("ix", 50).build().reduce(0, new BiFunction<Integer, Document, Integer>() {
+            @Override
+            public Integer apply(Integer total, Document document) {
+                return total + document.getInteger("ix");
+            }
+        });
+        for (int run = 0; run < 2; run++) {
+            final CountDownLatch reduced = new CountDownLatch(1);
+            final AtomicLong total = new AtomicLong(-1);
+            sum.start(null, new Trigger<Integer>() {
+                @Override
+                public void trigger(Integer obj, Throwable thrown) {
+                    if (thrown != null) {
+                        thrown.printStackTrace();
+                        failed.set(true);
+                    }
+                    total.set(obj == null ? -1 : obj);
+                    reduced.countDown();
+                }
+            });
+            assertTrue(reduced.await(10, SECONDS));
+            assertFalse(failed.get());
+            assertEquals("Each run should start from the identity", 49 * 50 / 2, total.get());
+        }
+    }
+
+    @Test
+    public void testPagination(@Named("stuff") MongoCollection<Document> coll) throws InterruptedException {
+        CollectionPromises<Document> p = new CollectionPromises<>(coll);
+        final List<Document> all = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        do {
+            PageBuilder<Document, Void> pb = p.query().lessThan("ix", 50).build().paginate().descending("ix").pageSize(7);
+            if (token != null) {
+                pb.after(token);
+            }
+            final CountDownLatch latch = new CountDownLatch(1);
+            final List<Page<Document>> result = new ArrayList<>();
+            pb.page().start(null, new Trigger<Page<Document>>() {
+                @Override
+                public void trigger(Page<Document> page, Throwable thrown) {
+                    if (thrown != null) {
+                        thrown.printStackTrace();
+                    } else {
+                        result.add(page);
+                    }
+                    latch.countDown();
+                }
+            });
+            latch.await(10, SECONDS);
+            assertEquals(1, result.size());
+            all.addAll(result.get(0).items());
+            token = result.get(0).next();
+            pages++;
+        } while (token != null);
+        assertEquals(8, pages);
+        assertEquals(50, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(Integer.valueOf(49 - i), all.get(i).get("ix"));
+        }
+    }
+
+    @Test
+    public void testIdLoader(@Named("stuff") MongoCollection<Document> coll) throws InterruptedException {
+        CollectionPromises<Document> p = new CollectionPromises<>(coll);
+        final List<Document> docs = new ArrayList<>();
+        final CountDownLatch found = new CountDownLatch(1);
+        p.query().lessThan("ix", 5).build().find(new FindReceiver<List<Document>>() {
+            @Override
+            public void withResults(List<Document> obj, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+                docs.addAll(obj);
+                trigger.trigger(true, null);
+            }
+        }).start(null, new Trigger<Void>() {
+            @Override
+            public void trigger(Void obj, Throwable thrown) {
+                found.countDown();
+            }
+        });
+        found.await(10, SECONDS);
+        assertEquals(5, docs.size());
+
+        IdLoader<Document> loader = p.byIdLoader(20, TimeUnit.MILLISECONDS, 100);
+        List<Object> ids = new ArrayList<>();
+        for (Document d : docs) {
+            ids.add(d.get("_id"));
+        }
+        ids.add(new ObjectId());
+        final Document[] results = new Document[ids.size()];
+        final CountDownLatch loaded = new CountDownLatch(ids.size());
+        final AtomicBoolean failed = new AtomicBoolean();
+        for (int i = 0; i < ids.size(); i++) {
+            final int ix = i;
+            loader.load(ids.get(i)).start(null, new Trigger<Document>() {
+                @Override
+                public void trigger(Document obj, Throwable thrown) {
+                    if (thrown != null) {
+                        thrown.printStackTrace();
+                        failed.set(true);
+                    }
+                    results[ix] = obj;
+                    loaded.countDown();
+                }
+            });
+        }
+        assertTrue(loaded.await(10, SECONDS));
+        assertFalse(failed.get());
+        for (int i = 0; i < docs.size(); i++) {
+            assertEquals(docs.get(i).get("_id"), results[i].get("_id"));
+        }
+        assertNull(results[docs.size()]);
+    }
+
+    @Test
+    public void testEstimatedCount(@Named("stuff") MongoCollection<Document> coll) throws InterruptedException {
+        CollectionPromises<Document> p = new CollectionPromises<>(coll);
+        final List<Long> counts = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        p.count().estimated().count().then(new Document("ix", new Document("$lt", 10)), p.count().estimated(true).count())
+                .start(new Document(), new Trigger<Long>() {
+                    @Override
+                    public void trigger(Long count, Throwable thrown) {
+                        if (thrown != null) {
+                            thrown.printStackTrace();
+                        }
+                        counts.add(count);
+                        latch.countDown();
+                    }
+                });
+        latch.await(10, SECONDS);
+        assertEquals(Arrays.asList(10L), counts);
+        final CountDownLatch latch2 = new CountDownLatch(2);
+        final AtomicLong estimate = new AtomicLong(-1);
+        final AtomicLong exact = new AtomicLong(-2);
+        p.count().estimated().count().start(new Document(), new Trigger<Long>() {
+            @Override
+            public void trigger(Long count, Throwable thrown) {
+                estimate.set(count);
+                latch2.countDown();
+            }
+        });
+        p.count().count().start(new Document(), new Trigger<Long>() {
+            @Override
+            public void trigger(Long count, Throwable thrown) {
+                exact.set(count);
+                latch2.countDown();
+            }
+        });
+        latch2.await(10, SECONDS);
+        assertEquals(exact.get(), estimate.get());
+    }
+
+    @Test
+    public void testConcurrentOperations(@Named("stuff") MongoCollection<Document> coll) throws InterruptedException {
+        CollectionPromises<Document> p = new CollectionPromises<>(coll);
+        FindBuilder<Document, Bson> builder = p.find();
+        Operation<Bson, Document> findOne = builder.findOneOperation();
+        builder.filter(new Document("ix", -1));
+        Operation<Bson, Long> count = p.count().countOperation();
+        final Document[] found = new Document[5];
+        final long[] counts = new long[5];
+        final CountDownLatch latch = new CountDownLatch(10);
+        final AtomicBoolean failed = new AtomicBoolean();
+        for (int i = 0; i < 5; i++) {
+            final int ix = i;
+            findOne.start(new Document("ix", i), new Trigger<Document>() {
+                @Override
+                public void trigger(Document obj, Throwable thrown) {
+                    if (thrown != null) {
+                        thrown.printStackTrace();
+                        failed.set(true);
+                    }
+                    found[ix] = obj;
+                    latch.countDown();
+                }
+            });
+            count.start(new Document("ix", new Document("$lt", i)), new Trigger<Long>() {
+                @Override
+                public void trigger(Long obj, Throwable thrown) {
+                    if (thrown != null) {
+                        thrown.printStackTrace();
+                        failed.set(true);
+                    }
+                    counts[ix] = obj == null ? -1 : obj;
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(10, SECONDS));
+        assertFalse(failed.get());
+        for (int i = 0; i < 5; i++) {
+            assertNotNull("Changing the builder should not affect the operation", found[i]);
+            assertEquals(i, found[i].getInteger("ix").intValue());
+            assertEquals(i, counts[i]);
+        }
+    }
+
     static FH fh = new FH();
 
     static class FH implements FailureHandler {
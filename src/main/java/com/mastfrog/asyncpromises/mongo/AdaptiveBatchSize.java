@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.util.List;
+import org.bson.codecs.Encoder;
+
+/**
+ * Adjusts a cursor's batch size between fetches, aiming for batches of
+ * roughly a target number of bytes.  Document sizes are estimated by
+ * encoding the first document of each batch; if the receiver is much slower
+ * than the server, growth is held back, since larger batches would only sit
+ * in memory longer.  One instance per cursor.
+ *
+ * @author Tim Boudreau
+ */
+final class AdaptiveBatchSize<T> implements CursorLoop.Sizing {
+
+    private static final double WEIGHT = 0.3;
+    private final int min;
+    private final int max;
+    private final long targetBytes;
+    private final Encoder<T> encoder;
+    private double documentBytes = -1;
+    private double fetchNanos = -1;
+    private double processNanos = -1;
+    private int fetches;
+
+    AdaptiveBatchSize(int min, int max, long targetBytes, Encoder<T> encoder) {
+        this.min = min;
+        this.max = max;
+        this.targetBytes = targetBytes;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public synchronized int batchSize(int current) {
+        if (current < min || current > max) {
+            current = current <= 0 ? min : clamp(current);
+        }
+        if (documentBytes <= 0) {
+            return current;
+        }
+        long bySize = Math.max(1L, (long) (targetBytes / documentBytes));
+        // Move at most by a factor of two per fetch, so one odd document
+        // does not swing the size wildly
+        long next = Math.max(current / 2, Math.min(bySize, current * 2L));
+        if (next > current && fetchNanos >= 0 && processNanos > fetchNanos * 4) {
+            // The receiver, not the round trip, is the bottleneck
+            next = current;
+        }
+        return clamp(next);
+    }
+
+    private int clamp(long size) {
+        return (int) Math.max(min, Math.min(max, size));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void fetched(List<?> batch, long nanos) {
+        long bytes = batch.isEmpty() ? -1 : encodedSize((T) batch.get(0));
+        synchronized (this) {
+            if (bytes > 0) {
+                documentBytes = average(documentBytes, bytes);
+            }
+            // The first batch comes back with the cursor, so its time
+            // says nothing about a getMore
+            if (fetches++ > 0) {
+                fetchNanos = average(fetchNanos, nanos);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void processed(long nanos) {
+        processNanos = average(processNanos, nanos);
+    }
+
+    private static double average(double old, double sample) {
+        return old < 0 ? sample : old + (sample - old) * WEIGHT;
+    }
+
+    private long encodedSize(T document) {
+        if (encoder == null || document == null) {
+            return -1;
+        }
+        try {
+            return EncodedSize.of(document, encoder);
+        } catch (RuntimeException ex) {
+            // Not encodable as a document - fall back to the current size
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoSocketReadTimeoutException;
+import com.mongodb.MongoTimeoutException;
+
+/**
+ * Additive-increase, multiplicative-decrease concurrency limit driven by
+ * round-trip times. It keeps two moving averages of round trips: a
+ * short-term one over roughly the last SHORT_WINDOW calls, and a long-term
+ * one over roughly the last LONG_WINDOW. Both see the same mix of calls - a
+ * by-id lookup, a count, a chunk of a bulk write - so a workload whose calls
+ * naturally differ in cost does not look congested; only the short-term
+ * average rising to more than TOLERANCE times the long-term one does. That,
+ * or a timeout, shrinks the limit by BACKOFF - at most once per short-term
+ * round trip, so one burst of slow calls counts once; otherwise, while the
+ * limit is at least half used, each completion grows it by 1 / limit, or
+ * about one per limit's worth of completions. Not thread-safe; the Limiter
+ * calls it under its lock.
+ *
+ * @author Tim Boudreau
+ */
+final class AdaptiveLimit {
+
+    static final double TOLERANCE = 2;
+    static final double BACKOFF = 0.9;
+    static final int SHORT_WINDOW = 20;
+    static final int LONG_WINDOW = 500;
+    private final int min;
+    private final int max;
+    private double limit;
+    private double shortRtt = -1;
+    private double longRtt = -1;
+    private long lastDecrease;
+    private boolean decreased;
+
+    AdaptiveLimit(int min, int max) {
+        this.min = min;
+        this.max = max;
+        this.limit = min;
+    }
+
+    int limit() {
+        return (int) limit;
+    }
+
+    /**
+     * Record a completed call.
+     *
+     * @param rttNanos How long the call took
+     * @param inFlight How many calls were in flight when it was sent,
+     * including itself
+     * @param thrown What it failed with, if anything
+     * @param now The current System.nanoTime()
+     */
+    void sample(long rttNanos, int inFlight, Throwable thrown, long now) {
+        if (shortRtt < 0) {
+            shortRtt = longRtt = rttNanos;
+        } else {
+            shortRtt += (rttNanos - shortRtt) / SHORT_WINDOW;
+            longRtt += (rttNanos - longRtt) / LONG_WINDOW;
+        }
+        if (isTimeout(thrown) || shortRtt > longRtt * TOLERANCE) {
+            if (!decreased || now - lastDecrease > shortRtt) {
+                limit = Math.max(min, limit * BACKOFF);
+                lastDecrease = now;
+                decreased = true;
+            }
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+    }
+
+    static boolean isTimeout(Throwable thrown) {
+        return thrown instanceof MongoTimeoutException
+                || thrown instanceof MongoSocketReadTimeoutException
+                || thrown instanceof MongoExecutionTimeoutException;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimit{" + min + " <= " + limit + " <= " + max + ", rtt " + (long) shortRtt + "ns / " + (long) longRtt + "ns}";
+    }
+}
@@ -1,7 +1,7 @@
 /*
  * The MIT License
  *
- * Copyright 2015 Tim Boudreau.
+ * Copyright 2026 Tim Boudreau.
  *
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -21,26 +21,22 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  * THE SOFTWARE.
  */
-
 package com.mastfrog.asyncpromises.mongo;
 
-import com.mastfrog.asyncpromises.Trigger;
-
 /**
+ * A FindReceiver which may acknowledge batches after withResults() has
+ * returned - for example once some other asynchronous stage it has passed
+ * the batch to completes. The cursor resumes whenever the trigger is
+ * called, and no thread is blocked in the meantime; it must eventually be
+ * called exactly once per batch, or the find will never complete.
+ * <p>
+ * Use {@link FindBuilder#maxUnacknowledgedBatches(int)} to let such a
+ * receiver hold more than one batch at a time.
+ * </p>
  *
+ * @param <T> The type of the results
  * @author Tim Boudreau
  */
-final class ContinueTrigger implements Trigger<Boolean> {
-    private volatile boolean val;
-
-    boolean get() {
-        boolean old = val;
-        val = false;
-        return old;
-    }
+public interface AsyncFindReceiver<T> extends FindReceiver<T> {
 
-    @Override
-    public void trigger(Boolean obj, Throwable thrown) {
-        val = (obj == null) ? false : obj;
-    }
 }
@@ -26,6 +26,7 @@ package com.mastfrog.asyncpromises.mongo;
 import com.mastfrog.asyncpromises.AsyncPromise;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.model.UpdateOptions;
+import java.util.concurrent.TimeUnit;
 import org.bson.conversions.Bson;
 
 /**
@@ -41,6 +42,65 @@ public interface BulkWriteBuilder<T> {
      * @return A promise
      */
     AsyncPromise<Void,BulkWriteResult> build() ;
+    /**
+     * Split the write into several bulk writes once it exceeds the passed
+     * number of operations or estimated encoded size, so very large writes
+     * are not built and sent as a single command. Results are merged into
+     * one BulkWriteResult, with upsert and error indices relative to the
+     * whole write. Unordered chunks are sent concurrently; ordered ones one
+     * at a time, stopping at the first that fails.
+     *
+     * @param maxOps The maximum operations per chunk, or 0 for no limit
+     * @param maxBytes The maximum estimated encoded size of a chunk, or 0 for
+     * no limit
+     * @return this
+     */
+    BulkWriteBuilder<T> chunked(int maxOps, long maxBytes);
+
+    /**
+     * Set how many chunks of an unordered, chunked write may be in flight at
+     * once; the default is 4.
+     *
+     * @param chunks The number of chunks
+     * @return this
+     */
+    BulkWriteBuilder<T> maxConcurrentChunks(int chunks);
+
+    /**
+     * Resend only the operations which fail with errors that a replica set
+     * produces transiently, such as during an election or stepdown, after
+     * an exponentially increasing, jittered delay. For an unordered write
+     * only the failed operations are resent; for an ordered one, everything
+     * from the failed operation on. Results of all attempts are merged into
+     * one BulkWriteResult with indices relative to the original requests.
+     * If the whole command fails, it is not retried, since whether any of
+     * it was applied is unknown. With chunking, each chunk retries on its
+     * own.
+     *
+     * @param maxRetries The maximum number of times to resend
+     * @param initialDelay The delay before the first resend, which doubles
+     * for each one after
+     * @param unit The unit for the delay
+     * @return this
+     */
+    BulkWriteBuilder<T> retryTransientErrors(int maxRetries, long initialDelay, TimeUnit unit);
+
+    /**
+     * Collapse updateOnes and deleteOnes whose filter is a single
+     * <code>_id</code> equality into updateManys and deleteManys with an
+     * <code>$in</code> of the ids - updates only where the modification is
+     * byte-identical, and never for upserts or updates with other options.
+     * A fused operation never names the same id twice, and for an ordered
+     * write only adjacent operations are fused. Upsert and error indices in
+     * the result refer to the original requests; since it cannot be known
+     * which documents a fused operation modified before failing, its error
+     * is reported at every request fused into it.
+     *
+     * @param maxIds The maximum number of ids in one fused operation
+     * @return this
+     */
+    BulkWriteBuilder<T> fuseById(int maxIds);
+
     /**
      * Delete many documents matching the filter.
      *
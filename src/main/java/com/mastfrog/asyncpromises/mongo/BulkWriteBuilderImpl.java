@@ -24,6 +24,7 @@
 package com.mastfrog.asyncpromises.mongo;
 
 import com.mastfrog.asyncpromises.AsyncPromise;
+import static com.mastfrog.asyncpromises.mongo.FindBuilderImpl.checkNull;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.DeleteManyModel;
@@ -33,8 +34,9 @@ import com.mongodb.client.model.UpdateManyModel;
 import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.WriteModel;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
@@ -44,8 +46,14 @@ import org.bson.conversions.Bson;
  */
 final class BulkWriteBuilderImpl<T> implements BulkWriteBuilder<T> {
 
+    static final int DEFAULT_CONCURRENCY = 4;
     private final BulkWriteOptions opts = new BulkWriteOptions();
-    private final List<WriteModel<? extends T>> requests = new LinkedList<>();
+    private final List<WriteModel<? extends T>> requests = new ArrayList<>();
+    private int maxOpsPerChunk;
+    private long maxBytesPerChunk;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private RetryPolicy retry;
+    private int maxFusedIds;
     private final Factory<T> factory;
 
     BulkWriteBuilderImpl(Factory<T> factory) {
@@ -85,7 +93,7 @@ final class BulkWriteBuilderImpl<T> implements BulkWriteBuilder<T> {
 
         @Override
         public AsyncPromise<Void, BulkWriteResult> createPromise(BulkWriteBuilderImpl<T> builder) {
-            return promises.bulkWrite(builder.requests, builder.opts);
+            return promises.bulkWrite(builder.requests, builder.opts, builder.maxOpsPerChunk, builder.maxBytesPerChunk, builder.concurrency, builder.retry, builder.maxFusedIds);
         }
     }
 
@@ -95,6 +103,47 @@ final class BulkWriteBuilderImpl<T> implements BulkWriteBuilder<T> {
         return this;
     }
 
+    @Override
+    public BulkWriteBuilder<T> chunked(int maxOps, long maxBytes) {
+        if (maxOps <= 0 && maxBytes <= 0) {
+            throw new IllegalArgumentException("No limit on chunk size: " + maxOps + ", " + maxBytes);
+        }
+        maxOpsPerChunk = maxOps;
+        maxBytesPerChunk = maxBytes;
+        return this;
+    }
+
+    @Override
+    public BulkWriteBuilder<T> maxConcurrentChunks(int chunks) {
+        if (chunks <= 0) {
+            throw new IllegalArgumentException("Must allow at least one chunk: " + chunks);
+        }
+        concurrency = chunks;
+        return this;
+    }
+
+    @Override
+    public BulkWriteBuilder<T> retryTransientErrors(int maxRetries, long initialDelay, TimeUnit unit) {
+        checkNull("unit", unit);
+        if (maxRetries <= 0) {
+            throw new IllegalArgumentException("Must retry at least once: " + maxRetries);
+        }
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("Negative delay: " + initialDelay);
+        }
+        retry = new RetryPolicy(maxRetries, initialDelay, unit);
+        return this;
+    }
+
+    @Override
+    public BulkWriteBuilder<T> fuseById(int maxIds) {
+        if (maxIds <= 1) {
+            throw new IllegalArgumentException("Must allow at least two ids: " + maxIds);
+        }
+        maxFusedIds = maxIds;
+        return this;
+    }
+
     @Override
     public BulkWriteBuilder<T> insert(T doc) {
         requests.add(new InsertOneModel<>(doc));
@@ -0,0 +1,281 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+/**
+ * One execution of a bulk write split into chunks by operation count and
+ * estimated encoded size. Unordered chunks are sent up to
+ * <code>concurrency</code> at a time; ordered ones one at a time, each after
+ * the previous succeeds, which is what ordered semantics require. Chunk
+ * results are merged into one, with upsert and error indices relative to
+ * the whole list of requests.
+ *
+ * @author Tim Boudreau
+ */
+final class ChunkedBulkWrite<T> {
+
+    private final List<List<WriteModel<? extends T>>> chunks;
+    private final int[] offsets;
+    private final BulkWriteResult[] results;
+    private final BulkWriteOptions opts;
+    private final int concurrency;
+    private final Sink<T> sink;
+    private final Trigger<BulkWriteResult> onDone;
+    private final List<BulkWriteError> errors = new ArrayList<>();
+    private WriteConcernError writeConcernError;
+    private ServerAddress serverAddress;
+    private Throwable failure;
+    private int nextChunk;
+    private int inFlight;
+    private boolean stopped;
+    private boolean done;
+
+    ChunkedBulkWrite(List<List<WriteModel<? extends T>>> chunks, BulkWriteOptions opts, int concurrency, Sink<T> sink, Trigger<BulkWriteResult> onDone) {
+        this.chunks = chunks;
+        this.opts = opts;
+        this.concurrency = opts.isOrdered() ? 1 : Math.max(1, concurrency);
+        this.sink = sink;
+        this.onDone = onDone;
+        this.results = new BulkWriteResult[chunks.size()];
+        this.offsets = new int[chunks.size()];
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] = offsets[i - 1] + chunks.get(i - 1).size();
+        }
+    }
+
+    /**
+     * Sends one chunk; CollectionPromises supplies one.
+     */
+    interface Sink<T> {
+
+        void bulkWrite(List<WriteModel<? extends T>> chunk, BulkWriteOptions opts, Trigger<BulkWriteResult> next);
+    }
+
+    /**
+     * Split requests into chunks of at most maxOps operations and, where a
+     * single operation does not exceed it alone, maxBytes of encoded size.
+     * Each request is measured once, without keeping its encoded bytes.
+     *
+     * @param maxOps The maximum operations per chunk, or 0 or less for no limit
+     * @param maxBytes The maximum estimated size, or 0 or less for no limit
+     */
+    static <T> List<List<WriteModel<? extends T>>> split(List<WriteModel<? extends T>> requests, int maxOps, long maxBytes, MongoCollection<T> collection) {
+        if ((maxOps <= 0 || requests.size() <= maxOps) && maxBytes <= 0) {
+            return Collections.singletonList(requests);
+        }
+        List<List<WriteModel<? extends T>>> result = new ArrayList<>();
+        List<WriteModel<? extends T>> current = new ArrayList<>();
+        long bytes = 0;
+        for (WriteModel<? extends T> req : requests) {
+            long size = maxBytes > 0 ? sizeOf(req, collection) : 0;
+            if (!current.isEmpty() && ((maxOps > 0 && current.size() >= maxOps) || (maxBytes > 0 && bytes + size > maxBytes))) {
+                result.add(current);
+                current = new ArrayList<>();
+                bytes = 0;
+            }
+            current.add(req);
+            bytes += size;
+        }
+        result.add(current);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> long sizeOf(WriteModel<? extends T> req, MongoCollection<T> collection) {
+        CodecRegistry registry = collection.getCodecRegistry();
+        Class<T> type = collection.getDocumentClass();
+        if (req instanceof InsertOneModel<?>) {
+            return EncodedSize.of(((InsertOneModel<T>) req).getDocument(), registry.get(type));
+        } else if (req instanceof ReplaceOneModel<?>) {
+            ReplaceOneModel<T> replace = (ReplaceOneModel<T>) req;
+            return sizeOf(replace.getFilter(), type, registry) + EncodedSize.of(replace.getReplacement(), registry.get(type));
+        } else if (req instanceof UpdateOneModel<?>) {
+            UpdateOneModel<T> update = (UpdateOneModel<T>) req;
+            return sizeOf(update.getFilter(), type, registry) + sizeOf(update.getUpdate(), type, registry);
+        } else if (req instanceof UpdateManyModel<?>) {
+            UpdateManyModel<T> update = (UpdateManyModel<T>) req;
+            return sizeOf(update.getFilter(), type, registry) + sizeOf(update.getUpdate(), type, registry);
+        } else if (req instanceof DeleteOneModel<?>) {
+            return sizeOf(((DeleteOneModel<T>) req).getFilter(), type, registry);
+        } else if (req instanceof DeleteManyModel<?>) {
+            return sizeOf(((DeleteManyModel<T>) req).getFilter(), type, registry);
+        }
+        return 0;
+    }
+
+    private static long sizeOf(Bson bson, Class<?> type, CodecRegistry registry) {
+        if (bson == null) {
+            return 0;
+        }
+        return EncodedSize.of(bson.toBsonDocument(type, registry), new BsonDocumentCodec());
+    }
+
+    void start() {
+        dispatch();
+    }
+
+    private void dispatch() {
+        List<Integer> toSend = new ArrayList<>(concurrency);
+        boolean finish = false;
+        synchronized (this) {
+            while (!stopped && nextChunk < chunks.size() && inFlight < concurrency) {
+                toSend.add(nextChunk++);
+                inFlight++;
+            }
+            if (toSend.isEmpty() && inFlight == 0 && !done) {
+                done = finish = true;
+            }
+        }
+        for (int ix : toSend) {
+            send(ix);
+        }
+        if (finish) {
+            finish();
+        }
+    }
+
+    private void send(final int ix) {
+        try {
+            sink.bulkWrite(chunks.get(ix), opts, new Trigger<BulkWriteResult>() {
+                @Override
+                public void trigger(BulkWriteResult result, Throwable thrown) {
+                    chunkDone(ix, result, thrown);
+                }
+            });
+        } catch (Exception e) {
+            chunkDone(ix, null, e);
+        }
+    }
+
+    private void chunkDone(int ix, BulkWriteResult result, Throwable thrown) {
+        synchronized (this) {
+            inFlight--;
+            if (thrown instanceof MongoBulkWriteException) {
+                MongoBulkWriteException bulk = (MongoBulkWriteException) thrown;
+                results[ix] = bulk.getWriteResult();
+                offsetErrors(bulk, offsets[ix], errors);
+                if (bulk.getWriteConcernError() != null) {
+                    writeConcernError = bulk.getWriteConcernError();
+                }
+                serverAddress = bulk.getServerAddress();
+                if (opts.isOrdered()) {
+                    stopped = true;
+                }
+            } else if (thrown != null) {
+                if (failure == null) {
+                    failure = thrown;
+                }
+                stopped = true;
+            } else {
+                results[ix] = result;
+            }
+        }
+        dispatch();
+    }
+
+    private void finish() {
+        if (failure != null) {
+            onDone.trigger(null, failure);
+            return;
+        }
+        BulkWriteResult merged = merge(results, offsets);
+        if (errors.isEmpty() && writeConcernError == null) {
+            onDone.trigger(merged, null);
+            return;
+        }
+        sortByIndex(errors);
+        onDone.trigger(null, new MongoBulkWriteException(merged, errors, writeConcernError, serverAddress));
+    }
+
+    /**
+     * Add the errors from a chunk's failure to a list, with their indices
+     * made relative to the whole write.
+     */
+    static void offsetErrors(MongoBulkWriteException bulk, int offset, List<BulkWriteError> into) {
+        for (BulkWriteError err : bulk.getWriteErrors()) {
+            into.add(new BulkWriteError(err.getCode(), err.getMessage(), err.getDetails(), err.getIndex() + offset));
+        }
+    }
+
+    static void sortByIndex(List<BulkWriteError> errors) {
+        Collections.sort(errors, new Comparator<BulkWriteError>() {
+            @Override
+            public int compare(BulkWriteError a, BulkWriteError b) {
+                return Integer.compare(a.getIndex(), b.getIndex());
+            }
+        });
+    }
+
+    /**
+     * Merge chunk results, skipping chunks which were never sent.
+     */
+    static BulkWriteResult merge(BulkWriteResult[] results, int[] offsets) {
+        int inserted = 0;
+        int matched = 0;
+        int deleted = 0;
+        int modified = 0;
+        List<BulkWriteUpsert> upserts = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            BulkWriteResult r = results[i];
+            if (r == null) {
+                continue;
+            }
+            if (!r.wasAcknowledged()) {
+                return BulkWriteResult.unacknowledged();
+            }
+            inserted += r.getInsertedCount();
+            matched += r.getMatchedCount();
+            deleted += r.getDeletedCount();
+            modified += r.getModifiedCount();
+            for (BulkWriteUpsert up : r.getUpserts()) {
+                upserts.add(new BulkWriteUpsert(up.getIndex() + offsets[i], up.getId()));
+            }
+        }
+        return BulkWriteResult.acknowledged(inserted, matched, deleted, modified, upserts);
+    }
+}
@@ -26,7 +26,6 @@ package com.mastfrog.asyncpromises.mongo;
 import com.mastfrog.asyncpromises.AsyncPromise;
 import com.mastfrog.asyncpromises.Logic;
 import com.mastfrog.asyncpromises.PromiseContext;
-import com.mastfrog.asyncpromises.SimpleLogic;
 import com.mastfrog.asyncpromises.Trigger;
 import com.mongodb.ReadPreference;
 import com.mongodb.WriteConcern;
@@ -37,6 +36,7 @@ import com.mongodb.async.client.MongoCollection;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.EstimatedDocumentCountOptions;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.UpdateOptions;
@@ -44,7 +44,13 @@ import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.conversions.Bson;
 
 /**
@@ -55,6 +61,12 @@ import org.bson.conversions.Bson;
 public class CollectionPromises<T> {
 
     private final MongoCollection<T> collection;
+    private final SingleFlight<BsonDocument, T> findOneFlights = new SingleFlight<>();
+    private final LatencyTracker hedgeLatency = new LatencyTracker(256);
+    private final IdCache<T> idCache;
+    private final CountCache countCache;
+    private final Limiter limiter;
+    private final Priority priority;
 
     /**
      * Create a wrapper.
@@ -62,10 +74,18 @@ public class CollectionPromises<T> {
      * @param collection The collection
      */
     public CollectionPromises(MongoCollection<T> collection) {
+        this(collection, null, null, null, Priority.NORMAL);
+    }
+
+    private CollectionPromises(MongoCollection<T> collection, IdCache<T> idCache, CountCache countCache, Limiter limiter, Priority priority) {
         if (collection == null) {
             throw new IllegalArgumentException("Collection null");
         }
         this.collection = collection;
+        this.idCache = idCache;
+        this.countCache = countCache;
+        this.limiter = limiter;
+        this.priority = priority;
     }
 
     /**
@@ -85,7 +105,7 @@ public class CollectionPromises<T> {
      * @return A promise wrapper
      */
     public <R> CollectionPromises<R> withType(Class<R> type) {
-        return new CollectionPromises<R>(collection.withDocumentClass(type));
+        return new CollectionPromises<R>(collection.withDocumentClass(type), null, null, limiter, priority);
     }
 
     /**
@@ -95,7 +115,7 @@ public class CollectionPromises<T> {
      * @return A new CollectionPromises
      */
     public CollectionPromises<T> withWriteConcern(WriteConcern concern) {
-        return new CollectionPromises<>(collection.withWriteConcern(concern));
+        return new CollectionPromises<>(collection.withWriteConcern(concern), idCache, countCache, limiter, priority);
     }
 
     /**
@@ -105,7 +125,192 @@ public class CollectionPromises<T> {
      * @return A new CollectionPromises
      */
     public CollectionPromises<T> withReadPreference(ReadPreference pref) {
-        return new CollectionPromises<>(collection.withReadPreference(pref));
+        return new CollectionPromises<>(collection.withReadPreference(pref), idCache, countCache, limiter, priority);
+    }
+
+    /**
+     * Create a copy which answers findOne() calls whose query is a single
+     * <code>_id</code>, with no projection, from an in-process LRU cache.
+     * Updates, replaces, deletes, find-and-updates and bulk writes made
+     * through the returned object, or copies of it made with
+     * withWriteConcern() or withReadPreference(), invalidate the ids they
+     * affect - or the whole cache, if that cannot be determined from the
+     * query. Writes made any other way are not seen until entries expire.
+     * <p>
+     * Only lookups read from the primary fill the cache, since a secondary
+     * may answer with a document older than a write already acknowledged;
+     * copies made with a non-primary withReadPreference(), and hedged reads,
+     * are still answered from it.
+     * </p>
+     * <p>
+     * Cached documents are handed to every caller that asks for them, so
+     * callers should not modify them. Lookups of ids that do not exist are
+     * not cached.
+     * </p>
+     *
+     * @param maxSize The maximum number of documents to cache
+     * @param ttl How long a cached document may be served
+     * @param unit The unit for the ttl
+     * @return A new CollectionPromises
+     */
+    public CollectionPromises<T> withIdCache(int maxSize, long ttl, TimeUnit unit) {
+        FindBuilderImpl.checkNull("unit", unit);
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be at least one: " + maxSize);
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        }
+        return new CollectionPromises<>(collection, new IdCache<T>(maxSize, ttl, unit), countCache, limiter, priority);
+    }
+
+    /**
+     * Create a copy which caches the results of counts by query and count
+     * options, and coalesces concurrent identical counts into one call to the
+     * server. Any write made through the returned object, or copies of it
+     * made with withWriteConcern() or withReadPreference(), clears the cache;
+     * writes made any other way are not seen until entries expire. Counts are
+     * only coalesced with others of the same {@link Priority}, and never when
+     * their chain has a {@link Deadline}, so one caller's budget or queue
+     * timeout never fails another's count.
+     *
+     * @param maxSize The maximum number of counts to cache
+     * @param ttl How long a cached count may be served
+     * @param unit The unit for the ttl
+     * @return A new CollectionPromises
+     */
+    public CollectionPromises<T> withCountCache(int maxSize, long ttl, TimeUnit unit) {
+        FindBuilderImpl.checkNull("unit", unit);
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be at least one: " + maxSize);
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        }
+        return new CollectionPromises<>(collection, idCache, new CountCache(maxSize, ttl, unit), limiter, priority);
+    }
+
+    /**
+     * Create a copy which allows at most maxInFlight operations to be in
+     * flight with the driver at once; operations beyond that wait, in order
+     * within each {@link Priority}, in a queue of at most maxQueued, and fail
+     * with a MongoWaitQueueFullException if it is full, or a
+     * MongoTimeoutException if they wait longer than maxWait. Each driver call counts separately -
+     * a bulk write split into chunks uses one slot per chunk, and a find
+     * uses one while opening its cursor and fetching the first batch. The
+     * limit is shared with copies made from the returned object.
+     *
+     * @param maxInFlight The maximum number of operations in flight
+     * @param maxQueued The maximum number of operations waiting
+     * @param maxWait How long an operation may wait, or 0 for no limit
+     * @param unit The unit for maxWait
+     * @return A new CollectionPromises
+     */
+    public CollectionPromises<T> withConcurrencyLimit(int maxInFlight, int maxQueued, long maxWait, TimeUnit unit) {
+        FindBuilderImpl.checkNull("unit", unit);
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Must allow at least one operation in flight: " + maxInFlight);
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("Negative queue size: " + maxQueued);
+        }
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("Negative wait: " + maxWait);
+        }
+        return new CollectionPromises<>(collection, idCache, countCache, new Limiter(maxInFlight, maxQueued, maxWait, unit), priority);
+    }
+
+    /**
+     * Create a copy with a concurrency limit, as withConcurrencyLimit(), which
+     * adjusts itself to the round-trip times of driver calls: it starts at
+     * minLimit, grows by about one per limit's worth of completions while
+     * the average of recent round trips stays within twice the long-term
+     * average and the limit is at least half used, and shrinks by 10%, at
+     * most once per round trip, when it exceeds that or calls time out - so
+     * it settles near the concurrency the server can actually absorb.
+     *
+     * @param minLimit The least the limit will shrink to
+     * @param maxLimit The most the limit will grow to
+     * @param maxQueued The maximum number of operations waiting
+     * @param maxWait How long an operation may wait, or 0 for no limit
+     * @param unit The unit for maxWait
+     * @return A new CollectionPromises
+     */
+    public CollectionPromises<T> withAdaptiveConcurrencyLimit(int minLimit, int maxLimit, int maxQueued, long maxWait, TimeUnit unit) {
+        FindBuilderImpl.checkNull("unit", unit);
+        if (minLimit <= 0) {
+            throw new IllegalArgumentException("Must allow at least one operation in flight: " + minLimit);
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("Maximum limit " + maxLimit + " less than minimum " + minLimit);
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("Negative queue size: " + maxQueued);
+        }
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("Negative wait: " + maxWait);
+        }
+        return new CollectionPromises<>(collection, idCache, countCache, new Limiter(new AdaptiveLimit(minLimit, maxLimit), maxQueued, maxWait, unit), priority);
+    }
+
+    /**
+     * Get the concurrency limit set with withConcurrencyLimit() or
+     * withAdaptiveConcurrencyLimit(), to monitor
+     * how many operations are in flight and waiting.
+     *
+     * @return The limit, or null if there is none
+     */
+    public ConcurrencyLimit concurrencyLimit() {
+        return limiter;
+    }
+
+    /**
+     * Create a copy whose operations have the passed priority when waiting
+     * for a concurrency limit, unless the PromiseContext of the chain an
+     * operation runs in has a Priority under Priority.KEY. The copy shares
+     * this object's limit, so operations made through each compete for it.
+     *
+     * @param priority The priority
+     * @return A new CollectionPromises
+     */
+    public CollectionPromises<T> withPriority(Priority priority) {
+        FindBuilderImpl.checkNull("priority", priority);
+        return new CollectionPromises<>(collection, idCache, countCache, limiter, priority);
+    }
+
+    Limiter limiter() {
+        return limiter;
+    }
+
+    Priority priority(PromiseContext context) {
+        Priority result = context == null ? null : context.get(Priority.KEY);
+        return result == null ? priority : result;
+    }
+
+    private <R> void limited(PromiseContext context, Trigger<R> next, Limiter.Call<R> call) {
+        limited(context, call, new SRC<>(next));
+    }
+
+    private <R> void limited(PromiseContext context, Limiter.Call<R> call, SingleResultCallback<R> callback) {
+        Limiter.run(limiter, priority(context), Deadline.of(context), call, callback);
+    }
+
+    private <R> Trigger<R> invalidating(Bson query, Trigger<R> next) {
+        if (idCache != null) {
+            next = idCache.invalidating(query, collection, next);
+        }
+        return countCache == null ? next : countCache.invalidating(next);
+    }
+
+    private <R> Trigger<R> invalidating(List<? extends WriteModel<?>> requests, Trigger<R> next) {
+        if (idCache != null) {
+            next = idCache.invalidating(requests, collection, next);
+        }
+        return countCache == null ? next : countCache.invalidating(next);
+    }
+
+    private <R> Trigger<R> invalidatingCounts(Trigger<R> next) {
+        return countCache == null ? next : countCache.invalidating(next);
     }
 
     /**
@@ -116,12 +321,13 @@ public class CollectionPromises<T> {
     public AsyncPromise<Bson, DeleteResult> deleteOne() {
         return AsyncPromise.create(new Logic<Bson, DeleteResult>() {
             @Override
-            public void run(Bson data, Trigger<DeleteResult> next, PromiseContext context) throws Exception {
-                try {
-                    collection.deleteOne(data, new SRC<>(next));
-                } catch (Exception e) {
-                    next.trigger(null, e);
-                }
+            public void run(final Bson data, Trigger<DeleteResult> next, PromiseContext context) throws Exception {
+                limited(context, invalidating(data, next), new Limiter.Call<DeleteResult>() {
+                    @Override
+                    public void call(SingleResultCallback<DeleteResult> callback) {
+                        collection.deleteOne(data, callback);
+                    }
+                });
             }
         });
     }
@@ -130,12 +336,13 @@ public class CollectionPromises<T> {
         return AsyncPromise.create(new Logic<Bson, UpdateResult>() {
 
             @Override
-            public void run(Bson data, Trigger<UpdateResult> next, PromiseContext context) throws Exception {
-                try {
-                    collection.replaceOne(data, replacement, new SRC<>(next));
-                } catch (Exception e) {
-                    next.trigger(null, e);
-                }
+            public void run(final Bson data, Trigger<UpdateResult> next, PromiseContext context) throws Exception {
+                limited(context, invalidating(data, next), new Limiter.Call<UpdateResult>() {
+                    @Override
+                    public void call(SingleResultCallback<UpdateResult> callback) {
+                        collection.replaceOne(data, replacement, callback);
+                    }
+                });
             }
         });
     }
@@ -152,12 +359,13 @@ public class CollectionPromises<T> {
     public AsyncPromise<Bson, DeleteResult> deleteMany() {
         return AsyncPromise.create(new Logic<Bson, DeleteResult>() {
             @Override
-            public void run(Bson data, Trigger<DeleteResult> next, PromiseContext context) throws Exception {
-                try {
-                    collection.deleteMany(data, new SRC<>(next));
-                } catch (Exception e) {
-                    next.trigger(null, e);
-                }
+            public void run(final Bson data, Trigger<DeleteResult> next, PromiseContext context) throws Exception {
+                limited(context, invalidating(data, next), new Limiter.Call<DeleteResult>() {
+                    @Override
+                    public void call(SingleResultCallback<DeleteResult> callback) {
+                        collection.deleteMany(data, callback);
+                    }
+                });
             }
         });
     }
@@ -171,11 +379,12 @@ public class CollectionPromises<T> {
         return AsyncPromise.create(new Logic<T, Void>() {
             @Override
             public void run(final T data, final Trigger<Void> next, PromiseContext context) throws Exception {
-                try {
-                    collection.insertOne(data, new SRC<>(next));
-                } catch (Exception e) {
-                    next.trigger(null, e);
-                }
+                limited(context, invalidatingCounts(next), new Limiter.Call<Void>() {
+                    @Override
+                    public void call(SingleResultCallback<Void> callback) {
+                        collection.insertOne(data, callback);
+                    }
+                });
             }
         });
     }
@@ -200,16 +409,169 @@ public class CollectionPromises<T> {
     public AsyncPromise<List<T>, Void> insertMany(final InsertManyOptions opts) {
         return AsyncPromise.create(new Logic<List<T>, Void>() {
             @Override
-            public void run(List<T> data, Trigger<Void> next, PromiseContext context) throws Exception {
-                try {
-                    collection.insertMany(data, opts, new SRC<>(next));
-                } catch (Exception e) {
-                    next.trigger(null, e);
-                }
+            public void run(final List<T> data, Trigger<Void> next, PromiseContext context) throws Exception {
+                limited(context, invalidatingCounts(next), new Limiter.Call<Void>() {
+                    @Override
+                    public void call(SingleResultCallback<Void> callback) {
+                        collection.insertMany(data, opts, callback);
+                    }
+                });
             }
         });
     }
 
+    /**
+     * Create an inserter which buffers documents from concurrent insertOne()
+     * promises and sends them as one unordered insertMany, when maxDocuments
+     * are waiting, their encoded size reaches maxBytes, or the window
+     * elapses after the first document of a batch arrives.
+     * <p>
+     * Since a batch carries documents from many promises, it is sent
+     * without any of their contexts: the priority and deadline of the
+     * context an insertOne() promise runs in do not apply to its batch.
+     * Sizes are estimated from a sample of the documents, so batches only
+     * approximate maxBytes.
+     * </p>
+     *
+     * @param maxDocuments The maximum number of documents per batch
+     * @param maxBytes The encoded size at which to send a batch, or 0 or
+     * less for no limit
+     * @param window How long to wait for further documents
+     * @param unit The unit for the window
+     * @return An insert batcher
+     */
+    public InsertBatcher<T> insertBatcher(int maxDocuments, long maxBytes, long window, TimeUnit unit) {
+        FindBuilderImpl.checkNull("unit", unit);
+        if (maxDocuments <= 0) {
+            throw new IllegalArgumentException("Batch size must be at least one: " + maxDocuments);
+        }
+        if (window < 0) {
+            throw new IllegalArgumentException("Negative window: " + window);
+        }
+        return new InsertBatcherImpl<>(collection, new InsertBatcherImpl.Sink<T>() {
+            @Override
+            public void insertMany(final List<T> documents, Trigger<Void> next) {
+                limited(null, invalidatingCounts(next), new Limiter.Call<Void>() {
+                    @Override
+                    public void call(SingleResultCallback<Void> callback) {
+                        collection.insertMany(documents, new InsertManyOptions().ordered(false), callback);
+                    }
+                });
+            }
+        }, maxDocuments, maxBytes, window, unit);
+    }
+
+    /**
+     * Create an updater which merges <code>$inc</code> and <code>$set</code>
+     * modifications made to the same document within the window, and sends
+     * one updateOne per query when the window elapses - for counters
+     * and other hot documents which would otherwise see a write per caller.
+     * <p>
+     * As with insertBatcher(), updates are sent without the contexts of the
+     * promises merged into them: the priority and deadline of the context an
+     * updateOne() promise runs in do not apply to its update.
+     * </p>
+     *
+     * @param window How long to collect modifications after the first one
+     * for a query arrives
+     * @param unit The unit for the window
+     * @return An update coalescer
+     */
+    public UpdateCoalescer<T> updateCoalescer(long window, TimeUnit unit) {
+        FindBuilderImpl.checkNull("unit", unit);
+        if (window < 0) {
+            throw new IllegalArgumentException("Negative window: " + window);
+        }
+        return new UpdateCoalescerImpl<>(collection.getCodecRegistry(), collection.getDocumentClass(), new UpdateCoalescerImpl.Sink() {
+            @Override
+            public void updateOne(final Bson query, final Bson modification, Trigger<UpdateResult> next) {
+                limited(null, invalidating(query, next), new Limiter.Call<UpdateResult>() {
+                    @Override
+                    public void call(SingleResultCallback<UpdateResult> callback) {
+                        collection.updateOne(query, modification, callback);
+                    }
+                });
+            }
+        }, window, unit);
+    }
+
+    /**
+     * Create a promise which, when passed an iterator, inserts everything it
+     * returns, a batch at a time, as unordered bulk writes, with at most
+     * maxInFlight batches outstanding. The iterator is only advanced when
+     * there is room for another batch, so memory use stays flat however many
+     * documents it returns. It is called from driver callback threads, so it
+     * should not block for long.
+     * <p>
+     * Documents the server rejects do not stop the load; the promise fails
+     * at the end with a MongoBulkWriteException whose error indices count
+     * from the first document loaded. At most 1000 errors are kept; the
+     * exception's inserted count shows how many documents succeeded in all.
+     * The priority and deadline of the context the promise runs in apply to
+     * each batch.
+     * </p>
+     *
+     * @param batchSize The number of documents per batch
+     * @param maxInFlight The maximum number of batches outstanding at once
+     * @return A promise
+     */
+    public AsyncPromise<Iterator<T>, BulkWriteResult> load(final int batchSize, final int maxInFlight) {
+        checkLoad(batchSize, maxInFlight);
+        return AsyncPromise.create(new Logic<Iterator<T>, BulkWriteResult>() {
+            @Override
+            public void run(Iterator<T> data, Trigger<BulkWriteResult> next, PromiseContext context) throws Exception {
+                FindBuilderImpl.checkNull("iterator", data);
+                load(new StreamingLoad.IteratorSource<>(data), batchSize, maxInFlight, context, next);
+            }
+        });
+    }
+
+    /**
+     * Create a promise which inserts everything the passed publisher - for
+     * example, a find on another collection - produces, a batch at a time,
+     * as unordered bulk writes, with at most maxInFlight batches outstanding.
+     * Documents are only requested from the publisher when there is room
+     * for another batch.
+     *
+     * @param publisher The source of documents
+     * @param batchSize The number of documents per batch
+     * @param maxInFlight The maximum number of batches outstanding at once
+     * @return A promise
+     */
+    public AsyncPromise<Void, BulkWriteResult> load(final FindPublisher<? extends T> publisher, final int batchSize, final int maxInFlight) {
+        FindBuilderImpl.checkNull("publisher", publisher);
+        checkLoad(batchSize, maxInFlight);
+        return AsyncPromise.create(new Logic<Void, BulkWriteResult>() {
+            @Override
+            public void run(Void data, Trigger<BulkWriteResult> next, PromiseContext context) throws Exception {
+                load(new StreamingLoad.PublisherSource<T>(publisher), batchSize, maxInFlight, context, next);
+            }
+        });
+    }
+
+    private static void checkLoad(int batchSize, int maxInFlight) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be at least one: " + batchSize);
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Must allow at least one batch in flight: " + maxInFlight);
+        }
+    }
+
+    private void load(StreamingLoad.Source<T> source, int batchSize, int maxInFlight, final PromiseContext context, Trigger<BulkWriteResult> next) {
+        new StreamingLoad<>(source, new ChunkedBulkWrite.Sink<T>() {
+            @Override
+            public void bulkWrite(final List<WriteModel<? extends T>> batch, final BulkWriteOptions opts, Trigger<BulkWriteResult> next) {
+                limited(context, invalidatingCounts(next), new Limiter.Call<BulkWriteResult>() {
+                    @Override
+                    public void call(SingleResultCallback<BulkWriteResult> callback) {
+                        collection.bulkWrite(batch, opts, callback);
+                    }
+                });
+            }
+        }, batchSize, maxInFlight, next).start();
+    }
+
     /**
      * Update one element when the returned promise is passed the query.
      *
@@ -217,18 +579,35 @@ public class CollectionPromises<T> {
      * offers a simpler way to correctly set MongoDB's update options.
      * @return A promise
      */
-    public AsyncPromise<Bson, UpdateResult> updateOne(final Bson modification) {
-        AsyncPromise<Bson, UpdateResult> m = AsyncPromise.create(new Logic<Bson, UpdateResult>() {
+    public AsyncPromise<Bson, UpdateResult> updateOne(Bson modification) {
+        return AsyncPromise.create(updateOneLogic(modification));
+    }
+
+    /**
+     * Create a reusable operation to update one element when started with
+     * the query; unlike a promise, it may be started any number of times,
+     * concurrently.
+     *
+     * @param modification The modification to make
+     * @return An operation
+     */
+    public Operation<Bson, UpdateResult> updateOneOperation(Bson modification) {
+        FindBuilderImpl.checkNull("modification", modification);
+        return new Operation<>(updateOneLogic(modification));
+    }
+
+    Logic<Bson, UpdateResult> updateOneLogic(final Bson modification) {
+        return new Logic<Bson, UpdateResult>() {
             @Override
-            public void run(Bson data, final Trigger<UpdateResult> next, PromiseContext context) throws Exception {
-                try {
-                    collection.updateOne(data, modification, new SRC<>(next));
-                } catch (Exception e) {
-                    next.trigger(null, e);
-                }
+            public void run(final Bson data, final Trigger<UpdateResult> next, PromiseContext context) throws Exception {
+                limited(context, invalidating(data, next), new Limiter.Call<UpdateResult>() {
+                    @Override
+                    public void call(SingleResultCallback<UpdateResult> callback) {
+                        collection.updateOne(data, modification, callback);
+                    }
+                });
             }
-        });
-        return m;
+        };
     }
 
     /**
@@ -250,18 +629,43 @@ public class CollectionPromises<T> {
      * @param opts The update options
      * @return A promise
      */
-    public AsyncPromise<Bson, UpdateResult> updateMany(final Bson modification, final UpdateOptions opts) {
-        AsyncPromise<Bson, UpdateResult> m = AsyncPromise.create(new Logic<Bson, UpdateResult>() {
+    public AsyncPromise<Bson, UpdateResult> updateMany(Bson modification, UpdateOptions opts) {
+        return AsyncPromise.create(updateManyLogic(modification, opts));
+    }
+
+    /**
+     * Create a reusable operation to update all elements matching the query
+     * it is started with; unlike a promise, it may be started any number of
+     * times, concurrently. The options are copied, so later changes to them
+     * do not affect the operation.
+     *
+     * @param modification The modification to make
+     * @param opts The update options
+     * @return An operation
+     */
+    public Operation<Bson, UpdateResult> updateManyOperation(Bson modification, UpdateOptions opts) {
+        FindBuilderImpl.checkNull("modification", modification);
+        FindBuilderImpl.checkNull("opts", opts);
+        UpdateOptions copy = new UpdateOptions()
+                .upsert(opts.isUpsert())
+                .bypassDocumentValidation(opts.getBypassDocumentValidation())
+                .collation(opts.getCollation())
+                .arrayFilters(opts.getArrayFilters());
+        return new Operation<>(updateManyLogic(modification, copy));
+    }
+
+    Logic<Bson, UpdateResult> updateManyLogic(final Bson modification, final UpdateOptions opts) {
+        return new Logic<Bson, UpdateResult>() {
             @Override
-            public void run(Bson data, Trigger<UpdateResult> next, PromiseContext context) throws Exception {
-                try {
-                    collection.updateMany(data, modification, opts, new SRC<>(next));
-                } catch (Exception e) {
-                    next.trigger(null, e);
-                }
+            public void run(final Bson data, Trigger<UpdateResult> next, PromiseContext context) throws Exception {
+                limited(context, invalidating(data, next), new Limiter.Call<UpdateResult>() {
+                    @Override
+                    public void call(SingleResultCallback<UpdateResult> callback) {
+                        collection.updateMany(data, modification, opts, callback);
+                    }
+                });
             }
-        });
-        return m;
+        };
     }
 
     /**
@@ -276,12 +680,14 @@ public class CollectionPromises<T> {
         AsyncPromise<Bson, T> m = AsyncPromise.create(new Logic<Bson, T>() {
 
             @Override
-            public void run(Bson data, Trigger<T> next, PromiseContext context) throws Exception {
-                try {
-                    collection.findOneAndUpdate(data, modification, opts, new SRC<>(next));
-                } catch (Exception e) {
-                    next.trigger(null, e);
-                }
+            public void run(final Bson data, Trigger<T> next, PromiseContext context) throws Exception {
+                final Deadline deadline = Deadline.of(context);
+                limited(context, invalidating(data, next), new Limiter.Call<T>() {
+                    @Override
+                    public void call(SingleResultCallback<T> callback) {
+                        collection.findOneAndUpdate(data, modification, Deadline.limit(deadline, opts), callback);
+                    }
+                });
             }
         });
         return m;
@@ -344,13 +750,53 @@ public class CollectionPromises<T> {
      * @return A promise
      */
     public AsyncPromise<Void, BulkWriteResult> bulkWrite(List<WriteModel<? extends T>> requests, final BulkWriteOptions opts) {
+        return bulkWrite(requests, opts, 0, 0, 1, null, 0);
+    }
+
+    AsyncPromise<Void, BulkWriteResult> bulkWrite(List<WriteModel<? extends T>> requests, final BulkWriteOptions opts, final int maxOps, final long maxBytes, final int concurrency, final RetryPolicy retry, final int maxFusedIds) {
         final List<WriteModel<? extends T>> reqs = new ArrayList<>(requests);
         return AsyncPromise.create(new Logic<Void, BulkWriteResult>() {
+            // The requests never change, so they are fused and measured
+            // once, on the first execution, rather than on every one
+            private volatile FusedBulkWrite<T> fused;
+            private volatile List<List<WriteModel<? extends T>>> chunks;
 
             @Override
             public void run(Void data, Trigger<BulkWriteResult> next, PromiseContext context) throws Exception {
                 try {
-                    collection.bulkWrite(reqs, opts, new SRC<BulkWriteResult>(next));
+                    ChunkedBulkWrite.Sink<T> sink = new ChunkedBulkWrite.Sink<T>() {
+                        @Override
+                        public void bulkWrite(final List<WriteModel<? extends T>> chunk, final BulkWriteOptions opts, Trigger<BulkWriteResult> next) {
+                            limited(context, next, new Limiter.Call<BulkWriteResult>() {
+                                @Override
+                                public void call(SingleResultCallback<BulkWriteResult> callback) {
+                                    collection.bulkWrite(chunk, opts, callback);
+                                }
+                            });
+                        }
+                    };
+                    if (retry != null) {
+                        sink = RetryingBulkWrite.wrap(sink, retry);
+                    }
+                    List<WriteModel<? extends T>> toSend = reqs;
+                    next = invalidating(reqs, next);
+                    if (maxFusedIds > 1) {
+                        FusedBulkWrite<T> fused = this.fused;
+                        if (fused == null) {
+                            this.fused = fused = FusedBulkWrite.fuse(reqs, opts.isOrdered(), maxFusedIds, collection.getDocumentClass(), collection.getCodecRegistry());
+                        }
+                        toSend = fused.requests();
+                        next = fused.remapping(next);
+                    }
+                    List<List<WriteModel<? extends T>>> chunks = this.chunks;
+                    if (chunks == null) {
+                        this.chunks = chunks = ChunkedBulkWrite.split(toSend, maxOps, maxBytes, collection);
+                    }
+                    if (chunks.size() == 1) {
+                        sink.bulkWrite(toSend, opts, next);
+                    } else {
+                        new ChunkedBulkWrite<>(chunks, opts, concurrency, sink, next).start();
+                    }
                 } catch (Exception e) {
                     next.trigger(null, e);
                 }
@@ -358,19 +804,68 @@ public class CollectionPromises<T> {
         });
     }
 
-    AsyncPromise<Bson, T> findOne(final FindBuilderImpl<T, ?> builder) {
-        AsyncPromise<Bson, T> m = AsyncPromise.create(new SimpleLogic<Bson, T>() {
+    AsyncPromise<Bson, T> findOne(FindBuilderImpl<T, ?> builder) {
+        return AsyncPromise.create(findOneLogic(builder));
+    }
+
+    Logic<Bson, T> findOneLogic(final FindBuilderImpl<T, ?> builder) {
+        return new Logic<Bson, T>() {
             @Override
-            public void run(Bson data, Trigger<T> next) throws Exception {
+            public void run(final Bson data, Trigger<T> next, PromiseContext context) throws Exception {
                 try {
-                    FindIterable<T> find = builder.apply(collection.find(data));
-                    find.first(new SRC<>(next));
+                    if (idCache != null && builder.isPlainLookup()) {
+                        BsonValue id = IdCache.idOf(builder.filter() == null ? data : builder.filter(), collection);
+                        if (id != null) {
+                            T cached = idCache.get(id);
+                            if (cached != null) {
+                                next.trigger(cached, null);
+                                return;
+                            }
+                            if (!builder.isHedged() && ReadPreference.primary().equals(collection.getReadPreference())) {
+                                // A secondary may answer with a document
+                                // older than a write already acknowledged
+                                next = idCache.filling(id, next);
+                            }
+                        }
+                    }
+                    final Deadline deadline = Deadline.of(context);
+                    if (builder.isSingleFlight() && deadline == null) {
+                        next = findOneFlights.join(SingleFlight.keyed(builder.flightKey(data, collection), priority(context)), next);
+                        if (next == null) {
+                            // An identical call is in flight and will notify us
+                            return;
+                        }
+                    }
+                    if (builder.isHedged()) {
+                        final PromiseContext ctx = context;
+                        final FindIterable<T> primary = builder.apply(collection.withReadPreference(ReadPreference.primaryPreferred()).find(data));
+                        final FindIterable<T> secondary = builder.apply(collection.withReadPreference(ReadPreference.secondaryPreferred()).find(data));
+                        new HedgedRead<>(new HedgedRead.Reader<T>() {
+                            @Override
+                            public void read(boolean hedge, SingleResultCallback<T> onResult) {
+                                final FindIterable<T> find = hedge ? secondary : primary;
+                                limited(ctx, new Limiter.Call<T>() {
+                                    @Override
+                                    public void call(SingleResultCallback<T> callback) {
+                                        Deadline.limit(deadline, find, builder.maxTimeMillis()).first(callback);
+                                    }
+                                }, onResult);
+                            }
+                        }, hedgeLatency, builder.hedgePercentile(), builder.hedgeDelayNanos(), next).start();
+                        return;
+                    }
+                    final FindIterable<T> find = builder.apply(collection.find(data));
+                    limited(context, next, new Limiter.Call<T>() {
+                        @Override
+                        public void call(SingleResultCallback<T> callback) {
+                            Deadline.limit(deadline, find, builder.maxTimeMillis()).first(callback);
+                        }
+                    });
                 } catch (Exception e) {
                     next.trigger(null, e);
                 }
             }
-        });
-        return m;
+        };
     }
 
     /**
@@ -400,62 +895,234 @@ public class CollectionPromises<T> {
      * @param opts The count options
      * @return A promise
      */
-    public AsyncPromise<Bson, Long> count(final CountOptions opts) {
-        return AsyncPromise.create(new SimpleLogic<Bson, Long>() {
+    public AsyncPromise<Bson, Long> count(CountOptions opts) {
+        return AsyncPromise.create(countLogic(opts));
+    }
+
+    Logic<Bson, Long> countLogic(final CountOptions opts) {
+        return new Logic<Bson, Long>() {
+
+            @Override
+            public void run(final Bson data, Trigger<Long> next, PromiseContext context) throws Exception {
+                count(data, opts, context, next);
+            }
+        };
+    }
+
+    AsyncPromise<Bson, Long> estimatedCount(CountOptions opts, boolean fallBackToExact) {
+        return AsyncPromise.create(estimatedCountLogic(opts, fallBackToExact));
+    }
+
+    Logic<Bson, Long> estimatedCountLogic(final CountOptions opts, final boolean fallBackToExact) {
+        return new Logic<Bson, Long>() {
 
             @Override
-            public void run(Bson data, Trigger<Long> next) throws Exception {
+            public void run(final Bson data, final Trigger<Long> next, PromiseContext context) throws Exception {
                 try {
-                    collection.count(data, opts, new SRC<>(next));
+                    if (data != null && !data.toBsonDocument(collection.getDocumentClass(), collection.getCodecRegistry()).isEmpty()) {
+                        if (!fallBackToExact) {
+                            throw new IllegalArgumentException("Cannot estimate the count of a filtered query: " + data);
+                        }
+                        count(data, opts, context, next);
+                        return;
+                    }
+                    final Deadline deadline = Deadline.of(context);
+                    limited(context, new Limiter.Call<Long>() {
+                        @Override
+                        public void call(SingleResultCallback<Long> callback) {
+                            long maxTime = opts.getMaxTime(TimeUnit.MILLISECONDS);
+                            EstimatedDocumentCountOptions estOpts = new EstimatedDocumentCountOptions()
+                                    .maxTime(deadline == null ? maxTime : deadline.maxTimeMillis(maxTime), TimeUnit.MILLISECONDS);
+                            collection.estimatedDocumentCount(estOpts, callback);
+                        }
+                    }, new SingleResultCallback<Long>() {
+                        @Override
+                        public void onResult(Long count, Throwable thrown) {
+                            if (count != null) {
+                                // Apply skip and limit as the server would
+                                count = Math.max(0L, count - opts.getSkip());
+                                if (opts.getLimit() > 0) {
+                                    count = Math.min(count, (long) opts.getLimit());
+                                }
+                            }
+                            next.trigger(count, thrown);
+                        }
+                    });
                 } catch (Exception e) {
                     next.trigger(null, e);
                 }
             }
+        };
+    }
+
+    private void count(final Bson data, final CountOptions opts, PromiseContext context, Trigger<Long> next) {
+        try {
+            final Deadline deadline = Deadline.of(context);
+            if (countCache != null) {
+                BsonDocument key = CountCache.key(data, opts, collection);
+                Long cached = countCache.get(key);
+                if (cached != null) {
+                    next.trigger(cached, null);
+                    return;
+                }
+                if (deadline == null) {
+                    next = countCache.join(key, priority(context), next);
+                    if (next == null) {
+                        // An identical count is in flight and will notify us
+                        return;
+                    }
+                }
+            }
+            limited(context, next, new Limiter.Call<Long>() {
+                @Override
+                public void call(SingleResultCallback<Long> callback) {
+                    collection.count(data, Deadline.limit(deadline, opts), callback);
+                }
+            });
+        } catch (Exception e) {
+            next.trigger(null, e);
+        }
+    }
+
+    AsyncPromise<Bson, Void> find(FindBuilderImpl<T, ?> builder, FindReceiver<List<T>> withResults) {
+        return AsyncPromise.create(findLogic(builder, withResults));
+    }
+
+    Logic<Bson, Void> findLogic(final FindBuilderImpl<T, ?> builder, final FindReceiver<List<T>> withResults) {
+        return new Logic<Bson, Void>() {
+            @Override
+            public void run(final Bson data, Trigger<Void> next, PromiseContext context) throws Exception {
+                scan(data, builder, withResults, context, next);
+            }
+        };
+    }
+
+    AsyncPromise<Bson, Void> parallelFind(final FindBuilderImpl<T, ?> builder, final String key, final int partitions, final FindReceiver<List<T>> receiver) {
+        return AsyncPromise.create(new Logic<Bson, Void>() {
+            @Override
+            public void run(final Bson data, Trigger<Void> next, PromiseContext context) throws Exception {
+                new ParallelScan<>(CollectionPromises.this, builder, key, partitions, receiver, context, next).start(data);
+            }
         });
     }
 
-    AsyncPromise<Bson, List<T>> find(final FindBuilderImpl<T, ?> builder, final FindReceiver<List<T>> withResults) {
-        AsyncPromise<Bson, AsyncBatchCursor<T>> m = AsyncPromise.create(new Logic<Bson, AsyncBatchCursor<T>>() {
+    AsyncPromise<Bson, Page<T>> page(final FindBuilderImpl<T, ?> builder, final PageBuilderImpl<T, ?> page) {
+        return AsyncPromise.create(new Logic<Bson, Page<T>>() {
             @Override
-            public void run(Bson data, Trigger<AsyncBatchCursor<T>> next, PromiseContext context) throws Exception {
+            public void run(final Bson data, final Trigger<Page<T>> next, PromiseContext context) throws Exception {
                 try {
-                    builder.apply(collection.find(data)).batchCursor(new SRC<>(next));
+                    Bson query = page.query(builder.filter() == null ? data : builder.filter());
+                    final FindIterable<T> find = builder.apply(collection.find())
+                            .filter(query).sort(page.sort()).limit(page.pageSize() + 1);
+                    final Deadline deadline = Deadline.of(context);
+                    limited(context, new Limiter.Call<ArrayList<T>>() {
+                        @Override
+                        public void call(SingleResultCallback<ArrayList<T>> callback) {
+                            Deadline.limit(deadline, find, builder.maxTimeMillis()).into(new ArrayList<T>(), callback);
+                        }
+                    }, new SingleResultCallback<ArrayList<T>>() {
+                        @Override
+                        public void onResult(ArrayList<T> results, Throwable thrown) {
+                            Page<T> result = null;
+                            if (thrown == null) {
+                                try {
+                                    result = page.toPage(results, collection.getCodecRegistry());
+                                } catch (Exception e) {
+                                    thrown = e;
+                                }
+                            }
+                            next.trigger(result, thrown);
+                        }
+                    });
                 } catch (Exception e) {
                     next.trigger(null, e);
                 }
             }
         });
-        final ContinueTrigger cont = new ContinueTrigger();
-        AsyncPromise<AsyncBatchCursor<T>, List<T>> cursorPromise = AsyncPromise.create(new Logic<AsyncBatchCursor<T>, List<T>>() {
+    }
+
+    <R> AsyncPromise<Bson, R> reduce(final FindBuilderImpl<T, ?> builder, final Supplier<? extends R> identity, final BiFunction<R, ? super T, R> accumulator) {
+        return AsyncPromise.create(new Logic<Bson, R>() {
             @Override
-            public void run(final AsyncBatchCursor<T> cursor, final Trigger<List<T>> next, final PromiseContext context) throws Exception {
-                cursor.next(new SRC<>(new Trigger<List<T>>() {
+            public void run(final Bson data, final Trigger<R> next, PromiseContext context) throws Exception {
+                final Fold<R> fold = new Fold<>(identity.get(), accumulator);
+                scan(data, builder, fold, context, new Trigger<Void>() {
                     @Override
-                    public void trigger(List<T> obj, Throwable thrown) {
-                        if (thrown != null) {
-                            cursor.close();
-                            next.trigger(obj, thrown);
-                            return;
-                        }
-                        if (obj != null) {
-                            try {
-                                withResults.withResults(obj, cont, context);
-                            } catch (Exception ex) {
-                                next.trigger(obj, ex);
-                                return;
-                            }
-                        }
-                        if (cont.get()) {
-                            cursor.next(new SRC<List<T>>(this));
-                        } else {
-                            cursor.close();
-                            next.trigger(obj, thrown);
-                        }
+                    public void trigger(Void obj, Throwable thrown) {
+                        next.trigger(thrown == null ? fold.value : null, thrown);
                     }
-                }));
+                });
             }
         });
-        return m.then(cursorPromise);
+    }
+
+    /**
+     * Per-execution state of a reduce().
+     */
+    private final class Fold<R> implements FindReceiver<List<T>> {
+
+        private final BiFunction<R, ? super T, R> accumulator;
+        private R value;
+
+        Fold(R identity, BiFunction<R, ? super T, R> accumulator) {
+            this.value = identity;
+            this.accumulator = accumulator;
+        }
+
+        @Override
+        public void withResults(List<T> batch, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+            R v = value;
+            for (int i = 0, size = batch.size(); i < size; i++) {
+                v = accumulator.apply(v, batch.get(i));
+            }
+            value = v;
+            trigger.trigger(true, null);
+        }
+    }
+
+    /**
+     * Open a cursor for the query and feed its batches to the receiver,
+     * calling the passed trigger once the cursor is exhausted, the receiver
+     * declines further batches or something fails.
+     */
+    void scan(Bson query, final FindBuilderImpl<T, ?> builder, final FindReceiver<List<T>> receiver, final PromiseContext context, final Trigger<Void> onDone) {
+        scan(query, builder, receiver, context, null, onDone);
+    }
+
+    void scan(Bson query, final FindBuilderImpl<T, ?> builder, final FindReceiver<List<T>> receiver, final PromiseContext context, CursorLoop.Sizing sizing, final Trigger<Void> onDone) {
+        try {
+            FindIterable<T> iter = builder.apply(collection.find(query));
+            if (sizing == null) {
+                sizing = builder.sizing(collection);
+            }
+            if (sizing != null) {
+                int size = sizing.batchSize(builder.batchSize());
+                if (size > 0) {
+                    iter = iter.batchSize(size);
+                }
+            }
+            final CursorLoop.Sizing cursorSizing = sizing;
+            final FindIterable<T> find = iter;
+            final Deadline deadline = Deadline.of(context);
+            // The permit covers opening the cursor and its first batch
+            limited(context, new Limiter.Call<AsyncBatchCursor<T>>() {
+                @Override
+                public void call(SingleResultCallback<AsyncBatchCursor<T>> callback) {
+                    Deadline.limit(deadline, find, builder.maxTimeMillis()).batchCursor(callback);
+                }
+            }, new SingleResultCallback<AsyncBatchCursor<T>>() {
+                @Override
+                public void onResult(AsyncBatchCursor<T> cursor, Throwable thrown) {
+                    if (thrown != null) {
+                        onDone.trigger(null, thrown);
+                        return;
+                    }
+                    new CursorLoop<>(cursor, receiver, context, builder.prefetch(), builder.maxUnacknowledged(), cursorSizing, onDone).start();
+                }
+            });
+        } catch (Exception e) {
+            onDone.trigger(null, e);
+        }
     }
 
     FindBuilderImpl<T, Bson> findImpl() {
@@ -473,6 +1140,38 @@ public class CollectionPromises<T> {
         return findImpl();
     }
 
+    /**
+     * Create a loader which batches lookups of documents by id made within
+     * the passed window into a single query. The window starts with the first
+     * lookup after the previous batch was sent; a batch is sent early if it
+     * reaches maxBatch distinct ids.
+     *
+     * @param window How long to wait for further lookups
+     * @param unit The unit for the window
+     * @param maxBatch The maximum number of ids to query for at once
+     * @return A loader
+     */
+    public IdLoader<T> byIdLoader(long window, TimeUnit unit, int maxBatch) {
+        FindBuilderImpl.checkNull("unit", unit);
+        if (window < 0) {
+            throw new IllegalArgumentException("Negative window: " + window);
+        }
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Batch size must be at least one: " + maxBatch);
+        }
+        return new IdLoaderImpl<>(collection, limiter, priority, window, unit, maxBatch);
+    }
+
+    /**
+     * Fetch documents a page at a time using keyset pagination, supplying
+     * your own Bson query to the promise.
+     *
+     * @return A page builder
+     */
+    public PageBuilder<T, Bson> paginate() {
+        return findImpl().paginate();
+    }
+
     private static class SRC<T> implements SingleResultCallback<T> {
 
         private final Trigger<T> trigger;
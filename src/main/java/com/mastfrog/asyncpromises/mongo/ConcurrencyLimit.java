@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many operations a CollectionPromises has in flight with the
+ * driver at once; operations beyond the limit wait in a bounded queue, and
+ * fail if it is full or they wait too long. Obtained from
+ * <code>CollectionPromises.concurrencyLimit()</code>, this interface reports
+ * its state, for monitoring.
+ *
+ * @author Tim Boudreau
+ */
+public interface ConcurrencyLimit {
+
+    /**
+     * Get the maximum number of operations allowed in flight, which, for an
+     * adaptive limit, changes as round-trip times do.
+     *
+     * @return The limit
+     */
+    int limit();
+
+    /**
+     * Get the number of operations currently in flight.
+     *
+     * @return The number in flight
+     */
+    int inFlight();
+
+    /**
+     * Get the number of operations currently waiting for one in flight to
+     * complete.
+     *
+     * @return The queue depth
+     */
+    int queueDepth();
+
+    /**
+     * Get the number of operations of one priority currently waiting.
+     *
+     * @param priority The priority
+     * @return The queue depth for that priority
+     */
+    int queueDepth(Priority priority);
+
+    /**
+     * Get the total number of operations which have had to wait in the
+     * queue.
+     *
+     * @return A count
+     */
+    long queued();
+
+    /**
+     * Get the total number of operations failed with a
+     * MongoWaitQueueFullException because the queue was full - whether
+     * turned away on arrival, or displaced by one of a higher priority.
+     *
+     * @return A count
+     */
+    long rejected();
+
+    /**
+     * Get the total number of operations failed with a
+     * MongoTimeoutException because they waited longer than allowed.
+     *
+     * @return A count
+     */
+    long timedOut();
+
+    /**
+     * Get the average time operations which had to wait spent in the queue
+     * before being sent.
+     *
+     * @param unit The unit for the result
+     * @return The average wait, or 0 if none has waited
+     */
+    long averageWait(TimeUnit unit);
+
+    /**
+     * Get the longest time an operation spent in the queue before being
+     * sent.
+     *
+     * @param unit The unit for the result
+     * @return The longest wait
+     */
+    long maxWait(TimeUnit unit);
+}
@@ -45,6 +45,35 @@ public interface CountBuilder<I> {
 
     public CountBuilder<I> maxTime(long maxTime, TimeUnit timeUnit);
 
+    /**
+     * Answer from collection metadata instead of running a count, which takes
+     * constant time but may be inaccurate, for example after an unclean
+     * shutdown or on a sharded cluster with orphaned documents. Only possible
+     * for an empty query - the count will fail for any other.
+     *
+     * @return this
+     */
+    public CountBuilder<I> estimated();
+
+    /**
+     * Answer from collection metadata instead of running a count if the query
+     * is empty.
+     *
+     * @param fallBackToExact If true, a non-empty query runs an exact count
+     * rather than failing
+     * @return this
+     */
+    public CountBuilder<I> estimated(boolean fallBackToExact);
+
     public AsyncPromise<I, Long> count();
 
+    /**
+     * Create a reusable count operation. It captures this builder's current
+     * settings, so the builder may be changed or discarded afterwards, and
+     * may be started any number of times, concurrently.
+     *
+     * @return An operation
+     */
+    public Operation<I, Long> countOperation();
+
 }
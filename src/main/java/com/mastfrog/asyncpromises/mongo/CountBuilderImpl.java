@@ -38,6 +38,8 @@ import org.bson.conversions.Bson;
 final class CountBuilderImpl<I> implements CountBuilder<I> {
 
     private CountOptions opts = new CountOptions();
+    private boolean estimated;
+    private boolean fallBackToExact;
     private final Factory<I> factory;
 
     public CountBuilderImpl(Factory<I> factory) {
@@ -55,6 +57,8 @@ final class CountBuilderImpl<I> implements CountBuilder<I> {
     interface Factory<I> {
 
         AsyncPromise<I, Long> count(CountBuilderImpl<?> builder);
+
+        Operation<I, Long> countOperation(CountBuilderImpl<?> builder);
     }
 
     static final class VoidFactory implements Factory<Void> {
@@ -78,6 +82,11 @@ final class CountBuilderImpl<I> implements CountBuilder<I> {
             }).then(std.count(builder));
         }
 
+        @Override
+        public Operation<Void, Long> countOperation(CountBuilderImpl<?> builder) {
+            return Operation.withQuery(query, std.countOperation(builder));
+        }
+
     }
 
     static final class StandardFactory implements Factory<Bson> {
@@ -90,8 +99,32 @@ final class CountBuilderImpl<I> implements CountBuilder<I> {
 
         @Override
         public AsyncPromise<Bson, Long> count(CountBuilderImpl<?> builder) {
-            return promises.count(builder.opts);
+            return builder.estimated
+                    ? promises.estimatedCount(builder.opts, builder.fallBackToExact)
+                    : promises.count(builder.opts);
+        }
+
+        @Override
+        public Operation<Bson, Long> countOperation(CountBuilderImpl<?> builder) {
+            CountOptions opts = copy(builder.opts);
+            return new Operation<>(builder.estimated
+                    ? promises.estimatedCountLogic(opts, builder.fallBackToExact)
+                    : promises.countLogic(opts));
+        }
+    }
+
+    static CountOptions copy(CountOptions opts) {
+        CountOptions result = new CountOptions()
+                .limit(opts.getLimit())
+                .skip(opts.getSkip())
+                .collation(opts.getCollation())
+                .maxTime(opts.getMaxTime(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        if (opts.getHint() != null) {
+            result.hint(opts.getHint());
+        } else if (opts.getHintString() != null) {
+            result.hintString(opts.getHintString());
         }
+        return result;
     }
 
     public CountBuilder<I> hint(Bson hint) {
@@ -119,8 +152,25 @@ final class CountBuilderImpl<I> implements CountBuilder<I> {
         return this;
     }
 
+    @Override
+    public CountBuilder<I> estimated() {
+        return estimated(false);
+    }
+
+    @Override
+    public CountBuilder<I> estimated(boolean fallBackToExact) {
+        this.estimated = true;
+        this.fallBackToExact = fallBackToExact;
+        return this;
+    }
+
     @Override
     public AsyncPromise<I, Long> count() {
         return factory.count(this);
     }
+
+    @Override
+    public Operation<I, Long> countOperation() {
+        return factory.countOperation(this);
+    }
 }
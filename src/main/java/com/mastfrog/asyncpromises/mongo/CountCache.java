@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.conversions.Bson;
+
+/**
+ * Size and age bounded cache of count results by query and options, with
+ * concurrent identical counts coalesced into one. Any write through the
+ * owning CollectionPromises clears it, both when the write starts and when it
+ * completes; as with IdCache, a count which was in flight across a write is
+ * not cached.
+ * <p>
+ * Coalesced counts share the first one's failure as well as its result, so,
+ * as with single-flight finds, counts are only coalesced with others of the
+ * same Priority, and counts whose chain has a Deadline are never coalesced -
+ * they may be answered from the cache, but otherwise make their own call,
+ * whose result is not cached.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class CountCache {
+
+    private final long ttlNanos;
+    private final Map<BsonDocument, Cached> entries;
+    private final SingleFlight<BsonDocument, Long> flights = new SingleFlight<>();
+    private long generation;
+
+    CountCache(final int maxSize, long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+        entries = new LinkedHashMap<BsonDocument, Cached>(Math.min(maxSize, 256), 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BsonDocument, Cached> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    static BsonDocument key(Bson query, CountOptions opts, MongoCollection<?> collection) {
+        Class<?> type = collection.getDocumentClass();
+        BsonDocument result = new BsonDocument("q", FindBuilderImpl.normalize(query.toBsonDocument(type, collection.getCodecRegistry())));
+        if (opts.getHint() != null) {
+            result.append("h", opts.getHint().toBsonDocument(type, collection.getCodecRegistry()));
+        }
+        if (opts.getHintString() != null) {
+            result.append("hs", new BsonString(opts.getHintString()));
+        }
+        if (opts.getLimit() != 0) {
+            result.append("l", new BsonInt32(opts.getLimit()));
+        }
+        if (opts.getSkip() != 0) {
+            result.append("s", new BsonInt32(opts.getSkip()));
+        }
+        if (opts.getMaxTime(TimeUnit.MILLISECONDS) != 0) {
+            result.append("t", new BsonInt64(opts.getMaxTime(TimeUnit.MILLISECONDS)));
+        }
+        if (opts.getCollation() != null) {
+            result.append("c", opts.getCollation().asDocument());
+        }
+        return result;
+    }
+
+    synchronized Long get(BsonDocument key) {
+        Cached entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.created > ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.count;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized void put(BsonDocument key, Long count, long expectedGeneration) {
+        if (expectedGeneration == generation) {
+            entries.put(key, new Cached(count));
+        }
+    }
+
+    /**
+     * Join an identical count of the same priority in flight, if any.
+     *
+     * @return A trigger to make the count with, which caches its result, or
+     * null if one is in flight and will notify the passed trigger
+     */
+    Trigger<Long> join(final BsonDocument key, Priority priority, Trigger<Long> next) {
+        final Trigger<Long> flight = flights.join(SingleFlight.keyed(key, priority), next);
+        if (flight == null) {
+            return null;
+        }
+        final long expected = generation();
+        return new Trigger<Long>() {
+            @Override
+            public void trigger(Long count, Throwable thrown) {
+                if (count != null && thrown == null) {
+                    put(key, count, expected);
+                }
+                flight.trigger(count, thrown);
+            }
+        };
+    }
+
+    /**
+     * Wrap the trigger for a write so the cache is cleared again when it
+     * completes.
+     */
+    <R> Trigger<R> invalidating(final Trigger<R> next) {
+        clear();
+        return new Trigger<R>() {
+            @Override
+            public void trigger(R obj, Throwable thrown) {
+                try {
+                    clear();
+                } finally {
+                    next.trigger(obj, thrown);
+                }
+            }
+        };
+    }
+
+    private static final class Cached {
+
+        final Long count;
+        final long created = System.nanoTime();
+
+        Cached(Long count) {
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.async.AsyncBatchCursor;
+import com.mongodb.async.SingleResultCallback;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a single execution of a find - pulls batches from the cursor and
+ * hands them to the receiver, optionally keeping up to <code>prefetch</code>
+ * batches fetched ahead so server round trips overlap with the receiver's
+ * processing. The receiver acknowledges each batch through its trigger - an
+ * {@link AsyncFindReceiver} synchronously or later, any other receiver before
+ * withResults() returns, failing which the find stops; at most
+ * <code>maxUnacknowledged</code> batches are handed out before an
+ * acknowledgement arrives. Only one call to the
+ * cursor's next() is ever outstanding, and no thread ever blocks waiting.
+ *
+ * @author Tim Boudreau
+ */
+final class CursorLoop<T> implements SingleResultCallback<List<T>> {
+
+    private final AsyncBatchCursor<T> cursor;
+    private final FindReceiver<List<T>> receiver;
+    private final boolean asynchronous;
+    private final PromiseContext context;
+    private final Trigger<Void> onDone;
+    private final int prefetch;
+    private final int maxUnacknowledged;
+    private final Sizing sizing;
+    private final ArrayDeque<List<T>> ready = new ArrayDeque<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private int unacknowledged;
+    private long fetchStarted;
+    private boolean fetching;
+    private boolean exhausted;
+    private boolean stopped;
+    private boolean done;
+    private Throwable failure;
+
+    CursorLoop(AsyncBatchCursor<T> cursor, FindReceiver<List<T>> receiver, PromiseContext context, int prefetch, int maxUnacknowledged, Trigger<Void> onDone) {
+        this(cursor, receiver, context, prefetch, maxUnacknowledged, null, onDone);
+    }
+
+    CursorLoop(AsyncBatchCursor<T> cursor, FindReceiver<List<T>> receiver, PromiseContext context, int prefetch, int maxUnacknowledged, Sizing sizing, Trigger<Void> onDone) {
+        this.cursor = cursor;
+        this.sizing = sizing;
+        this.receiver = receiver;
+        this.asynchronous = receiver instanceof AsyncFindReceiver<?>;
+        this.context = context;
+        this.prefetch = prefetch;
+        this.maxUnacknowledged = asynchronous ? Math.max(1, maxUnacknowledged) : 1;
+        this.onDone = onDone;
+    }
+
+    void start() {
+        drain();
+    }
+
+    @Override
+    public void onResult(List<T> batch, Throwable thrown) {
+        if (sizing != null && batch != null) {
+            sizing.fetched(batch, System.nanoTime() - fetchStarted);
+        }
+        synchronized (this) {
+            fetching = false;
+            if (thrown != null) {
+                if (failure == null) {
+                    failure = thrown;
+                }
+            } else if (batch == null) {
+                exhausted = true;
+            } else {
+                ready.add(batch);
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        // Callbacks from the cursor or receiver may arrive re-entrantly or
+        // on other threads; only one thread runs steps at a time, and
+        // anything that arrives meanwhile causes another pass
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (step()) {
+                // keep going
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private boolean step() {
+        List<T> batch = null;
+        boolean fetch = false;
+        Throwable failed;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            failed = failure;
+            if (failed != null || stopped || (exhausted && ready.isEmpty() && unacknowledged == 0)) {
+                if (fetching) {
+                    // Wait for the outstanding fetch before closing the cursor
+                    return false;
+                }
+                done = true;
+            } else {
+                if (unacknowledged < maxUnacknowledged) {
+                    batch = ready.poll();
+                    if (batch != null) {
+                        unacknowledged++;
+                    }
+                }
+                boolean busy = unacknowledged >= maxUnacknowledged;
+                if (!fetching && !exhausted && (ready.size() < prefetch || (!busy && ready.isEmpty()))) {
+                    fetching = fetch = true;
+                }
+                if (batch == null && !fetch) {
+                    return false;
+                }
+            }
+        }
+        if (batch == null && !fetch) {
+            finish(failed);
+            return false;
+        }
+        if (fetch) {
+            try {
+                if (sizing != null) {
+                    int size = sizing.batchSize(cursor.getBatchSize());
+                    if (size > 0) {
+                        cursor.setBatchSize(size);
+                    }
+                    fetchStarted = System.nanoTime();
+                }
+                cursor.next(this);
+            } catch (Exception e) {
+                onResult(null, e);
+            }
+        }
+        if (batch != null) {
+            deliver(batch);
+        }
+        return true;
+    }
+
+    private void deliver(List<T> batch) {
+        Ack ack = new Ack();
+        try {
+            receiver.withResults(batch, ack, context);
+            if (!asynchronous) {
+                // Not acknowledging before returning means stop; does nothing
+                // if the receiver already called the trigger
+                ack.trigger(false, null);
+            }
+        } catch (Exception ex) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        }
+    }
+
+    private void acknowledge(Boolean more, Throwable thrown, long delivered) {
+        if (sizing != null) {
+            sizing.processed(System.nanoTime() - delivered);
+        }
+        synchronized (this) {
+            unacknowledged--;
+            if (thrown != null) {
+                if (failure == null) {
+                    failure = thrown;
+                }
+            } else if (!Boolean.TRUE.equals(more)) {
+                stopped = true;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Per-batch trigger; only the first call counts.
+     */
+    private final class Ack extends AtomicBoolean implements Trigger<Boolean> {
+
+        private final long delivered = sizing == null ? 0 : System.nanoTime();
+
+        @Override
+        public void trigger(Boolean more, Throwable thrown) {
+            if (compareAndSet(false, true)) {
+                acknowledge(more, thrown, delivered);
+            }
+        }
+    }
+
+    /**
+     * Chooses the batch size for each fetch.
+     */
+    interface Sizing {
+
+        /**
+         * Get the batch size to use for the next fetch.
+         *
+         * @param current The cursor's current batch size
+         * @return A batch size, or 0 or less to leave it unchanged
+         */
+        int batchSize(int current);
+
+        /**
+         * Called when a batch arrives from the cursor.
+         *
+         * @param batch The batch
+         * @param nanos How long the fetch took - meaningless for the first
+         * batch, which arrived with the cursor
+         */
+        default void fetched(List<?> batch, long nanos) {
+        }
+
+        /**
+         * Called when the receiver acknowledges a batch.
+         *
+         * @param nanos How long the receiver held the batch
+         */
+        default void processed(long nanos) {
+        }
+    }
+
+    private void finish(Throwable failed) {
+        try {
+            cursor.close();
+        } finally {
+            onDone.trigger(null, failed);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a chain of promises should be finished. Put one
+ * into a chain's PromiseContext under {@link #KEY}, and every operation a
+ * CollectionPromises performs in that chain fails fast with a
+ * MongoExecutionTimeoutException, without calling the server, once it has
+ * passed; reads sent before then - finds, counts, find-and-updates and
+ * parallel-scan sampling - have their <code>maxTimeMS</code> reduced to
+ * whatever of the budget is left, if that is less than their own. The
+ * remaining budget is computed when the operation is actually sent, so time
+ * spent waiting for a concurrency limit counts against it, and an operation
+ * still waiting when the deadline passes fails then, without waiting for a
+ * permit.
+ * <p>
+ * The driver does not support a time limit for plain writes, so those are
+ * only checked before being sent.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class Deadline {
+
+    /**
+     * Key under which a deadline may be put into a PromiseContext.
+     */
+    public static final PromiseContext.Key<Deadline> KEY = PromiseContext.newKey(Deadline.class);
+    /**
+     * The server's error code for an exceeded time limit.
+     */
+    static final int MAX_TIME_MS_EXPIRED = 50;
+    private final long nanoTime;
+
+    private Deadline(long nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Create a deadline the passed amount of time from now.
+     *
+     * @param amount The amount of time
+     * @param unit The unit
+     * @return A deadline
+     */
+    public static Deadline after(long amount, TimeUnit unit) {
+        FindBuilderImpl.checkNull("unit", unit);
+        return new Deadline(System.nanoTime() + unit.toNanos(amount));
+    }
+
+    /**
+     * Get how much time is left.
+     *
+     * @param unit The unit for the result
+     * @return The time left, which is zero or negative once it has passed
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(nanoTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Determine if the deadline has passed.
+     *
+     * @return true if it has
+     */
+    public boolean isExpired() {
+        return nanoTime - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Get whichever of this and another deadline comes first.
+     *
+     * @param other Another deadline, or null
+     * @return The earlier deadline
+     */
+    public Deadline earlier(Deadline other) {
+        return other == null || nanoTime - other.nanoTime <= 0 ? this : other;
+    }
+
+    static Deadline of(PromiseContext context) {
+        return context == null ? null : context.get(KEY);
+    }
+
+    /**
+     * Get the maxTimeMS to send: the lesser of the configured one and what is
+     * left, which is always at least one millisecond, since zero means no
+     * limit to the server.
+     *
+     * @param configuredMillis The operation's own time limit, or 0 for none
+     */
+    long maxTimeMillis(long configuredMillis) {
+        long left = Math.max(1, remaining(TimeUnit.MILLISECONDS));
+        return configuredMillis > 0 ? Math.min(configuredMillis, left) : left;
+    }
+
+    MongoExecutionTimeoutException expired() {
+        return new MongoExecutionTimeoutException(MAX_TIME_MS_EXPIRED, "Deadline passed "
+                + -remaining(TimeUnit.MILLISECONDS) + "ms ago; operation not sent");
+    }
+
+    /**
+     * Wrap a call so it fails without being made once the deadline has
+     * passed. It throws rather than passing the failure to the callback, so
+     * a Limiter treats it as a call which never reached the server, not as
+     * a round trip which timed out.
+     */
+    static <R> Limiter.Call<R> guard(final Deadline deadline, final Limiter.Call<R> call) {
+        if (deadline == null) {
+            return call;
+        }
+        return new Limiter.Call<R>() {
+            @Override
+            public void call(SingleResultCallback<R> callback) {
+                if (deadline.isExpired()) {
+                    throw deadline.expired();
+                }
+                call.call(callback);
+            }
+        };
+    }
+
+    /**
+     * Copy count options, with the time limit reduced to fit the deadline if
+     * there is one; the originals, which belong to a builder and may be
+     * shared between executions, are never modified.
+     */
+    static CountOptions limit(Deadline deadline, CountOptions opts) {
+        if (deadline == null) {
+            return opts;
+        }
+        return CountBuilderImpl.copy(opts)
+                .maxTime(deadline.maxTimeMillis(opts.getMaxTime(TimeUnit.MILLISECONDS)), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Copy find-and-update options, with the time limit reduced to fit the
+     * deadline if there is one.
+     */
+    static FindOneAndUpdateOptions limit(Deadline deadline, FindOneAndUpdateOptions opts) {
+        if (deadline == null) {
+            return opts;
+        }
+        return new FindOneAndUpdateOptions()
+                .projection(opts.getProjection())
+                .sort(opts.getSort())
+                .upsert(opts.isUpsert())
+                .returnDocument(opts.getReturnDocument())
+                .bypassDocumentValidation(opts.getBypassDocumentValidation())
+                .collation(opts.getCollation())
+                .arrayFilters(opts.getArrayFilters())
+                .maxTime(deadline.maxTimeMillis(opts.getMaxTime(TimeUnit.MILLISECONDS)), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set a find's time limit to fit the deadline, if there is one.
+     */
+    static <T> FindIterable<T> limit(Deadline deadline, FindIterable<T> find, long configuredMillis) {
+        if (deadline == null) {
+            return find;
+        }
+        return find.maxTime(deadline.maxTimeMillis(configuredMillis), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{" + remaining(TimeUnit.MILLISECONDS) + "ms left}";
+    }
+}
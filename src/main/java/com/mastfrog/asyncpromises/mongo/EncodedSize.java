@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import org.bson.BsonBinaryWriter;
+import org.bson.ByteBuf;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.OutputBuffer;
+
+/**
+ * Measures the encoded size of documents without keeping the bytes: the
+ * encoder writes into an output which only counts them, so nothing is
+ * allocated or copied however large the document.
+ *
+ * @author Tim Boudreau
+ */
+final class EncodedSize {
+
+    private EncodedSize() {
+        throw new AssertionError();
+    }
+
+    static <X> long of(X doc, Encoder<X> encoder) {
+        if (doc instanceof RawBsonDocument) {
+            return ((RawBsonDocument) doc).getByteBuffer().remaining();
+        }
+        Counter counter = new Counter();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(counter)) {
+            encoder.encode(writer, doc, EncoderContext.builder().build());
+        }
+        return counter.getSize();
+    }
+
+    /**
+     * Estimates sizes from a sample: the first documents are measured, and
+     * after that one in every <code>INTERVAL</code>, the rest being assumed
+     * to be the average size of those measured. Good enough for deciding when
+     * a batch is full, where being off by a document does not matter.
+     */
+    static final class Sampler<X> {
+
+        static final int INTERVAL = 16;
+        private final Encoder<X> encoder;
+        private long seen;
+        private long samples;
+        private long sampledBytes;
+
+        Sampler(Encoder<X> encoder) {
+            this.encoder = encoder;
+        }
+
+        long estimate(X doc) {
+            if (doc instanceof RawBsonDocument) {
+                return of(doc, encoder);
+            }
+            synchronized (this) {
+                long n = seen++;
+                if (samples > 0 && n >= INTERVAL && n % INTERVAL != 0) {
+                    return sampledBytes / samples;
+                }
+            }
+            long size = of(doc, encoder);
+            synchronized (this) {
+                samples++;
+                sampledBytes += size;
+            }
+            return size;
+        }
+    }
+
+    private static final class Counter extends OutputBuffer {
+
+        private int position;
+        private int size;
+
+        @Override
+        public void writeBytes(byte[] bytes, int offset, int length) {
+            advance(length);
+        }
+
+        @Override
+        public void writeByte(int value) {
+            advance(1);
+        }
+
+        private void advance(int count) {
+            position += count;
+            size = Math.max(size, position);
+        }
+
+        @Override
+        protected void write(int position, int value) {
+            // Backpatched lengths do not change the size
+        }
+
+        @Override
+        public int getPosition() {
+            return position;
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public void truncateToPosition(int newPosition) {
+            position = size = newPosition;
+        }
+
+        @Override
+        public List<ByteBuf> getByteBuffers() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int pipe(OutputStream out) {
+            return 0;
+        }
+    }
+}
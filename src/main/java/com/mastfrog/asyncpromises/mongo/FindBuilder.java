@@ -27,6 +27,8 @@ import com.mastfrog.asyncpromises.AsyncPromise;
 import com.mongodb.CursorType;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import org.bson.conversions.Bson;
 
 /**
@@ -44,6 +46,50 @@ public interface FindBuilder<T, I> {
      */
     public FindBuilder<T, I> withBatchSize(int size);
 
+    /**
+     * Let the batch size vary between fetches, aiming for batches of about
+     * <code>targetBytes</code> of BSON, judged by sampling the documents
+     * actually returned.  Growth is held back while the receiver is much
+     * slower than the server.  Overrides the batch size for every fetch
+     * but the first, which starts from the batch size set with
+     * <code>withBatchSize()</code> if it is within range, and from
+     * <code>min</code> otherwise.
+     *
+     * @param min The smallest batch size to use
+     * @param max The largest batch size to use
+     * @param targetBytes The number of bytes per batch to aim for
+     * @return this
+     */
+    public FindBuilder<T, I> adaptiveBatchSize(int min, int max, long targetBytes);
+
+    /**
+     * Keep up to this many batches fetched ahead of the one the
+     * FindReceiver is currently processing, so that the round trip for the
+     * next batch overlaps with work on the current one.  The default, 0,
+     * only requests the next batch once the receiver has asked for it.
+     * Each prefetched batch is held in memory, so large values combined
+     * with large batch sizes are expensive.
+     *
+     * @param batches The number of batches to fetch ahead
+     * @return this
+     */
+    public FindBuilder<T, I> prefetch(int batches);
+
+    /**
+     * Allow an {@link AsyncFindReceiver} to hold up to this many batches it
+     * has not yet acknowledged by calling the trigger it was passed with
+     * them; has no effect on other receivers, which acknowledge each batch
+     * before returning from withResults().  The
+     * default is 1, meaning the next batch is handed to the receiver only
+     * once the previous one has been acknowledged. Raising it lets a receiver
+     * which hands batches off to another asynchronous stage keep several in
+     * flight, while still bounding how far it can fall behind the cursor.
+     *
+     * @param batches The maximum number of unacknowledged batches, at least 1
+     * @return this
+     */
+    public FindBuilder<T, I> maxUnacknowledgedBatches(int batches);
+
     /**
      * Set the projection for the query
      *
@@ -146,10 +192,176 @@ public interface FindBuilder<T, I> {
      */
     public AsyncPromise<I, Void> find(FindReceiver<List<T>> receiver);
 
+    /**
+     * Fetch the results a page at a time using keyset pagination, with
+     * continuation tokens.  The sort and limit set on this builder are
+     * replaced by those of the page builder; other settings such as the
+     * projection apply to each page.
+     *
+     * @return A page builder
+     */
+    public PageBuilder<T, I> paginate();
+
+    /**
+     * Execute the find over several concurrent cursors, each covering a
+     * range of <code>_id</code>s; equivalent to
+     * <code>parallelFind("_id", partitions, receiver)</code>.
+     *
+     * @param partitions The number of cursors to use
+     * @param receiver The callback which will be passed each batch of results
+     * @return A promise which will be notified when all cursors are done
+     */
+    public AsyncPromise<I, Void> parallelFind(int partitions, FindReceiver<List<T>> receiver);
+
+    /**
+     * Execute the find over several concurrent cursors, each covering a
+     * range of values of the passed key, with split points chosen by
+     * sampling the matching documents with <code>$sample</code>.  The key
+     * should be indexed, and hold values of a single BSON type, since range
+     * queries only match values of the same type as their bounds.
+     * <p>
+     * The receiver is passed batches from all cursors as they arrive, in no
+     * particular order - a sort applies within each range only - but its
+     * <code>withResults()</code> method is never called concurrently.  If it
+     * declines further batches, all cursors stop.  Cannot be combined with a
+     * limit.
+     * </p>
+     *
+     * @param key The property to partition on
+     * @param partitions The number of cursors to use; fewer may be used if
+     * the sample has too few distinct values
+     * @param receiver The callback which will be passed each batch of results
+     * @return A promise which will be notified when all cursors are done
+     */
+    public AsyncPromise<I, Void> parallelFind(String key, int partitions, FindReceiver<List<T>> receiver);
+
+    /**
+     * Execute the find, passing each document to the receiver in turn,
+     * directly from the batches the cursor returns.
+     *
+     * @param receiver The callback, which returns false to stop the find
+     * @return A promise which will be notified when all documents have been
+     * passed to the receiver, or it has declined more
+     */
+    public AsyncPromise<I, Void> forEach(DocumentReceiver<? super T> receiver);
+
+    /**
+     * Execute the find, folding each document into an accumulated value which
+     * the returned promise passes on.  Each execution of the promise starts
+     * over from the same identity instance, so it must be immutable (a
+     * number, string or similar) and the accumulator must return a new value
+     * rather than modifying it; to accumulate into a mutable container, use
+     * <code>fold()</code>.
+     *
+     * @param <R> The type of the accumulated value
+     * @param identity The initial value
+     * @param accumulator Combines the value so far with the next document
+     * @return A promise which outputs the final value
+     */
+    public <R> AsyncPromise<I, R> reduce(R identity, BiFunction<R, ? super T, R> accumulator);
+
+    /**
+     * Execute the find, folding each document into an accumulated value which
+     * the returned promise passes on, starting from a value the supplier
+     * creates for each execution of the promise.  Unlike
+     * <code>reduce()</code>, the accumulator may modify and return the value
+     * it is passed.
+     *
+     * @param <R> The type of the accumulated value
+     * @param identity Creates the initial value
+     * @param accumulator Combines the value so far with the next document
+     * @return A promise which outputs the final value
+     */
+    public <R> AsyncPromise<I, R> fold(Supplier<? extends R> identity, BiFunction<R, ? super T, R> accumulator);
+
+    /**
+     * Get a publisher which streams the results of this find one document at
+     * a time, fetching batches only as subscribers signal demand - the
+     * batch size of each fetch follows the outstanding demand, capped by
+     * the batch size set on this builder if any.  Each subscription runs
+     * its own cursor.
+     * <p>
+     * For a builder obtained from <code>CollectionPromises.find()</code>,
+     * whose promises are passed the query when started, set the query with
+     * <code>filter()</code>; otherwise every document matches.
+     * </p>
+     *
+     * @return A publisher
+     */
+    public FindPublisher<T> publisher();
+
+    /**
+     * Coalesce concurrent identical findOne() calls - while one is in flight,
+     * others on the same CollectionPromises with the same query (ignoring the
+     * order of its top-level keys) and options wait for it and receive its
+     * result, rather than making their own call to the server. Useful for hot
+     * documents requested by many callers at once.
+     * <p>
+     * All callers receive the same result object, so none should modify it.
+     * Results are not cached - a call made after the in-flight one completes
+     * goes to the server.
+     * </p>
+     * <p>
+     * Callers also share the in-flight call's failure, so calls are only
+     * coalesced with others of the same {@link Priority}, and never when the
+     * chain they run in has a {@link Deadline} - one caller's budget running
+     * out should not fail another's call.
+     * </p>
+     *
+     * @return this
+     */
+    public FindBuilder<T, I> singleFlight();
+
+    /**
+     * Hedge findOne() calls across replica set members to cut tail latency -
+     * the query is first sent with a primary-preferred read preference, and
+     * if no answer arrives within the passed percentile of recent latencies
+     * of such first reads on this CollectionPromises (or that read fails), a
+     * duplicate is sent with a secondary-preferred read preference. Whichever
+     * answers first wins; if both fail, the first failure is reported.
+     * <p>
+     * Only use this where a possibly stale read from a secondary is
+     * acceptable. The losing read cannot be recalled once sent, so its
+     * result is simply discarded; under a concurrency limit, each read
+     * counts separately. Until enough latencies have been recorded, the
+     * initial delay is used.
+     * </p>
+     *
+     * @param percentile The percentile of recent latencies to wait before
+     * hedging, greater than 0 and at most 100 - e.g. 95
+     * @param initialDelay The delay to use until enough latencies are known
+     * @param unit The unit of the initial delay
+     * @return this
+     */
+    public FindBuilder<T, I> hedged(double percentile, long initialDelay, TimeUnit unit);
+
     /**
      * Execute the find, returning only the first collection element found.
      *
      * @return A promise
      */
     public AsyncPromise<I, T> findOne();
+
+    /**
+     * Create a reusable operation which returns the first collection element
+     * found. It captures this builder's current settings, so the builder may
+     * be changed or discarded afterwards, and may be started any number of
+     * times, concurrently.
+     *
+     * @return An operation
+     */
+    public Operation<I, T> findOneOperation();
+
+    /**
+     * Create a reusable operation which performs the find, passing batches
+     * of results to the receiver. It captures this builder's current
+     * settings, and may be started any number of times, concurrently - so
+     * the receiver must be able to handle batches from several executions
+     * at once, keeping any per-execution state in the PromiseContext it is
+     * passed.
+     *
+     * @param receiver The receiver
+     * @return An operation
+     */
+    public Operation<I, Void> findOperation(FindReceiver<List<T>> receiver);
 }
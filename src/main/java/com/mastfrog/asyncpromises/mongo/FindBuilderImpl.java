@@ -30,9 +30,20 @@ import com.mastfrog.asyncpromises.PromiseContext.Key;
 import com.mastfrog.asyncpromises.Trigger;
 import com.mongodb.CursorType;
 import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoCollection;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
 import org.bson.Document;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
 
 /**
@@ -50,6 +61,14 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
     private Bson sort;
     private long maxTime = 0;
     private TimeUnit unit;
+    private int prefetch;
+    private int maxUnacknowledged = 1;
+    private int adaptiveMin;
+    private int adaptiveMax;
+    private long adaptiveTargetBytes;
+    private boolean singleFlight;
+    private double hedgePercentile;
+    private long hedgeDelayNanos;
     private final Factory<T, I> factory;
 
     public static final Key<Bson> QUERY_KEY = PromiseContext.newKey(Bson.class);
@@ -94,8 +113,7 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
             this.query = query;
         }
 
-        @Override
-        public AsyncPromise<Void, T> findOne(FindBuilderImpl<T, ?> builder) {
+        private AsyncPromise<Void, Bson> query() {
             return AsyncPromise.create(new Logic<Void, Bson>() {
 
                 @Override
@@ -103,7 +121,22 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
                     context.put(QUERY_KEY, query);
                     next.trigger(query, null);
                 }
-            }).then(standard.findOne(builder));
+            });
+        }
+
+        @Override
+        public AsyncPromise<Void, T> findOne(FindBuilderImpl<T, ?> builder) {
+            return query().then(standard.findOne(builder));
+        }
+
+        @Override
+        public Operation<Void, Void> findOperation(FindBuilderImpl<T, ?> builder, FindReceiver<List<T>> logic) {
+            return Operation.withQuery(query, standard.findOperation(builder, logic));
+        }
+
+        @Override
+        public Operation<Void, T> findOneOperation(FindBuilderImpl<T, ?> builder) {
+            return Operation.withQuery(query, standard.findOneOperation(builder));
         }
 
         @Override
@@ -111,16 +144,34 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
             return new VoidFactory<R>(standard.withType(type), query);
         }
 
+        @Override
+        public FindPublisher<T> publisher(FindBuilderImpl<T, ?> builder, Bson ignored) {
+            return standard.publisher(builder, query);
+        }
+
         @Override
         public AsyncPromise<Void, Void> find(FindBuilderImpl<T, ?> builder, FindReceiver<List<T>> logic) {
-            return AsyncPromise.create(new Logic<Void, Bson>() {
+            return query().then(standard.find(builder, logic));
+        }
 
-                @Override
-                public void run(Void data, Trigger<Bson> next, PromiseContext context) throws Exception {
-                    context.put(QUERY_KEY, query);
-                    next.trigger(query, null);
-                }
-            }).then(standard.find(builder, logic));
+        @Override
+        public AsyncPromise<Void, Void> forEach(FindBuilderImpl<T, ?> builder, DocumentReceiver<? super T> receiver) {
+            return query().then(standard.forEach(builder, receiver));
+        }
+
+        @Override
+        public AsyncPromise<Void, Page<T>> page(FindBuilderImpl<T, ?> builder, PageBuilderImpl<T, ?> page) {
+            return query().then(standard.page(builder, page));
+        }
+
+        @Override
+        public AsyncPromise<Void, Void> parallelFind(FindBuilderImpl<T, ?> builder, String key, int partitions, FindReceiver<List<T>> receiver) {
+            return query().then(standard.parallelFind(builder, key, partitions, receiver));
+        }
+
+        @Override
+        public <R> AsyncPromise<Void, R> reduce(FindBuilderImpl<T, ?> builder, Supplier<? extends R> identity, BiFunction<R, ? super T, R> accumulator) {
+            return query().then(standard.reduce(builder, identity, accumulator));
         }
     }
 
@@ -136,13 +187,7 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
         @Override
         public AsyncPromise<Bson, Void> find(FindBuilderImpl<T, ?> builder, FindReceiver<List<T>> logic) {
             checkNull("logic", logic);
-            AsyncPromise<Bson, List<T>> result = promises.find(builder, logic);
-            return result.then(new Logic<List<T>, Void>() {
-                @Override
-                public void run(List<T> data, Trigger<Void> next, PromiseContext context) throws Exception {
-                    next.trigger(null, null);
-                }
-            });
+            return promises.find(builder, logic);
         }
 
         @Override
@@ -150,10 +195,69 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
             return promises.findOne(builder);
         }
 
+        @Override
+        public Operation<Bson, Void> findOperation(FindBuilderImpl<T, ?> builder, FindReceiver<List<T>> logic) {
+            return new Operation<>(promises.findLogic(builder, logic));
+        }
+
+        @Override
+        public Operation<Bson, T> findOneOperation(FindBuilderImpl<T, ?> builder) {
+            return new Operation<>(promises.findOneLogic(builder));
+        }
+
+        @Override
+        public AsyncPromise<Bson, Void> forEach(FindBuilderImpl<T, ?> builder, DocumentReceiver<? super T> receiver) {
+            return promises.find(builder, new DocumentsReceiver<T>(receiver));
+        }
+
+        @Override
+        public AsyncPromise<Bson, Page<T>> page(FindBuilderImpl<T, ?> builder, PageBuilderImpl<T, ?> page) {
+            return promises.page(builder, page);
+        }
+
+        @Override
+        public AsyncPromise<Bson, Void> parallelFind(FindBuilderImpl<T, ?> builder, String key, int partitions, FindReceiver<List<T>> receiver) {
+            return promises.parallelFind(builder, key, partitions, receiver);
+        }
+
+        @Override
+        public <R> AsyncPromise<Bson, R> reduce(FindBuilderImpl<T, ?> builder, Supplier<? extends R> identity, BiFunction<R, ? super T, R> accumulator) {
+            return promises.reduce(builder, identity, accumulator);
+        }
+
         @Override
         public <R> Factory<R, Bson> withType(Class<R> type) {
             return new StandardFactory<>(promises.withType(type));
         }
+
+        @Override
+        public FindPublisher<T> publisher(FindBuilderImpl<T, ?> builder, Bson query) {
+            return new FindPublisherImpl<>(promises, builder, query);
+        }
+    }
+
+    /**
+     * Adapts a per-document receiver to batches; holds no state of its own,
+     * so one instance can serve any number of executions.
+     */
+    static final class DocumentsReceiver<T> implements FindReceiver<List<T>> {
+
+        private final DocumentReceiver<? super T> receiver;
+
+        DocumentsReceiver(DocumentReceiver<? super T> receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void withResults(List<T> batch, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+            for (int i = 0, size = batch.size(); i < size; i++) {
+                if (!receiver.withDocument(batch.get(i), context)) {
+                    trigger.trigger(false, null);
+                    return;
+                }
+            }
+            trigger.trigger(true, null);
+        }
     }
 
     interface Factory<T, I> {
@@ -162,12 +266,41 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
 
         AsyncPromise<I, T> findOne(FindBuilderImpl<T, ?> builder);
 
+        Operation<I, Void> findOperation(FindBuilderImpl<T, ?> builder, FindReceiver<List<T>> logic);
+
+        Operation<I, T> findOneOperation(FindBuilderImpl<T, ?> builder);
+
+        AsyncPromise<I, Void> forEach(FindBuilderImpl<T, ?> builder, DocumentReceiver<? super T> receiver);
+
+        AsyncPromise<I, Void> parallelFind(FindBuilderImpl<T, ?> builder, String key, int partitions, FindReceiver<List<T>> receiver);
+
+        AsyncPromise<I, Page<T>> page(FindBuilderImpl<T, ?> builder, PageBuilderImpl<T, ?> page);
+
+        <R> AsyncPromise<I, R> reduce(FindBuilderImpl<T, ?> builder, Supplier<? extends R> identity, BiFunction<R, ? super T, R> accumulator);
+
         <R> Factory<R, I> withType(Class<R> type);
+
+        FindPublisher<T> publisher(FindBuilderImpl<T, ?> builder, Bson query);
     }
 
     @Override
     public <R> FindBuilder<R, I> withResultType(Class<R> type) {
-        FindBuilderImpl<R, I> result = new FindBuilderImpl<>(factory.withType(type));
+        return copyInto(new FindBuilderImpl<>(factory.withType(type)));
+    }
+
+    /**
+     * Copy this builder, replacing the filter.
+     *
+     * @param filter The new filter
+     * @return A copy
+     */
+    FindBuilderImpl<T, I> withFilter(Bson filter) {
+        FindBuilderImpl<T, I> result = copyInto(new FindBuilderImpl<>(factory));
+        result.filter = filter;
+        return result;
+    }
+
+    private <R> FindBuilderImpl<R, I> copyInto(FindBuilderImpl<R, I> result) {
         result.batchSize = batchSize;
         result.projection = projection;
         result.cursorType = cursorType;
@@ -177,9 +310,28 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
         result.sort = sort;
         result.maxTime = maxTime;
         result.unit = unit;
+        result.prefetch = prefetch;
+        result.maxUnacknowledged = maxUnacknowledged;
+        result.adaptiveMin = adaptiveMin;
+        result.adaptiveMax = adaptiveMax;
+        result.adaptiveTargetBytes = adaptiveTargetBytes;
+        result.singleFlight = singleFlight;
+        result.hedgePercentile = hedgePercentile;
+        result.hedgeDelayNanos = hedgeDelayNanos;
         return result;
     }
 
+    Bson filter() {
+        return filter;
+    }
+
+    /**
+     * The time limit set with maxTime(), or 0 if none.
+     */
+    long maxTimeMillis() {
+        return unit == null ? 0 : unit.toMillis(maxTime);
+    }
+
     FindIterable<T> apply(FindIterable<T> iter) {
         if (batchSize > 0) {
             iter = iter.batchSize(batchSize);
@@ -217,6 +369,149 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
         return this;
     }
 
+    @Override
+    public FindBuilder<T, I> prefetch(int batches) {
+        if (batches < 0) {
+            throw new IllegalArgumentException("Prefetch must be >= 0: " + batches);
+        }
+        prefetch = batches;
+        return this;
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public FindBuilder<T, I> adaptiveBatchSize(int min, int max, long targetBytes) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Bad batch size range " + min + " to " + max);
+        }
+        if (targetBytes <= 0) {
+            throw new IllegalArgumentException("Target bytes must be > 0: " + targetBytes);
+        }
+        adaptiveMin = min;
+        adaptiveMax = max;
+        adaptiveTargetBytes = targetBytes;
+        return this;
+    }
+
+    CursorLoop.Sizing sizing(MongoCollection<T> collection) {
+        if (adaptiveTargetBytes <= 0) {
+            return null;
+        }
+        Encoder<T> encoder;
+        try {
+            encoder = collection.getCodecRegistry().get(collection.getDocumentClass());
+        } catch (CodecConfigurationException ex) {
+            encoder = null;
+        }
+        return new AdaptiveBatchSize<>(adaptiveMin, adaptiveMax, adaptiveTargetBytes, encoder);
+    }
+
+    int prefetch() {
+        return prefetch;
+    }
+
+    @Override
+    public FindBuilder<T, I> singleFlight() {
+        singleFlight = true;
+        return this;
+    }
+
+    boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    @Override
+    public FindBuilder<T, I> hedged(double percentile, long initialDelay, TimeUnit unit) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be > 0 and <= 100: " + percentile);
+        }
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("Initial delay must be >= 0: " + initialDelay);
+        }
+        checkNull("unit", unit);
+        hedgePercentile = percentile;
+        hedgeDelayNanos = unit.toNanos(initialDelay);
+        return this;
+    }
+
+    boolean isHedged() {
+        return hedgePercentile > 0;
+    }
+
+    double hedgePercentile() {
+        return hedgePercentile;
+    }
+
+    long hedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    /**
+     * Copy a query with its top-level keys sorted, for use in cache keys.
+     */
+    static BsonDocument normalize(BsonDocument query) {
+        BsonDocument sorted = new BsonDocument();
+        for (String key : new TreeSet<>(query.keySet())) {
+            sorted.append(key, query.get(key));
+        }
+        return sorted;
+    }
+
+    /**
+     * Whether findOne() returns whole, unmodified documents.
+     */
+    boolean isPlainLookup() {
+        return projection == null && modifiers == null;
+    }
+
+    /**
+     * Key identifying findOne calls with the same query and options; the
+     * query's top-level keys are sorted, since their order does not affect
+     * what matches.
+     */
+    BsonDocument flightKey(Bson query, MongoCollection<T> collection) {
+        CodecRegistry registry = collection.getCodecRegistry();
+        Class<T> type = collection.getDocumentClass();
+        BsonDocument result = new BsonDocument("q", normalize((filter == null ? query : filter).toBsonDocument(type, registry)));
+        if (projection != null) {
+            result.append("p", projection.toBsonDocument(type, registry));
+        }
+        if (sort != null) {
+            result.append("s", sort.toBsonDocument(type, registry));
+        }
+        if (modifiers != null) {
+            result.append("m", modifiers.toBsonDocument(type, registry));
+        }
+        if (cursorType != null) {
+            result.append("c", new BsonString(cursorType.name()));
+        }
+        if (unit != null) {
+            result.append("t", new BsonInt64(unit.toMillis(maxTime)));
+        }
+        if (isHedged()) {
+            // May be answered from a secondary, so never share with a
+            // primary-only read
+            result.append("h", BsonBoolean.TRUE);
+        }
+        return result;
+    }
+
+    @Override
+    public FindBuilder<T, I> maxUnacknowledgedBatches(int batches) {
+        if (batches <= 0) {
+            throw new IllegalArgumentException("Must allow at least one batch: " + batches);
+        }
+        maxUnacknowledged = batches;
+        return this;
+    }
+
+    int maxUnacknowledged() {
+        return maxUnacknowledged;
+    }
+
     @Override
     public FindBuilder<T, I> withProjection(Bson projection) {
         this.projection = projection;
@@ -294,8 +589,94 @@ final class FindBuilderImpl<T, I> implements FindBuilder<T, I> {
         return factory.find(this, logic);
     }
 
+    @Override
+    public PageBuilder<T, I> paginate() {
+        return new PageBuilderImpl<>(new PageBuilderImpl.Factory<T, I>() {
+            @Override
+            public AsyncPromise<I, Page<T>> page(PageBuilderImpl<T, ?> page) {
+                return factory.page(FindBuilderImpl.this, page);
+            }
+        });
+    }
+
+    @Override
+    public AsyncPromise<I, Void> parallelFind(int partitions, FindReceiver<List<T>> receiver) {
+        return parallelFind("_id", partitions, receiver);
+    }
+
+    @Override
+    public AsyncPromise<I, Void> parallelFind(String key, int partitions, FindReceiver<List<T>> receiver) {
+        checkNull("key", key);
+        checkNull("receiver", receiver);
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Partitions must be at least one: " + partitions);
+        }
+        if (limit > 0) {
+            throw new IllegalStateException("A limit would apply to each partition separately");
+        }
+        return factory.parallelFind(this, key, partitions, receiver);
+    }
+
+    @Override
+    public AsyncPromise<I, Void> forEach(DocumentReceiver<? super T> receiver) {
+        checkNull("receiver", receiver);
+        return factory.forEach(this, receiver);
+    }
+
+    @Override
+    public <R> AsyncPromise<I, R> reduce(final R identity, BiFunction<R, ? super T, R> accumulator) {
+        checkNull("accumulator", accumulator);
+        return factory.reduce(this, new Supplier<R>() {
+            @Override
+            public R get() {
+                return identity;
+            }
+        }, accumulator);
+    }
+
+    @Override
+    public <R> AsyncPromise<I, R> fold(Supplier<? extends R> identity, BiFunction<R, ? super T, R> accumulator) {
+        checkNull("identity", identity);
+        checkNull("accumulator", accumulator);
+        return factory.reduce(this, identity, accumulator);
+    }
+
+    @Override
+    public FindPublisher<T> publisher() {
+        return factory.publisher(this, new Document());
+    }
+
     @Override
     public AsyncPromise<I, T> findOne() {
         return factory.findOne(this);
     }
+
+    @Override
+    public Operation<I, T> findOneOperation() {
+        return factory.findOneOperation(snapshot());
+    }
+
+    @Override
+    public Operation<I, Void> findOperation(FindReceiver<List<T>> receiver) {
+        checkNull("receiver", receiver);
+        return factory.findOperation(snapshot(), receiver);
+    }
+
+    /**
+     * Copy this builder without prefetching and with one unacknowledged
+     * batch at a time, for consumers which fetch only on demand.
+     */
+    FindBuilderImpl<T, I> onDemand() {
+        FindBuilderImpl<T, I> result = snapshot();
+        result.prefetch = 0;
+        result.maxUnacknowledged = 1;
+        return result;
+    }
+
+    /**
+     * Copy this builder, for operations which must not see later changes.
+     */
+    FindBuilderImpl<T, I> snapshot() {
+        return copyInto(new FindBuilderImpl<>(factory));
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+/**
+ * Publishes the results of a find to subscribers one document at a time,
+ * honoring their demand.  The interfaces here have the same shape as those
+ * in <code>java.util.concurrent.Flow</code> and Reactive Streams, and follow
+ * the same rules, so adapting to either is a matter of delegation.
+ *
+ * @author Tim Boudreau
+ * @param <T> The type of document
+ */
+public interface FindPublisher<T> {
+
+    /**
+     * Subscribe to the results; no query is run until the subscriber
+     * requests something.
+     *
+     * @param subscriber The subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+
+    /**
+     * Receives documents from a FindPublisher.
+     *
+     * @param <T> The document type
+     */
+    interface Subscriber<T> {
+
+        /**
+         * Called once, before any other method, with the subscription
+         * through which to request documents.
+         *
+         * @param subscription The subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with each document, never more times than requested.
+         *
+         * @param item A document
+         */
+        void onNext(T item);
+
+        /**
+         * Called if the find fails; no further calls follow.
+         *
+         * @param thrown The failure
+         */
+        void onError(Throwable thrown);
+
+        /**
+         * Called once all matching documents have been passed to onNext().
+         */
+        void onComplete();
+    }
+
+    /**
+     * Link between a subscriber and the cursor it is reading from.
+     */
+    interface Subscription {
+
+        /**
+         * Request some number of additional documents.
+         *
+         * @param n The number, which must be greater than zero
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving documents and close the cursor.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.conversions.Bson;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class FindPublisherImpl<T> implements FindPublisher<T> {
+
+    private final CollectionPromises<T> promises;
+    private final FindBuilderImpl<T, ?> builder;
+    private final Bson query;
+
+    FindPublisherImpl(CollectionPromises<T> promises, FindBuilderImpl<T, ?> builder, Bson query) {
+        this.promises = promises;
+        // Prefetching or handing over several batches at once would fetch
+        // ahead of the subscriber's demand
+        this.builder = builder.onDemand();
+        this.query = query;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        FindBuilderImpl.checkNull("subscriber", subscriber);
+        CursorSubscription subscription = new CursorSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Receives batches from the cursor one at a time, acknowledging each
+     * only once its last document has been emitted and the subscriber has
+     * asked for more, so nothing more is fetched than it has asked for.
+     */
+    private final class CursorSubscription implements Subscription, AsyncFindReceiver<List<T>>, CursorLoop.Sizing, Trigger<Void> {
+
+        private final Subscriber<? super T> subscriber;
+        private final AtomicInteger wip = new AtomicInteger();
+        private long demand;
+        private boolean started;
+        private boolean cancelled;
+        private boolean done;
+        private boolean terminated;
+        private Throwable failure;
+        private Iterator<T> batch;
+        private Trigger<Boolean> ack;
+
+        CursorSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            boolean start = false;
+            synchronized (this) {
+                if (cancelled || terminated) {
+                    return;
+                }
+                if (n <= 0) {
+                    cancelled = true;
+                    failure = new IllegalArgumentException("Request for " + n + " items");
+                    done = true;
+                } else {
+                    demand += n;
+                    if (demand < 0) {
+                        demand = Long.MAX_VALUE;
+                    }
+                    if (!started) {
+                        started = start = true;
+                    }
+                }
+            }
+            if (start) {
+                promises.scan(query, builder, this, new PromiseContext(), this, this);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void withResults(List<T> obj, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+            synchronized (this) {
+                if (!terminated) {
+                    batch = obj.iterator();
+                    ack = trigger;
+                    trigger = null;
+                }
+            }
+            if (trigger != null) {
+                // Cancelled while the batch was being fetched
+                trigger.trigger(false, null);
+                return;
+            }
+            drain();
+        }
+
+        @Override
+        public void trigger(Void obj, Throwable thrown) {
+            synchronized (this) {
+                done = true;
+                failure = thrown;
+            }
+            drain();
+        }
+
+        @Override
+        public synchronized int batchSize(int current) {
+            if (demand <= 0 || demand >= Integer.MAX_VALUE) {
+                return 0;
+            }
+            int max = builder.batchSize();
+            return max > 0 ? (int) Math.min(demand, max) : (int) demand;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                emit();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            for (;;) {
+                T item = null;
+                Trigger<Boolean> acknowledge = null;
+                boolean more = true;
+                boolean complete = false;
+                Throwable thrown = null;
+                synchronized (this) {
+                    if (terminated) {
+                        return;
+                    }
+                    if (cancelled) {
+                        terminated = true;
+                        acknowledge = ack;
+                        batch = null;
+                        ack = null;
+                        more = false;
+                        // An invalid request() is reported even though it
+                        // cancels the subscription
+                        thrown = failure;
+                    } else if (batch != null && batch.hasNext()) {
+                        if (demand == 0) {
+                            return;
+                        }
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                        item = batch.next();
+                    } else if (batch != null) {
+                        if (demand == 0) {
+                            // Acknowledged by request(), so the next fetch
+                            // is sized to real demand
+                            return;
+                        }
+                        acknowledge = ack;
+                        batch = null;
+                        ack = null;
+                    } else if (done) {
+                        terminated = true;
+                        complete = true;
+                        thrown = failure;
+                    } else {
+                        return;
+                    }
+                }
+                if (item != null) {
+                    subscriber.onNext(item);
+                } else if (acknowledge != null) {
+                    acknowledge.trigger(more, null);
+                }
+                if (thrown != null) {
+                    subscriber.onError(thrown);
+                } else if (complete) {
+                    subscriber.onComplete();
+                }
+            }
+        }
+    }
+}
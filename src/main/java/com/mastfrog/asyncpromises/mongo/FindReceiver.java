@@ -34,7 +34,13 @@ import com.mastfrog.asyncpromises.Trigger;
 public interface FindReceiver<T> {
 
     /**
-     * Implement this to do something with each batch of results
+     * Implement this to do something with each batch of results.
+     * <p>
+     * Call the trigger before returning; if it has not been called when
+     * this method returns, no further batches are delivered and the find
+     * completes. Receivers which need to acknowledge a batch later should
+     * implement {@link AsyncFindReceiver}.
+     * </p>
      *
      * @param obj The results batch
      * @param trigger Call this trigger with <code>true</code> if you want
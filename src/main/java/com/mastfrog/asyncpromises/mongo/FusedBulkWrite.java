@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.BsonArray;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * Rewrites a list of bulk write requests so that updateOnes by a single
+ * <code>_id</code> which share a byte-identical modification become one
+ * updateMany with an <code>$in</code> of their ids, and deleteOnes by a
+ * single <code>_id</code> likewise become a deleteMany. Only plain
+ * operations are fused - no upserts, array filters, collations or
+ * validation bypass. A group never holds the same id twice, since the
+ * modification would then be applied once instead of twice; for an ordered
+ * write, only adjacent operations are fused, so nothing is reordered.
+ * <p>
+ * Upsert and error indices in results are mapped back to the original
+ * requests. A write error stops a fused operation part way, leaving some of
+ * its documents modified and others not, with no way to tell which; so it
+ * is reported at the index of every request fused into it, where separate
+ * operations would each have succeeded or failed on their own.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class FusedBulkWrite<T> {
+
+    private static final ByteBuffer DELETE = ByteBuffer.allocate(0);
+    private final List<WriteModel<? extends T>> requests;
+    private final int[] origins;
+    private final int[][] members;
+
+    private FusedBulkWrite(List<WriteModel<? extends T>> requests, int[] origins, int[][] members) {
+        this.requests = requests;
+        this.origins = origins;
+        this.members = members;
+    }
+
+    /**
+     * Fuse requests into operations of at most maxIds ids each.
+     */
+    static <T> FusedBulkWrite<T> fuse(List<WriteModel<? extends T>> requests, boolean ordered, int maxIds, Class<T> type, CodecRegistry registry) {
+        List<Object> slots = new ArrayList<>(requests.size());
+        Map<ByteBuffer, Group> open = new HashMap<>();
+        Group last = null;
+        for (int i = 0; i < requests.size(); i++) {
+            WriteModel<? extends T> req = requests.get(i);
+            BsonValue id = null;
+            ByteBuffer key = null;
+            BsonDocument modification = null;
+            if (req instanceof UpdateOneModel<?> && isPlain(((UpdateOneModel<?>) req).getOptions())) {
+                UpdateOneModel<?> update = (UpdateOneModel<?>) req;
+                if (update.getUpdate() != null) {
+                    id = IdCache.idOf(update.getFilter().toBsonDocument(type, registry));
+                    modification = update.getUpdate().toBsonDocument(type, registry);
+                    key = bytes(modification);
+                }
+            } else if (req instanceof DeleteOneModel<?> && ((DeleteOneModel<?>) req).getOptions().getCollation() == null) {
+                id = IdCache.idOf(((DeleteOneModel<?>) req).getFilter().toBsonDocument(type, registry));
+                key = DELETE;
+            }
+            if (id == null) {
+                slots.add(i);
+                last = null;
+                continue;
+            }
+            Group group = ordered ? (last != null && last.key.equals(key) ? last : null) : open.get(key);
+            if (group == null || group.ids.size() >= maxIds || !group.seen.add(id)) {
+                group = new Group(key, modification, i, req);
+                group.seen.add(id);
+                slots.add(group);
+                open.put(key, group);
+            }
+            group.ids.add(id);
+            group.indices.add(i);
+            last = group;
+        }
+        List<WriteModel<? extends T>> fused = new ArrayList<>(slots.size());
+        int[] origins = new int[slots.size()];
+        int[][] members = new int[slots.size()][];
+        for (int i = 0; i < slots.size(); i++) {
+            Object slot = slots.get(i);
+            if (slot instanceof Group) {
+                Group group = (Group) slot;
+                origins[i] = group.origin;
+                members[i] = group.indices();
+                fused.add(group.<T>toModel());
+            } else {
+                origins[i] = (Integer) slot;
+                members[i] = new int[]{origins[i]};
+                fused.add(requests.get(origins[i]));
+            }
+        }
+        return new FusedBulkWrite<>(fused, origins, members);
+    }
+
+    private static boolean isPlain(UpdateOptions opts) {
+        return !opts.isUpsert() && opts.getArrayFilters() == null && opts.getCollation() == null
+                && opts.getBypassDocumentValidation() == null;
+    }
+
+    private static ByteBuffer bytes(BsonDocument doc) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            new BsonDocumentCodec().encode(writer, doc, EncoderContext.builder().build());
+        }
+        return ByteBuffer.wrap(buffer.toByteArray());
+    }
+
+    List<WriteModel<? extends T>> requests() {
+        return requests;
+    }
+
+    /**
+     * Wrap a trigger so upsert and error indices in what it is passed refer
+     * to the original requests, with an error in a fused operation repeated
+     * for each request fused into it.
+     */
+    Trigger<BulkWriteResult> remapping(final Trigger<BulkWriteResult> next) {
+        return new Trigger<BulkWriteResult>() {
+            @Override
+            public void trigger(BulkWriteResult result, Throwable thrown) {
+                if (thrown instanceof MongoBulkWriteException) {
+                    MongoBulkWriteException bulk = (MongoBulkWriteException) thrown;
+                    List<BulkWriteError> errors = new ArrayList<>(bulk.getWriteErrors().size());
+                    for (BulkWriteError err : bulk.getWriteErrors()) {
+                        for (int ix : members[err.getIndex()]) {
+                            errors.add(new BulkWriteError(err.getCode(), err.getMessage(), err.getDetails(), ix));
+                        }
+                    }
+                    ChunkedBulkWrite.sortByIndex(errors);
+                    thrown = new MongoBulkWriteException(remap(bulk.getWriteResult()), errors, bulk.getWriteConcernError(), bulk.getServerAddress());
+                }
+                next.trigger(result == null ? null : remap(result), thrown);
+            }
+        };
+    }
+
+    private BulkWriteResult remap(BulkWriteResult result) {
+        if (!result.wasAcknowledged() || result.getUpserts().isEmpty()) {
+            return result;
+        }
+        List<BulkWriteUpsert> upserts = new ArrayList<>(result.getUpserts().size());
+        for (BulkWriteUpsert up : result.getUpserts()) {
+            upserts.add(new BulkWriteUpsert(origins[up.getIndex()], up.getId()));
+        }
+        return BulkWriteResult.acknowledged(result.getInsertedCount(), result.getMatchedCount(),
+                result.getDeletedCount(), result.getModifiedCount(), upserts);
+    }
+
+    /**
+     * Requests fused into one operation.
+     */
+    private static final class Group {
+
+        final ByteBuffer key;
+        final BsonDocument modification;
+        final int origin;
+        final WriteModel<?> first;
+        final List<BsonValue> ids = new ArrayList<>();
+        final List<Integer> indices = new ArrayList<>();
+        final Set<BsonValue> seen = new HashSet<>();
+
+        Group(ByteBuffer key, BsonDocument modification, int origin, WriteModel<?> first) {
+            this.key = key;
+            this.modification = modification;
+            this.origin = origin;
+            this.first = first;
+        }
+
+        int[] indices() {
+            int[] result = new int[indices.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = indices.get(i);
+            }
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> WriteModel<? extends T> toModel() {
+            if (ids.size() == 1) {
+                return (WriteModel<? extends T>) first;
+            }
+            BsonDocument filter = new BsonDocument("_id", new BsonDocument("$in", new BsonArray(ids)));
+            if (modification == null) {
+                return new DeleteManyModel<>(filter);
+            }
+            return new UpdateManyModel<>(filter, modification);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.async.SingleResultCallback;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a single hedged read: makes the first read, and if it has not
+ * answered within a percentile of recent first-read latencies (or fails),
+ * makes a second one, typically against a different replica set member. The
+ * first answer wins; the other is ignored when it arrives, since the driver
+ * offers no way to abandon a read once sent. If both fail, the first
+ * failure is reported.
+ *
+ * @author Tim Boudreau
+ */
+final class HedgedRead<T> {
+
+    private final Reader<T> reader;
+    private final LatencyTracker latency;
+    private final double percentile;
+    private final long initialDelayNanos;
+    private final Trigger<T> next;
+    private ScheduledFuture<?> timer;
+    private boolean hedged;
+    private boolean done;
+    private int failures;
+    private Throwable failure;
+
+    HedgedRead(Reader<T> reader, LatencyTracker latency, double percentile, long initialDelayNanos, Trigger<T> next) {
+        this.reader = reader;
+        this.latency = latency;
+        this.percentile = percentile;
+        this.initialDelayNanos = initialDelayNanos;
+        this.next = next;
+    }
+
+    void start() {
+        long delay = latency.percentileNanos(percentile, initialDelayNanos);
+        synchronized (this) {
+            timer = Timers.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    hedge();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+        read(false);
+    }
+
+    private void hedge() {
+        synchronized (this) {
+            if (done || hedged) {
+                return;
+            }
+            hedged = true;
+            cancelTimer();
+        }
+        read(true);
+    }
+
+    private void read(final boolean hedge) {
+        final long started = System.nanoTime();
+        SingleResultCallback<T> callback = new SingleResultCallback<T>() {
+            @Override
+            public void onResult(T result, Throwable thrown) {
+                if (!hedge && thrown == null) {
+                    latency.record(System.nanoTime() - started);
+                }
+                completed(hedge, result, thrown);
+            }
+        };
+        try {
+            reader.read(hedge, callback);
+        } catch (Exception e) {
+            callback.onResult(null, e);
+        }
+    }
+
+    private void completed(boolean hedge, T result, Throwable thrown) {
+        boolean hedgeNow = false;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            if (thrown != null) {
+                failures++;
+                if (failure == null) {
+                    failure = thrown;
+                }
+                if (!hedged) {
+                    hedgeNow = true;
+                } else if (failures < 2) {
+                    // The other read may still succeed
+                    return;
+                } else {
+                    done = true;
+                    thrown = failure;
+                }
+            } else {
+                done = true;
+                cancelTimer();
+            }
+        }
+        if (hedgeNow) {
+            hedge();
+        } else {
+            next.trigger(result, thrown);
+        }
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    /**
+     * Performs one of the two reads.
+     */
+    interface Reader<T> {
+
+        /**
+         * Make a read, passing its outcome to the callback.
+         *
+         * @param hedge False for the first read, true for the second
+         * @param callback The callback
+         */
+        void read(boolean hedge, SingleResultCallback<T> callback);
+    }
+}
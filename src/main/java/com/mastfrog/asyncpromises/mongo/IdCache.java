@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+/**
+ * Size and age bounded LRU cache of documents by id, used by CollectionPromises
+ * to answer findOne() calls for a single id. Writes invalidate affected ids -
+ * or everything, when the ids a write touches cannot be known from its query
+ * - both when they start and when they complete; a fill only lands if no
+ * invalidation happened while its read was in flight, so a read racing a
+ * write cannot cache what the write replaced.
+ *
+ * @author Tim Boudreau
+ */
+final class IdCache<T> {
+
+    private final long ttlNanos;
+    private final Map<BsonValue, Cached<T>> entries;
+    private long generation;
+
+    IdCache(final int maxSize, long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+        entries = new LinkedHashMap<BsonValue, Cached<T>>(Math.min(maxSize, 256), 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BsonValue, Cached<T>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    synchronized T get(BsonValue id) {
+        Cached<T> entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.created > ttlNanos) {
+            entries.remove(id);
+            return null;
+        }
+        return entry.value;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized void put(BsonValue id, T value, long expectedGeneration) {
+        if (expectedGeneration == generation) {
+            entries.put(id, new Cached<>(value));
+        }
+    }
+
+    synchronized void invalidate(BsonValue id) {
+        generation++;
+        entries.remove(id);
+    }
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Get the id a query matches, if it matches exactly one id - a query
+     * on a regular expression, array or operator document does not.
+     *
+     * @return The id, or null
+     */
+    static BsonValue idOf(Bson query, MongoCollection<?> collection) {
+        if (query == null) {
+            return null;
+        }
+        return idOf(query.toBsonDocument(collection.getDocumentClass(), collection.getCodecRegistry()));
+    }
+
+    static BsonValue idOf(BsonDocument doc) {
+        if (doc.size() != 1) {
+            return null;
+        }
+        BsonValue id = doc.get("_id");
+        if (id != null && id.isDocument()) {
+            BsonDocument sub = id.asDocument();
+            if (!sub.isEmpty() && sub.getFirstKey().startsWith("$")) {
+                id = sub.size() == 1 ? sub.get("$eq") : null;
+            }
+        }
+        return isPlainId(id) ? IdLoaderImpl.key(id) : null;
+    }
+
+    /**
+     * Only scalars and operator-free documents are matched by equality;
+     * a regular expression or array may match many documents.
+     */
+    private static boolean isPlainId(BsonValue id) {
+        if (id == null || id.isRegularExpression() || id.isArray()) {
+            return false;
+        }
+        if (id.isDocument()) {
+            for (String key : id.asDocument().keySet()) {
+                if (key.startsWith("$")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    void invalidate(Bson query, MongoCollection<?> collection) {
+        BsonValue id = idOf(query, collection);
+        if (id == null) {
+            clear();
+        } else {
+            invalidate(id);
+        }
+    }
+
+    void invalidate(List<? extends WriteModel<?>> requests, MongoCollection<?> collection) {
+        for (WriteModel<?> model : requests) {
+            Bson filter;
+            if (model instanceof InsertOneModel<?>) {
+                continue;
+            } else if (model instanceof UpdateOneModel<?>) {
+                filter = ((UpdateOneModel<?>) model).getFilter();
+            } else if (model instanceof ReplaceOneModel<?>) {
+                filter = ((ReplaceOneModel<?>) model).getFilter();
+            } else if (model instanceof DeleteOneModel<?>) {
+                filter = ((DeleteOneModel<?>) model).getFilter();
+            } else if (model instanceof UpdateManyModel<?>) {
+                filter = ((UpdateManyModel<?>) model).getFilter();
+            } else if (model instanceof DeleteManyModel<?>) {
+                filter = ((DeleteManyModel<?>) model).getFilter();
+            } else {
+                filter = null;
+            }
+            BsonValue id = idOf(filter, collection);
+            if (id == null) {
+                clear();
+                return;
+            }
+            invalidate(id);
+        }
+    }
+
+    /**
+     * Wrap the trigger for a write so the affected ids are invalidated again
+     * when it completes.
+     */
+    <R> Trigger<R> invalidating(final Bson query, final MongoCollection<?> collection, final Trigger<R> next) {
+        invalidate(query, collection);
+        return new Trigger<R>() {
+            @Override
+            public void trigger(R obj, Throwable thrown) {
+                try {
+                    invalidate(query, collection);
+                } finally {
+                    next.trigger(obj, thrown);
+                }
+            }
+        };
+    }
+
+    <R> Trigger<R> invalidating(final List<? extends WriteModel<?>> requests, final MongoCollection<?> collection, final Trigger<R> next) {
+        invalidate(requests, collection);
+        return new Trigger<R>() {
+            @Override
+            public void trigger(R obj, Throwable thrown) {
+                try {
+                    invalidate(requests, collection);
+                } finally {
+                    next.trigger(obj, thrown);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap the trigger for a read of the passed id so a non-null result is
+     * cached.
+     */
+    Trigger<T> filling(final BsonValue id, final Trigger<T> next) {
+        final long expected = generation();
+        return new Trigger<T>() {
+            @Override
+            public void trigger(T obj, Throwable thrown) {
+                if (obj != null && thrown == null) {
+                    put(id, obj, expected);
+                }
+                next.trigger(obj, thrown);
+            }
+        };
+    }
+
+    private static final class Cached<T> {
+
+        final T value;
+        final long created = System.nanoTime();
+
+        Cached(T value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+
+/**
+ * Loads documents by <code>_id</code>, batching lookups made within a short
+ * window into a single <code>$in</code> query, so independent callers which
+ * each want one document share one round trip. Get one from
+ * <code>CollectionPromises.byIdLoader()</code>; it is thread-safe and meant to
+ * be shared.
+ * <p>
+ * A batch waits for a concurrency limit with the highest Priority among the
+ * contexts of the promises in it. It honors their Deadlines only once every
+ * one of them has passed, when it fails without being sent - or, while it
+ * is in flight, through the time limit sent to the server - so a caller
+ * whose own deadline passes sooner still waits for the batch; a batch
+ * with any caller that has no deadline has no time limit at all.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public interface IdLoader<T> {
+
+    /**
+     * Create a promise which will look up the document with the passed id,
+     * as part of the next batch. The promise's result is null if there is no
+     * such document.
+     *
+     * @param id The id, of the same type as stored in the collection
+     * @return A promise
+     */
+    public AsyncPromise<Void, T> load(Object id);
+}
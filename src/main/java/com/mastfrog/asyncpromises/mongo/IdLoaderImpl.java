@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+import com.mastfrog.asyncpromises.Logic;
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.MongoCollection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocumentWrapper;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Batches id lookups until either the window elapses after the first one, or
+ * maxBatch distinct ids are waiting, whichever comes first. A batch is sent
+ * with the highest priority among its callers, and bounded by the latest of
+ * their deadlines if every one of them has one, so no caller is failed by
+ * another's budget.
+ *
+ * @author Tim Boudreau
+ */
+final class IdLoaderImpl<T> implements IdLoader<T> {
+
+    private static final QueryTemplate BY_IDS = QueryBuilderImpl.create().in("_id", QueryTemplate.param("ids")).prepare();
+    private final MongoCollection<T> collection;
+    private final Limiter limiter;
+    private final Priority priority;
+    private final long windowNanos;
+    private final int maxBatch;
+    private Batch pending = new Batch();
+    private ScheduledFuture<?> timer;
+
+    IdLoaderImpl(MongoCollection<T> collection, Limiter limiter, Priority priority, long window, TimeUnit unit, int maxBatch) {
+        this.collection = collection;
+        this.limiter = limiter;
+        this.priority = priority;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatch = maxBatch;
+    }
+
+    @Override
+    public AsyncPromise<Void, T> load(final Object id) {
+        FindBuilderImpl.checkNull("id", id);
+        return AsyncPromise.create(new Logic<Void, T>() {
+            @Override
+            public void run(Void data, Trigger<T> next, PromiseContext context) throws Exception {
+                Priority p = context == null ? null : context.get(Priority.KEY);
+                enqueue(id, next, p == null ? priority : p, Deadline.of(context));
+            }
+        });
+    }
+
+    private void enqueue(Object id, Trigger<T> trigger, Priority callerPriority, Deadline deadline) {
+        BsonValue key = key(new Document("_id", id).toBsonDocument(Document.class, collection.getCodecRegistry()).get("_id"));
+        Batch batch = null;
+        synchronized (this) {
+            pending.add(key, trigger, callerPriority, deadline);
+            if (pending.waiting.size() >= maxBatch) {
+                batch = take();
+            } else if (timer == null) {
+                timer = Timers.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        Batch batch;
+                        synchronized (IdLoaderImpl.this) {
+                            timer = null;
+                            batch = take();
+                        }
+                        dispatch(batch);
+                    }
+                }, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+    }
+
+    private Batch take() {
+        Batch result = pending;
+        pending = new Batch();
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        return result;
+    }
+
+    private void dispatch(Batch toSend) {
+        final Map<BsonValue, List<Trigger<T>>> batch = toSend.waiting;
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            final Document query = BY_IDS.bind().with("ids", batch.keySet()).build();
+            final Deadline deadline = toSend.deadline;
+            Limiter.run(limiter, toSend.priority, deadline, new Limiter.Call<ArrayList<T>>() {
+                @Override
+                public void call(SingleResultCallback<ArrayList<T>> callback) {
+                    Deadline.limit(deadline, collection.find(query).batchSize(batch.size()), 0)
+                            .into(new ArrayList<T>(batch.size()), callback);
+                }
+            }, new SingleResultCallback<ArrayList<T>>() {
+                @Override
+                public void onResult(ArrayList<T> found, Throwable thrown) {
+                    if (thrown != null) {
+                        fail(batch, thrown);
+                        return;
+                    }
+                    CodecRegistry registry = collection.getCodecRegistry();
+                    for (T doc : found) {
+                        BsonValue id = BsonDocumentWrapper.asBsonDocument(doc, registry).get("_id");
+                        List<Trigger<T>> waiting = id == null ? null : batch.remove(key(id));
+                        if (waiting != null) {
+                            for (Trigger<T> t : waiting) {
+                                t.trigger(doc, null);
+                            }
+                        }
+                    }
+                    // Whatever is left was not found
+                    for (List<Trigger<T>> waiting : batch.values()) {
+                        for (Trigger<T> t : waiting) {
+                            t.trigger(null, null);
+                        }
+                    }
+                }
+            });
+        } catch (Exception e) {
+            fail(batch, e);
+        }
+    }
+
+    private void fail(Map<BsonValue, List<Trigger<T>>> batch, Throwable thrown) {
+        for (List<Trigger<T>> waiting : batch.values()) {
+            for (Trigger<T> t : waiting) {
+                t.trigger(null, thrown);
+            }
+        }
+    }
+
+    /**
+     * The lookups waiting to be sent together, with the priority and deadline
+     * to send them with.
+     */
+    private final class Batch {
+
+        private final Map<BsonValue, List<Trigger<T>>> waiting = new LinkedHashMap<>();
+        private Priority priority;
+        private Deadline deadline;
+        private boolean unbounded;
+
+        void add(BsonValue key, Trigger<T> trigger, Priority callerPriority, Deadline callerDeadline) {
+            List<Trigger<T>> triggers = waiting.get(key);
+            if (triggers == null) {
+                waiting.put(key, triggers = new ArrayList<>(2));
+            }
+            triggers.add(trigger);
+            if (priority == null || callerPriority.ordinal() < priority.ordinal()) {
+                priority = callerPriority;
+            }
+            if (callerDeadline == null) {
+                unbounded = true;
+                deadline = null;
+            } else if (!unbounded) {
+                deadline = deadline == null || callerDeadline.earlier(deadline) == deadline ? callerDeadline : deadline;
+            }
+        }
+    }
+
+    /**
+     * Normalizes integral numbers, which MongoDB matches across numeric types,
+     * so an id requested as an int matches one stored as a long.
+     */
+    static BsonValue key(BsonValue id) {
+        if (id.isInt32()) {
+            return new BsonInt64(id.asInt32().getValue());
+        } else if (id.isDouble()) {
+            double d = id.asDouble().getValue();
+            if (d == Math.rint(d) && Math.abs(d) < 0x1p53) {
+                return new BsonInt64((long) d);
+            }
+        }
+        return id;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+
+/**
+ * Inserts documents in batches: documents from concurrent insertOne()
+ * promises are buffered and sent together as one unordered
+ * <code>insertMany</code>. Get one from
+ * <code>CollectionPromises.insertBatcher()</code>; it is thread-safe and meant
+ * to be shared.
+ *
+ * @author Tim Boudreau
+ */
+public interface InsertBatcher<T> {
+
+    /**
+     * Create a promise to insert one element when passed the element to
+     * insert. The promise completes when the batch containing it has been
+     * acknowledged; if the server rejects this document, it fails with a
+     * MongoWriteException for this document alone, while the rest of the
+     * batch is unaffected.
+     *
+     * @return A promise
+     */
+    public AsyncPromise<T, Void> insertOne();
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+import com.mastfrog.asyncpromises.Logic;
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteError;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+/**
+ * Buffers documents until maxDocuments are waiting, their encoded size
+ * reaches maxBytes, or the window elapses after the first, whichever comes
+ * first. Sizes are estimated from a sample of the documents rather than by
+ * encoding each one; batches are sent without a PromiseContext, since
+ * documents from many promises share them.
+ *
+ * @author Tim Boudreau
+ */
+final class InsertBatcherImpl<T> implements InsertBatcher<T> {
+
+    private final MongoCollection<T> collection;
+    private final Sink<T> sink;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final long windowNanos;
+    private final EncodedSize.Sampler<T> sizes;
+    private List<T> documents = new ArrayList<>();
+    private List<Trigger<Void>> triggers = new ArrayList<>();
+    private long bytes;
+    private ScheduledFuture<?> timer;
+
+    InsertBatcherImpl(MongoCollection<T> collection, Sink<T> sink, int maxDocuments, long maxBytes, long window, TimeUnit unit) {
+        this.collection = collection;
+        this.sink = sink;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.windowNanos = unit.toNanos(window);
+        Encoder<T> encoder = maxBytes > 0 ? encoder(collection) : null;
+        this.sizes = encoder == null ? null : new EncodedSize.Sampler<>(encoder);
+    }
+
+    /**
+     * Sends a batch as an unordered insert; CollectionPromises supplies one
+     * which also invalidates its caches.
+     */
+    interface Sink<T> {
+
+        void insertMany(List<T> documents, Trigger<Void> next);
+    }
+
+    private static <T> Encoder<T> encoder(MongoCollection<T> collection) {
+        try {
+            return collection.getCodecRegistry().get(collection.getDocumentClass());
+        } catch (CodecConfigurationException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public AsyncPromise<T, Void> insertOne() {
+        return AsyncPromise.create(new Logic<T, Void>() {
+            @Override
+            public void run(T data, Trigger<Void> next, PromiseContext context) throws Exception {
+                FindBuilderImpl.checkNull("document", data);
+                enqueue(data, next);
+            }
+        });
+    }
+
+    private void enqueue(T document, Trigger<Void> trigger) {
+        long size = sizes == null ? 0 : sizes.estimate(document);
+        List<T> batch = null;
+        List<Trigger<Void>> batchTriggers = null;
+        synchronized (this) {
+            documents.add(document);
+            triggers.add(trigger);
+            bytes += size;
+            if (documents.size() >= maxDocuments || (maxBytes > 0 && bytes >= maxBytes)) {
+                batch = documents;
+                batchTriggers = triggers;
+                reset();
+            } else if (timer == null) {
+                timer = Timers.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<T> batch;
+                        List<Trigger<Void>> batchTriggers;
+                        synchronized (InsertBatcherImpl.this) {
+                            timer = null;
+                            batch = documents;
+                            batchTriggers = triggers;
+                            reset();
+                        }
+                        flush(batch, batchTriggers);
+                    }
+                }, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (batch != null) {
+            flush(batch, batchTriggers);
+        }
+    }
+
+    private void reset() {
+        documents = new ArrayList<>();
+        triggers = new ArrayList<>();
+        bytes = 0;
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    private void flush(final List<T> batch, final List<Trigger<Void>> batchTriggers) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sink.insertMany(batch, new Trigger<Void>() {
+                @Override
+                public void trigger(Void result, Throwable thrown) {
+                    complete(batchTriggers, thrown);
+                }
+            });
+        } catch (Exception e) {
+            complete(batchTriggers, e);
+        }
+    }
+
+    static void complete(List<Trigger<Void>> triggers, Throwable thrown) {
+        Throwable[] failures = new Throwable[triggers.size()];
+        if (thrown instanceof MongoBulkWriteException && ((MongoBulkWriteException) thrown).getWriteConcernError() == null) {
+            // Only the documents the server rejected failed
+            MongoBulkWriteException bulk = (MongoBulkWriteException) thrown;
+            for (BulkWriteError err : bulk.getWriteErrors()) {
+                if (err.getIndex() >= 0 && err.getIndex() < failures.length) {
+                    failures[err.getIndex()] = new MongoWriteException(new WriteError(err), bulk.getServerAddress());
+                }
+            }
+        } else if (thrown != null) {
+            Arrays.fill(failures, thrown);
+        }
+        for (int i = 0; i < failures.length; i++) {
+            triggers.get(i).trigger(null, failures[i]);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies of some kind of call and answers
+ * percentile queries over them, for deciding how long is "too long" to wait.
+ * Until enough samples have arrived, answers with a fallback value.
+ *
+ * @author Tim Boudreau
+ */
+final class LatencyTracker {
+
+    static final int MIN_SAMPLES = 20;
+    private final long[] samples;
+    private long[] sorted;
+    private int count;
+    private int next;
+
+    LatencyTracker(int capacity) {
+        samples = new long[capacity];
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = Math.max(0, nanos);
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+        sorted = null;
+    }
+
+    /**
+     * Get a percentile of the recorded latencies.
+     *
+     * @param percentile The percentile, greater than 0 and at most 100
+     * @param fallback The value to use while there are too few samples
+     * @return A latency in nanoseconds
+     */
+    synchronized long percentileNanos(double percentile, long fallback) {
+        if (count < Math.min(MIN_SAMPLES, samples.length)) {
+            return fallback;
+        }
+        if (sorted == null) {
+            sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+        }
+        int index = (int) Math.ceil(percentile / 100D * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWaitQueueFullException;
+import com.mongodb.async.SingleResultCallback;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out permits to send driver calls, at most <code>limit</code> at a
+ * time; each is released when the call's callback is invoked. The limit is
+ * either fixed, or adjusted after each call by an AdaptiveLimit. Calls which
+ * cannot get a permit wait, for at most <code>maxWait</code> or until their
+ * Deadline passes, in one FIFO lane per Priority, holding at most
+ * <code>maxQueued</code> between them.
+ * Lanes are served by smooth weighted round-robin, so each gets a share of
+ * released permits proportional to its weight while it has calls waiting.
+ * Nothing ever blocks: queued calls are sent by whichever thread releases a
+ * permit.
+ *
+ * @author Tim Boudreau
+ */
+final class Limiter implements ConcurrencyLimit {
+
+    private final AdaptiveLimit adaptive;
+    private int limit;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final ArrayDeque<Waiter<?>>[] lanes;
+    private final int[] credit;
+    private int queueSize;
+    private final ArrayDeque<Waiter<?>> ready = new ArrayDeque<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private int inFlight;
+    private long queued;
+    private long rejected;
+    private long timedOut;
+    private long waited;
+    private long waitNanos;
+    private long maxWaitSeen;
+
+    Limiter(int limit, int maxQueued, long maxWait, TimeUnit unit) {
+        this(limit, null, maxQueued, maxWait, unit);
+    }
+
+    Limiter(AdaptiveLimit adaptive, int maxQueued, long maxWait, TimeUnit unit) {
+        this(adaptive.limit(), adaptive, maxQueued, maxWait, unit);
+    }
+
+    private Limiter(int limit, AdaptiveLimit adaptive, int maxQueued, long maxWait, TimeUnit unit) {
+        this.limit = limit;
+        this.adaptive = adaptive;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        Priority[] priorities = Priority.values();
+        @SuppressWarnings("unchecked")
+        ArrayDeque<Waiter<?>>[] l = new ArrayDeque[priorities.length];
+        for (int i = 0; i < l.length; i++) {
+            l[i] = new ArrayDeque<>();
+        }
+        this.lanes = l;
+        this.credit = new int[priorities.length];
+    }
+
+    /**
+     * Sends one call to the driver.
+     */
+    interface Call<R> {
+
+        void call(SingleResultCallback<R> callback);
+    }
+
+    /**
+     * Make a call through a limiter, or directly if it is null; either way,
+     * exceptions thrown by the call are passed to the callback.
+     */
+    static <R> void run(Limiter limiter, Priority priority, Call<R> call, SingleResultCallback<R> callback) {
+        run(limiter, priority, null, call, callback);
+    }
+
+    /**
+     * Make a call through a limiter, or directly if it is null, failing it
+     * without sending it if the deadline, if any, passes first - including
+     * while it waits in the queue.
+     */
+    static <R> void run(Limiter limiter, Priority priority, Deadline deadline, Call<R> call, SingleResultCallback<R> callback) {
+        call = Deadline.guard(deadline, call);
+        if (limiter == null) {
+            try {
+                call.call(callback);
+            } catch (Exception e) {
+                callback.onResult(null, e);
+            }
+        } else {
+            limiter.run(priority, deadline, call, callback);
+        }
+    }
+
+    <R> void run(Priority priority, Call<R> call, SingleResultCallback<R> callback) {
+        run(priority, null, call, callback);
+    }
+
+    <R> void run(Priority priority, Deadline deadline, Call<R> call, SingleResultCallback<R> callback) {
+        Waiter<R> waiter = new Waiter<>(priority, deadline, call, callback);
+        Waiter<?> rejectedWaiter = null;
+        synchronized (this) {
+            if (inFlight < limit && queueSize == 0) {
+                inFlight++;
+                ready.add(waiter);
+            } else {
+                if (queueSize >= maxQueued) {
+                    rejected++;
+                    rejectedWaiter = displace(priority);
+                    if (rejectedWaiter == null) {
+                        rejectedWaiter = waiter;
+                    }
+                }
+                if (rejectedWaiter != waiter) {
+                    lanes[priority.ordinal()].add(waiter);
+                    queueSize++;
+                    queued++;
+                    long wait = maxWaitNanos > 0 ? maxWaitNanos : Long.MAX_VALUE;
+                    if (deadline != null) {
+                        wait = Math.max(0, Math.min(wait, deadline.remaining(TimeUnit.NANOSECONDS)));
+                    }
+                    if (wait != Long.MAX_VALUE) {
+                        waiter.timeout = Timers.schedule(waiter, wait, TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+        }
+        if (rejectedWaiter != null) {
+            rejectedWaiter.callback.onResult(null, new MongoWaitQueueFullException("Too many operations waiting: "
+                    + maxQueued + " queued with " + limit + " in flight"));
+        } else {
+            drain();
+        }
+    }
+
+    /**
+     * Remove the most recently queued waiter of the lowest priority below the
+     * passed one, if any, to make room.
+     */
+    private Waiter<?> displace(Priority priority) {
+        for (int i = lanes.length - 1; i > priority.ordinal(); i--) {
+            Waiter<?> victim = lanes[i].pollLast();
+            if (victim != null) {
+                queueSize--;
+                if (victim.timeout != null) {
+                    victim.timeout.cancel(false);
+                }
+                return victim;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take the next waiter by smooth weighted round-robin over the lanes
+     * which have any.
+     */
+    private Waiter<?> poll() {
+        int total = 0;
+        int best = -1;
+        Priority[] priorities = Priority.values();
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i].isEmpty()) {
+                // No banking credit while idle
+                credit[i] = 0;
+                continue;
+            }
+            credit[i] += priorities[i].weight;
+            total += priorities[i].weight;
+            if (best < 0 || credit[i] > credit[best]) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        credit[best] -= total;
+        queueSize--;
+        return lanes[best].poll();
+    }
+
+    private void release(boolean measured, long sent, int inFlightAtSend, Throwable thrown) {
+        synchronized (this) {
+            inFlight--;
+            long now = System.nanoTime();
+            if (adaptive != null && measured) {
+                adaptive.sample(now - sent, inFlightAtSend, thrown, now);
+                limit = adaptive.limit();
+            }
+            while (inFlight < limit && queueSize > 0) {
+                Waiter<?> next = poll();
+                if (next.timeout != null) {
+                    next.timeout.cancel(false);
+                }
+                long wait = now - next.created;
+                waited++;
+                waitNanos += wait;
+                maxWaitSeen = Math.max(maxWaitSeen, wait);
+                inFlight++;
+                ready.add(next);
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        // A call whose callback is invoked synchronously releases its permit
+        // and may hand it to a queued call; sending that from the same stack
+        // frame could recurse once per queued call, so only the outermost
+        // invocation sends anything
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            for (;;) {
+                Waiter<?> next;
+                synchronized (this) {
+                    next = ready.poll();
+                }
+                if (next == null) {
+                    break;
+                }
+                next.send();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void timedOut(Waiter<?> waiter) {
+        boolean expired = waiter.deadline != null && waiter.deadline.isExpired();
+        synchronized (this) {
+            if (!lanes[waiter.priority.ordinal()].remove(waiter)) {
+                return;
+            }
+            queueSize--;
+            if (!expired) {
+                timedOut++;
+            }
+        }
+        if (expired) {
+            waiter.callback.onResult(null, waiter.deadline.expired());
+            return;
+        }
+        waiter.callback.onResult(null, new MongoTimeoutException("Timed out after "
+                + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + "ms waiting for one of "
+                + limit + " operations in flight to complete"));
+    }
+
+    @Override
+    public synchronized int limit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized int queueDepth() {
+        return queueSize;
+    }
+
+    @Override
+    public synchronized int queueDepth(Priority priority) {
+        return lanes[priority.ordinal()].size();
+    }
+
+    @Override
+    public synchronized long queued() {
+        return queued;
+    }
+
+    @Override
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized long timedOut() {
+        return timedOut;
+    }
+
+    @Override
+    public synchronized long averageWait(TimeUnit unit) {
+        return waited == 0 ? 0 : unit.convert(waitNanos / waited, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized long maxWait(TimeUnit unit) {
+        return unit.convert(maxWaitSeen, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        synchronized (this) {
+            return "Limiter{" + inFlight + "/" + limit + " in flight, " + queueSize + " queued}";
+        }
+    }
+
+    /**
+     * A call waiting for or holding a permit; the timeout runs it, at the
+     * end of the maximum wait or when the deadline passes, whichever comes
+     * first.
+     */
+    private final class Waiter<R> implements Runnable {
+
+        private final Priority priority;
+        private final Deadline deadline;
+        private final Call<R> call;
+        private final SingleResultCallback<R> callback;
+        private final long created = System.nanoTime();
+        private ScheduledFuture<?> timeout;
+
+        Waiter(Priority priority, Deadline deadline, Call<R> call, SingleResultCallback<R> callback) {
+            this.priority = priority;
+            this.deadline = deadline;
+            this.call = call;
+            this.callback = callback;
+        }
+
+        void send() {
+            final AtomicBoolean released = new AtomicBoolean();
+            final long sent = System.nanoTime();
+            final int inFlightAtSend = inFlight();
+            SingleResultCallback<R> releasing = new SingleResultCallback<R>() {
+                @Override
+                public void onResult(R result, Throwable thrown) {
+                    if (released.compareAndSet(false, true)) {
+                        release(true, sent, inFlightAtSend, thrown);
+                    }
+                    callback.onResult(result, thrown);
+                }
+            };
+            try {
+                call.call(releasing);
+            } catch (Exception e) {
+                if (released.compareAndSet(false, true)) {
+                    // Never reached the server; not a round trip
+                    release(false, sent, inFlightAtSend, e);
+                    callback.onResult(null, e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            timedOut(this);
+        }
+    }
+}
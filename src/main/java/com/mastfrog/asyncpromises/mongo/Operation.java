@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+import com.mastfrog.asyncpromises.Logic;
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import org.bson.conversions.Bson;
+
+/**
+ * An immutable, reusable database operation. An AsyncPromise keeps the state
+ * of its current execution in itself, so it can only be started again once
+ * that execution is over, and a new chain of promises must be built for each
+ * concurrent use; an Operation keeps all per-execution state in the call to
+ * <code>start()</code>, so one built at startup - with all of its options
+ * captured at that moment - can be started any number of times, from any
+ * number of threads at once.
+ * <p>
+ * Use <code>toPromise()</code> to compose the operation into a chain of
+ * promises; the promise it returns has the usual restrictions.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class Operation<I, R> {
+
+    private final Logic<I, R> logic;
+
+    Operation(Logic<I, R> logic) {
+        this.logic = logic;
+    }
+
+    /**
+     * Start an execution with a fresh PromiseContext.
+     *
+     * @param input The input, such as a query
+     * @param onDone Called with the result or failure of this execution
+     * @return this
+     */
+    public Operation<I, R> start(I input, Trigger<R> onDone) {
+        return start(input, new PromiseContext(), onDone);
+    }
+
+    /**
+     * Start an execution using the passed context, which may carry a
+     * {@link Deadline} or {@link Priority} for it.
+     *
+     * @param input The input, such as a query
+     * @param context The context
+     * @param onDone Called with the result or failure of this execution
+     * @return this
+     */
+    public Operation<I, R> start(I input, PromiseContext context, Trigger<R> onDone) {
+        FindBuilderImpl.checkNull("context", context);
+        FindBuilderImpl.checkNull("onDone", onDone);
+        try {
+            logic.run(input, onDone, context);
+        } catch (Exception e) {
+            onDone.trigger(null, e);
+        }
+        return this;
+    }
+
+    /**
+     * Create a new promise which runs this operation.
+     *
+     * @return A promise
+     */
+    public AsyncPromise<I, R> toPromise() {
+        return AsyncPromise.create(logic);
+    }
+
+    /**
+     * Create an operation which always runs the passed one with the passed
+     * query, making it available as {@link FindBuilderImpl#QUERY_KEY}.
+     */
+    static <R> Operation<Void, R> withQuery(final Bson query, final Operation<Bson, R> operation) {
+        return new Operation<>(new Logic<Void, R>() {
+            @Override
+            public void run(Void data, Trigger<R> next, PromiseContext context) throws Exception {
+                context.put(FindBuilderImpl.QUERY_KEY, query);
+                operation.logic.run(query, next, context);
+            }
+        });
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of results from a PageBuilder.
+ *
+ * @author Tim Boudreau
+ */
+public final class Page<T> {
+
+    private final List<T> items;
+    private final String next;
+
+    Page(List<T> items, String next) {
+        this.items = Collections.unmodifiableList(items);
+        this.next = next;
+    }
+
+    /**
+     * Get the documents on this page.
+     *
+     * @return The documents
+     */
+    public List<T> items() {
+        return items;
+    }
+
+    /**
+     * Get the token to pass to PageBuilder.after() to fetch the following
+     * page.
+     *
+     * @return A token, or null if this is the last page
+     */
+    public String next() {
+        return next;
+    }
+
+    /**
+     * Determine if there is a following page.
+     *
+     * @return true if there is one
+     */
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String toString() {
+        return items.size() + " items" + (next == null ? "" : " next " + next);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+
+/**
+ * Builder for keyset ("seek") pagination - each page is fetched with a range
+ * predicate on the sort keys, starting after the last document of the previous
+ * page, rather than by skipping over the documents before it, so with an index
+ * on the sort keys, a deep page costs the same as the first. If the sort does
+ * not include <code>_id</code>, an ascending sort on it is added so documents
+ * with equal sort keys are neither skipped nor repeated.
+ * <p>
+ * The sort keys must be present and non-null in every matching document, and
+ * must not be excluded by the projection.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public interface PageBuilder<T, I> {
+
+    /**
+     * Add an ascending sort key. Sort keys are applied in the order they are
+     * added.
+     *
+     * @param key The property name
+     * @return this
+     */
+    public PageBuilder<T, I> ascending(String key);
+
+    /**
+     * Add a descending sort key. Sort keys are applied in the order they are
+     * added.
+     *
+     * @param key The property name
+     * @return this
+     */
+    public PageBuilder<T, I> descending(String key);
+
+    /**
+     * Set the number of documents per page; the default is 50.
+     *
+     * @param size The page size
+     * @return this
+     */
+    public PageBuilder<T, I> pageSize(int size);
+
+    /**
+     * Fetch the page following the one which produced this token, which must
+     * have been created with the same sort keys.
+     *
+     * @param token A token from Page.next()
+     * @return this
+     * @throws IllegalArgumentException if the token is malformed or does not
+     * match the sort keys
+     */
+    public PageBuilder<T, I> after(String token);
+
+    /**
+     * Create a promise which will fetch one page.
+     *
+     * @return A promise
+     */
+    public AsyncPromise<I, Page<T>> page();
+}
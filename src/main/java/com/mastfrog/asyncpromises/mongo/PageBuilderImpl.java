@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+import static com.mastfrog.asyncpromises.mongo.FindBuilderImpl.checkNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWrapper;
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonNull;
+import org.bson.BsonSerializationException;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+final class PageBuilderImpl<T, I> implements PageBuilder<T, I> {
+
+    static final int DEFAULT_PAGE_SIZE = 50;
+    private final Map<String, Integer> sort = new LinkedHashMap<>();
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private BsonDocument after;
+    private final Factory<T, I> factory;
+
+    PageBuilderImpl(Factory<T, I> factory) {
+        this.factory = factory;
+    }
+
+    interface Factory<T, I> {
+
+        AsyncPromise<I, Page<T>> page(PageBuilderImpl<T, ?> builder);
+    }
+
+    @Override
+    public PageBuilder<T, I> ascending(String key) {
+        return sortBy(key, 1);
+    }
+
+    @Override
+    public PageBuilder<T, I> descending(String key) {
+        return sortBy(key, -1);
+    }
+
+    private PageBuilder<T, I> sortBy(String key, int direction) {
+        checkNull("key", key);
+        if (sort.containsKey(key)) {
+            throw new IllegalArgumentException("Already sorting on " + key);
+        }
+        sort.put(key, direction);
+        return this;
+    }
+
+    @Override
+    public PageBuilder<T, I> pageSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Page size must be at least one: " + size);
+        }
+        pageSize = size;
+        return this;
+    }
+
+    @Override
+    public PageBuilder<T, I> after(String token) {
+        checkNull("token", token);
+        try {
+            after = new RawBsonDocument(Base64.getUrlDecoder().decode(token));
+            after.size();
+        } catch (IllegalArgumentException | BsonSerializationException | BsonInvalidOperationException ex) {
+            throw new IllegalArgumentException("Bad page token '" + token + "'", ex);
+        }
+        return this;
+    }
+
+    @Override
+    public AsyncPromise<I, Page<T>> page() {
+        return factory.page(this);
+    }
+
+    int pageSize() {
+        return pageSize;
+    }
+
+    /**
+     * The sort keys, with an ascending sort on _id appended if absent.
+     */
+    Map<String, Integer> sortKeys() {
+        Map<String, Integer> result = new LinkedHashMap<>(sort);
+        if (!result.containsKey("_id")) {
+            result.put("_id", 1);
+        }
+        return result;
+    }
+
+    Bson sort() {
+        return new Document(new LinkedHashMap<String, Object>(sortKeys()));
+    }
+
+    /**
+     * Combine the query with the seek predicate for the page, if any.
+     */
+    Bson query(Bson base) {
+        if (after == null) {
+            return base;
+        }
+        Map<String, Integer> keys = sortKeys();
+        if (!new ArrayList<>(keys.keySet()).equals(new ArrayList<>(after.keySet()))) {
+            throw new IllegalArgumentException("Page token is for the sort " + after.keySet()
+                    + " but sorting on " + keys.keySet());
+        }
+        // For sort keys k1..kn, the documents after (v1..vn) are those where
+        // k1 is past v1, or k1 == v1 and k2 is past v2, and so on
+        List<Document> alternatives = new ArrayList<>(keys.size());
+        List<String> prefix = new ArrayList<>(keys.size());
+        for (Map.Entry<String, Integer> e : keys.entrySet()) {
+            QueryBuilderImpl<T, Document> q = new QueryBuilderImpl<>(new QueryBuilderImpl.BsonFactory<T>());
+            for (String p : prefix) {
+                q.equal(p, after.get(p));
+            }
+            q.compare(e.getKey(), e.getValue() > 0 ? "$gt" : "$lt", after.get(e.getKey()));
+            alternatives.add(q.build());
+            prefix.add(e.getKey());
+        }
+        Document seek = alternatives.size() == 1 ? alternatives.get(0) : new Document("$or", alternatives);
+        return new Document("$and", Arrays.asList(base, seek));
+    }
+
+    /**
+     * Create a page from a fetch of pageSize + 1 documents.
+     */
+    Page<T> toPage(List<T> results, CodecRegistry registry) {
+        if (results.size() <= pageSize) {
+            return new Page<>(results, null);
+        }
+        List<T> items = new ArrayList<>(results.subList(0, pageSize));
+        return new Page<>(items, token(items.get(pageSize - 1), registry));
+    }
+
+    String token(T last, CodecRegistry registry) {
+        BsonDocument doc = BsonDocumentWrapper.asBsonDocument(last, registry);
+        BsonDocument values = new BsonDocument();
+        for (String key : sortKeys().keySet()) {
+            BsonValue value = valueAt(doc, key);
+            if (value == null) {
+                throw new IllegalStateException("Sort key " + key + " missing from " + last
+                        + " - is it excluded by the projection?");
+            }
+            values.append(key, value);
+        }
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            new BsonDocumentCodec().encode(writer, values, EncoderContext.builder().build());
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+    }
+
+    private static BsonValue valueAt(BsonDocument doc, String path) {
+        BsonValue value = doc;
+        for (String part : path.split("\\.")) {
+            if (!value.isDocument()) {
+                return null;
+            }
+            value = value.asDocument().get(part);
+            if (value == null) {
+                return null;
+            }
+        }
+        return value instanceof BsonNull ? null : value;
+    }
+}
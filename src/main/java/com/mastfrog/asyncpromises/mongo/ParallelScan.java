@@ -0,0 +1,272 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.AggregateIterable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * One execution of a partitioned find: samples the key to pick split points,
+ * then runs one cursor per key range, all feeding the same receiver.
+ *
+ * @author Tim Boudreau
+ */
+final class ParallelScan<T> {
+
+    /**
+     * How many sampled keys to take per partition - more gives more even
+     * partitions at the cost of a more expensive sample.
+     */
+    static final int SAMPLES_PER_PARTITION = 16;
+    private final CollectionPromises<T> promises;
+    private final FindBuilderImpl<T, ?> builder;
+    private final String key;
+    private final int partitions;
+    private final SerializedReceiver<T> receiver;
+    private final PromiseContext context;
+    private final Trigger<Void> onDone;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile Throwable failure;
+
+    ParallelScan(CollectionPromises<T> promises, FindBuilderImpl<T, ?> builder, String key, int partitions, FindReceiver<List<T>> receiver, PromiseContext context, Trigger<Void> onDone) {
+        this.promises = promises;
+        this.builder = builder;
+        this.key = key;
+        this.partitions = partitions;
+        this.receiver = new SerializedReceiver<>(receiver);
+        this.context = context;
+        this.onDone = onDone;
+    }
+
+    void start(Bson query) {
+        final Bson base = builder.filter() == null ? query : builder.filter();
+        if (partitions == 1) {
+            scan(Arrays.asList(base));
+            return;
+        }
+        final List<Bson> pipeline = Arrays.<Bson>asList(
+                new Document("$match", base),
+                new Document("$sample", new Document("size", partitions * SAMPLES_PER_PARTITION)),
+                new Document("$project", new Document(key, 1)),
+                new Document("$sort", new Document(key, 1)));
+        try {
+            final Deadline deadline = Deadline.of(context);
+            Limiter.run(promises.limiter(), promises.priority(context), deadline, new Limiter.Call<ArrayList<BsonDocument>>() {
+                @Override
+                public void call(SingleResultCallback<ArrayList<BsonDocument>> callback) {
+                    AggregateIterable<BsonDocument> sample = promises.collection().aggregate(pipeline, BsonDocument.class);
+                    if (deadline != null) {
+                        sample = sample.maxTime(deadline.maxTimeMillis(0), TimeUnit.MILLISECONDS);
+                    }
+                    sample.into(new ArrayList<BsonDocument>(), callback);
+                }
+            }, new SingleResultCallback<ArrayList<BsonDocument>>() {
+                @Override
+                public void onResult(ArrayList<BsonDocument> sample, Throwable thrown) {
+                    if (thrown != null) {
+                        onDone.trigger(null, thrown);
+                        return;
+                    }
+                    scan(ranges(base, splitPoints(sample)));
+                }
+            });
+        } catch (Exception e) {
+            onDone.trigger(null, e);
+        }
+    }
+
+    List<BsonValue> splitPoints(List<BsonDocument> sample) {
+        List<BsonValue> values = new ArrayList<>(sample.size());
+        for (BsonDocument doc : sample) {
+            BsonValue v = doc.get(key);
+            if (v != null && !v.isNull() && (values.isEmpty() || !values.get(values.size() - 1).equals(v))) {
+                values.add(v);
+            }
+        }
+        List<BsonValue> result = new ArrayList<>(partitions - 1);
+        for (int i = 1; i < partitions; i++) {
+            int ix = (i * values.size()) / partitions;
+            if (ix > 0 && ix < values.size() && (result.isEmpty() || !result.get(result.size() - 1).equals(values.get(ix)))) {
+                result.add(values.get(ix));
+            }
+        }
+        return result;
+    }
+
+    List<Bson> ranges(Bson base, List<BsonValue> splits) {
+        if (splits.isEmpty()) {
+            return Arrays.asList(base);
+        }
+        List<Bson> result = new ArrayList<>(splits.size() + 1);
+        for (int i = 0; i <= splits.size(); i++) {
+            Document range;
+            if (i == 0) {
+                // Documents where the key is null or missing sort first, but
+                // would not match a $lt
+                range = new Document("$or", Arrays.asList(
+                        new Document(key, new Document("$lt", splits.get(0))),
+                        new Document(key, null)));
+            } else if (i == splits.size()) {
+                range = new Document(key, new Document("$gte", splits.get(i - 1)));
+            } else {
+                range = new Document(key, new Document("$gte", splits.get(i - 1)).append("$lt", splits.get(i)));
+            }
+            result.add(new Document("$and", Arrays.asList(base, range)));
+        }
+        return result;
+    }
+
+    private void scan(List<Bson> queries) {
+        remaining.set(queries.size());
+        for (Bson q : queries) {
+            promises.scan(q, builder.withFilter(q), receiver, context, new Trigger<Void>() {
+                @Override
+                public void trigger(Void obj, Throwable thrown) {
+                    if (thrown != null && failure == null) {
+                        failure = thrown;
+                        // Tell the other cursors to stop at their next batch
+                        receiver.stop();
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        onDone.trigger(null, failure);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues batches from several cursors so the receiver's withResults() is
+     * never called concurrently, without blocking any driver thread. Since a
+     * batch may be delivered after the cursor's call has returned, this is
+     * asynchronous itself, and applies the stop-unless-acknowledged rule on
+     * behalf of a delegate which is not.
+     */
+    static final class SerializedReceiver<T> implements AsyncFindReceiver<List<T>> {
+
+        private final FindReceiver<List<T>> delegate;
+        private final ArrayDeque<Pending<T>> queue = new ArrayDeque<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean stopped;
+
+        SerializedReceiver(FindReceiver<List<T>> delegate) {
+            this.delegate = delegate;
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void withResults(List<T> obj, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+            synchronized (queue) {
+                queue.add(new Pending<>(obj, trigger, context));
+            }
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                for (;;) {
+                    Pending<T> item;
+                    synchronized (queue) {
+                        item = queue.poll();
+                    }
+                    if (item == null) {
+                        break;
+                    }
+                    deliver(item);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver(final Pending<T> item) {
+            if (stopped) {
+                item.trigger.trigger(false, null);
+                return;
+            }
+            Trigger<Boolean> ack = new Ack(item.trigger);
+            try {
+                delegate.withResults(item.batch, ack, item.context);
+                if (!(delegate instanceof AsyncFindReceiver<?>)) {
+                    ack.trigger(false, null);
+                }
+            } catch (Exception ex) {
+                ack.trigger(null, ex);
+            }
+        }
+
+        /**
+         * Acknowledges one batch; only the first call counts.
+         */
+        private final class Ack extends AtomicBoolean implements Trigger<Boolean> {
+
+            private final Trigger<Boolean> trigger;
+
+            Ack(Trigger<Boolean> trigger) {
+                this.trigger = trigger;
+            }
+
+            @Override
+            public void trigger(Boolean more, Throwable thrown) {
+                if (!compareAndSet(false, true)) {
+                    return;
+                }
+                if (thrown != null || !Boolean.TRUE.equals(more)) {
+                    // Declining further results from one range
+                    // declines them from all
+                    stopped = true;
+                }
+                trigger.trigger(more, thrown);
+            }
+        }
+    }
+
+    private static final class Pending<T> {
+
+        final List<T> batch;
+        final Trigger<Boolean> trigger;
+        final PromiseContext context;
+
+        Pending(List<T> batch, Trigger<Boolean> trigger, PromiseContext context) {
+            this.batch = batch;
+            this.trigger = trigger;
+            this.context = context;
+        }
+    }
+}
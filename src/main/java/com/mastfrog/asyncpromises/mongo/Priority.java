@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+
+/**
+ * Priority class of an operation, which decides which operation waiting for
+ * a concurrency limit is sent next. Waiting operations are taken from each
+ * class in proportion to its weight, so interactive work goes ahead of batch
+ * work without starving it; and when the wait queue is full, a newly
+ * arriving operation displaces the most recently queued one of a lower
+ * class, if there is one, rather than being rejected. Priorities have no
+ * effect without a limit - see
+ * <code>CollectionPromises.withConcurrencyLimit()</code>.
+ * <p>
+ * Set the priority for all operations of a CollectionPromises with
+ * <code>withPriority()</code>, or for the rest of one chain of promises by
+ * putting a value for {@link #KEY} into its PromiseContext, which takes
+ * precedence.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public enum Priority {
+
+    /**
+     * User-facing work where latency matters.
+     */
+    INTERACTIVE(16),
+    /**
+     * The default.
+     */
+    NORMAL(4),
+    /**
+     * Background work which should use leftover capacity.
+     */
+    BATCH(1);
+
+    /**
+     * Key under which a priority may be put into a PromiseContext.
+     */
+    public static final PromiseContext.Key<Priority> KEY = PromiseContext.newKey(Priority.class);
+
+    final int weight;
+
+    Priority(int weight) {
+        this.weight = weight;
+    }
+}
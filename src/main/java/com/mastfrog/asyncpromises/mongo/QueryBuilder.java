@@ -103,6 +103,19 @@ public interface QueryBuilder<T, R> {
      */
     public R build();
 
+    /**
+     * Compile the query built so far into an immutable template, for queries
+     * whose shape never changes but whose values do. Pass
+     * {@link QueryTemplate#param(String)} to this builder's methods in place
+     * of the values to be supplied per use, then bind them with
+     * <code>template.bind().with(name, value).build()</code> - that skips
+     * building the query anew each time, and the template may be shared
+     * between threads.
+     *
+     * @return A template
+     */
+    public QueryTemplate prepare();
+
     /**
      * Get a sub query builder to construct an embedded document which should
      * match the property of the passed name. The resulting query will use
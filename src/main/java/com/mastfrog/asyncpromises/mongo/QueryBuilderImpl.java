@@ -44,17 +44,30 @@ import org.bson.conversions.Bson;
  */
 class QueryBuilderImpl<T, R> implements QueryBuilder<T, R> {
 
-    private final Map<String, Object> equal = new HashMap<>();
-    private final Map<String, Object[]> in = new HashMap<>();
-    private final Map<String, Number> greaterThan = new HashMap<>();
-    private final Map<String, Number> lessThan = new HashMap<>();
-    private final Map<String, Number> greaterThanOrEqual = new HashMap<>();
-    private final Map<String, Number> lessThanOrEqual = new HashMap<>();
-    private final Map<String, Bson> elemMatch = new HashMap<>();
+    // Created on first use - most queries only use one or two of these
+    private Map<String, Object> equal;
+    private Map<String, Object[]> in;
+    private Map<String, Number> greaterThan;
+    private Map<String, Number> lessThan;
+    private Map<String, Number> greaterThanOrEqual;
+    private Map<String, Number> lessThanOrEqual;
+    private Map<String, Bson> elemMatch;
+    private Map<String, Document> comparisons;
     private final Factory<T, R> factory;
+    // Nested builders hand their document to the enclosing one, which may
+    // yet be prepared, so only top-level builds check for parameters
+    private final QueryBuilderImpl<?, ?> parent;
+    // Set when a value containing a parameter is added here or to a nested
+    // builder, so that ordinary queries are never scanned for them
+    private boolean parameterized;
 
     QueryBuilderImpl(Factory<T, R> factory) {
+        this(factory, null);
+    }
+
+    private QueryBuilderImpl(Factory<T, R> factory, QueryBuilderImpl<?, ?> parent) {
         this.factory = factory;
+        this.parent = parent;
     }
 
     static <T> QueryBuilder<T, Document> create() {
@@ -261,41 +274,54 @@ class QueryBuilderImpl<T, R> implements QueryBuilder<T, R> {
 
     @Override
     public QueryBuilder<T, R> equal(String key, Object value) {
-        equal.put(key, value);
+        equal = put(equal, key, note(value));
         return this;
     }
 
     @Override
     public QueryBuilder<T, R> in(String key, Object... values) {
         if (values.length == 1 && values[0] instanceof Collection<?>) {
-            in.put(key, ((Collection<?>) values[0]).toArray());
+            in = put(in, key, note(((Collection<?>) values[0]).toArray()));
         } else {
-            in.put(key, values);
+            in = put(in, key, note(values));
         }
         return this;
     }
 
     @Override
     public QueryBuilder<T, R> greaterThan(String key, Number value) {
-        greaterThan.put(key, value);
+        greaterThan = put(greaterThan, key, note(value));
         return this;
     }
 
     @Override
     public QueryBuilder<T, R> lessThan(String key, Number value) {
-        lessThan.put(key, value);
+        lessThan = put(lessThan, key, note(value));
         return this;
     }
 
     @Override
     public QueryBuilder<T, R> greaterThanOrEqual(String key, Number value) {
-        greaterThanOrEqual.put(key, value);
+        greaterThanOrEqual = put(greaterThanOrEqual, key, note(value));
         return this;
     }
 
     @Override
     public QueryBuilder<T, R> lessThanOrEqual(String key, Number value) {
-        lessThanOrEqual.put(key, value);
+        lessThanOrEqual = put(lessThanOrEqual, key, note(value));
+        return this;
+    }
+
+    /**
+     * Compare a property against a value of any type, using a MongoDB
+     * comparison operator such as <code>$gt</code>.
+     */
+    QueryBuilderImpl<T, R> compare(String key, String operator, Object value) {
+        Document ops = comparisons == null ? null : comparisons.get(key);
+        if (ops == null) {
+            comparisons = put(comparisons, key, ops = new Document());
+        }
+        ops.append(operator, note(value));
         return this;
     }
 
@@ -309,12 +335,12 @@ class QueryBuilderImpl<T, R> implements QueryBuilder<T, R> {
 
             @Override
             public QueryBuilder<T, R> create(Document document) {
-                equal.put(elem, document);
+                equal = put(equal, elem, document);
                 return QueryBuilderImpl.this;
             }
 
         };
-        return new QueryBuilderImpl<>(f);
+        return new QueryBuilderImpl<>(f, this);
     }
 
     public QueryBuilder<T, QueryBuilder<T, R>> embedded(final String elem) {
@@ -323,12 +349,12 @@ class QueryBuilderImpl<T, R> implements QueryBuilder<T, R> {
             @Override
             public QueryBuilder<T, R> create(Document document) {
                 for (Map.Entry<String, Object> e : document.entrySet()) {
-                    equal.put(elem + "." + e.getKey(), e.getValue());
+                    equal = put(equal, elem + "." + e.getKey(), e.getValue());
                 }
                 return QueryBuilderImpl.this;
             }
         };
-        return new QueryBuilderImpl<>(f);
+        return new QueryBuilderImpl<>(f, this);
     }
 
     public QueryBuilder<T, QueryBuilder<T, R>> elemMatch(final String elem) {
@@ -336,10 +362,10 @@ class QueryBuilderImpl<T, R> implements QueryBuilder<T, R> {
 
             @Override
             public QueryBuilder<T, R> create(Document document) {
-                QueryBuilderImpl.this.elemMatch.put(elem, new Document("$elemMatch", document));
+                elemMatch = put(elemMatch, elem, new Document("$elemMatch", document));
                 return QueryBuilderImpl.this;
             }
-        });
+        }, this);
     }
 
     interface Factory<T, R> {
@@ -348,44 +374,91 @@ class QueryBuilderImpl<T, R> implements QueryBuilder<T, R> {
     }
 
     public R build() {
-        return factory.create(toDocument());
+        Document document = toDocument();
+        if (parent == null && parameterized) {
+            QueryTemplate.checkBound(document);
+        }
+        return factory.create(document);
+    }
+
+    private <V> V note(V value) {
+        if (!parameterized && QueryTemplate.hasParameter(value)) {
+            for (QueryBuilderImpl<?, ?> b = this; b != null; b = b.parent) {
+                b.parameterized = true;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public QueryTemplate prepare() {
+        return new QueryTemplate(toDocument());
+    }
+
+    private static <V> Map<String, V> put(Map<String, V> map, String key, V value) {
+        if (map == null) {
+            map = new HashMap<>();
+        }
+        map.put(key, value);
+        return map;
+    }
+
+    private static void addKeys(Set<String> keys, Map<String, ?> map) {
+        if (map != null) {
+            keys.addAll(map.keySet());
+        }
+    }
+
+    private static <V> V get(Map<String, V> map, String key) {
+        return map == null ? null : map.get(key);
     }
 
     Document toDocument() {
-        Document result = new Document(equal);
-        if (!in.isEmpty()) {
+        Document result = equal == null ? new Document() : new Document(equal);
+        if (in != null) {
             for (Map.Entry<String, Object[]> e : in.entrySet()) {
                 Document sub = new Document();
                 sub.append("$in", Arrays.asList(e.getValue()));
                 result.append(e.getKey(), sub);
             }
         }
-        Set<String> keys = new HashSet<>(greaterThan.keySet());
-        keys.addAll(lessThan.keySet());
-        keys.addAll(lessThanOrEqual.keySet());
-        keys.addAll(greaterThanOrEqual.keySet());
-        for (String k : keys) {
-            Document d = new Document();
-            Number gt = greaterThan.get(k);
-            Number lt = lessThan.get(k);
-            Number gte = greaterThanOrEqual.get(k);
-            Number lte = lessThanOrEqual.get(k);
-            if (gt != null) {
-                d.append("$gt", gt);
-            }
-            if (lt != null) {
-                d.append("$lt", lt);
-            }
-            if (gte != null) {
-                d.append("$gte", gte);
-            }
-            if (lte != null) {
-                d.append("$lte", lte);
+        if (greaterThan != null || lessThan != null || greaterThanOrEqual != null
+                || lessThanOrEqual != null || comparisons != null) {
+            Set<String> keys = new HashSet<>();
+            addKeys(keys, greaterThan);
+            addKeys(keys, lessThan);
+            addKeys(keys, lessThanOrEqual);
+            addKeys(keys, greaterThanOrEqual);
+            addKeys(keys, comparisons);
+            for (String k : keys) {
+                Document d = new Document();
+                Document ops = get(comparisons, k);
+                if (ops != null) {
+                    d.putAll(ops);
+                }
+                Number gt = get(greaterThan, k);
+                Number lt = get(lessThan, k);
+                Number gte = get(greaterThanOrEqual, k);
+                Number lte = get(lessThanOrEqual, k);
+                if (gt != null) {
+                    d.append("$gt", gt);
+                }
+                if (lt != null) {
+                    d.append("$lt", lt);
+                }
+                if (gte != null) {
+                    d.append("$gte", gte);
+                }
+                if (lte != null) {
+                    d.append("$lte", lte);
+                }
+                result.append(k, d);
             }
-            result.append(k, d);
         }
-        for (Map.Entry<String, Bson> e : elemMatch.entrySet()) {
-            result.put(e.getKey(), e.getValue());
+        if (elemMatch != null) {
+            for (Map.Entry<String, Bson> e : elemMatch.entrySet()) {
+                result.put(e.getKey(), e.getValue());
+            }
         }
         return result;
     }
@@ -0,0 +1,376 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+
+/**
+ * A query shape compiled once by {@link QueryBuilder#prepare()}, with named
+ * parameters in place of some of its values; binding values to the
+ * parameters produces a query document for a find, count, update or delete
+ * without going through a builder again. Templates are immutable and may be
+ * shared between threads; create one at startup and bind it per request:
+ * <pre>
+ * QueryTemplate byAge = promises.query()
+ *         .equal("type", "person")
+ *         .greaterThan("age", QueryTemplate.param("minAge"))
+ *         .in("city", QueryTemplate.param("cities"))
+ *         .prepare();
+ * ...
+ * Bson query = byAge.bind().with("minAge", 21)
+ *         .with("cities", Arrays.asList("Boston", "Paris")).build();
+ * </pre>
+ * A parameter which is the only value passed to <code>in()</code> (or any
+ * element of a list) may be bound to a collection or array, whose elements
+ * are spliced into the list.
+ *
+ * @author Tim Boudreau
+ */
+public final class QueryTemplate {
+
+    private static final Object UNBOUND = new Object();
+    private final Node root;
+    private final Map<String, Integer> indices;
+    private final String[] names;
+
+    QueryTemplate(Document shape) {
+        Map<String, Integer> indices = new HashMap<>();
+        this.root = compile(shape, indices);
+        this.indices = Collections.unmodifiableMap(indices);
+        names = new String[indices.size()];
+        for (Map.Entry<String, Integer> e : indices.entrySet()) {
+            names[e.getValue()] = e.getKey();
+        }
+    }
+
+    /**
+     * Create a placeholder for a value to be supplied when the template is
+     * bound; pass it to any QueryBuilder method in place of the value. It is
+     * a Number only so it can be passed to comparisons such as
+     * <code>greaterThan()</code> - any type of value may be bound to it.
+     *
+     * @param name The parameter name
+     * @return A parameter
+     */
+    public static Parameter param(String name) {
+        FindBuilderImpl.checkNull("name", name);
+        return new Parameter(name);
+    }
+
+    /**
+     * Start binding values to this template's parameters.
+     *
+     * @return A binding, which should be used by one thread
+     */
+    public Binding bind() {
+        return new Binding();
+    }
+
+    /**
+     * Get the names of this template's parameters.
+     *
+     * @return The parameter names
+     */
+    public List<String> parameters() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    @Override
+    public String toString() {
+        return "QueryTemplate" + indices.keySet();
+    }
+
+    /**
+     * Values for one use of a template.
+     */
+    public final class Binding {
+
+        private final Object[] values = new Object[names.length];
+
+        Binding() {
+            Arrays.fill(values, UNBOUND);
+        }
+
+        /**
+         * Bind a value to a parameter.
+         *
+         * @param name The parameter name
+         * @param value The value, which may be null
+         * @return this
+         * @throws IllegalArgumentException if the template has no such
+         * parameter
+         */
+        public Binding with(String name, Object value) {
+            Integer index = indices.get(name);
+            if (index == null) {
+                throw new IllegalArgumentException("No parameter '" + name + "' in " + QueryTemplate.this);
+            }
+            values[index] = value;
+            return this;
+        }
+
+        /**
+         * Create the query document. The binding may be reused, with some
+         * values changed, to create further documents.
+         *
+         * @return A new query document
+         * @throws IllegalStateException if a parameter has not been bound
+         */
+        public Document build() {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == UNBOUND) {
+                    throw new IllegalStateException("Parameter '" + names[i] + "' not bound in " + QueryTemplate.this);
+                }
+            }
+            return (Document) root.bind(values);
+        }
+    }
+
+    /**
+     * Placeholder for a value in a query shape.
+     */
+    public static final class Parameter extends Number {
+
+        private final String name;
+
+        Parameter(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public int intValue() {
+            throw unbound();
+        }
+
+        @Override
+        public long longValue() {
+            throw unbound();
+        }
+
+        @Override
+        public float floatValue() {
+            throw unbound();
+        }
+
+        @Override
+        public double doubleValue() {
+            throw unbound();
+        }
+
+        private IllegalStateException unbound() {
+            return new IllegalStateException("Query parameter '" + name + "' used without preparing and binding the query");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Parameter && ((Parameter) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31;
+        }
+
+        @Override
+        public String toString() {
+            return ":" + name;
+        }
+    }
+
+    /**
+     * Determine if a parameter appears anywhere in a value.
+     */
+    static boolean hasParameter(Object value) {
+        if (value instanceof Parameter) {
+            return true;
+        } else if (value instanceof Map<?, ?>) {
+            for (Object v : ((Map<?, ?>) value).values()) {
+                if (hasParameter(v)) {
+                    return true;
+                }
+            }
+        } else if (value instanceof Collection<?>) {
+            for (Object v : (Collection<?>) value) {
+                if (hasParameter(v)) {
+                    return true;
+                }
+            }
+        } else if (value instanceof Object[]) {
+            for (Object v : (Object[]) value) {
+                if (hasParameter(v)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Throw if a parameter appears anywhere in a query which is about to be
+     * used without being prepared, rather than failing deep in the codec.
+     */
+    static void checkBound(Object value) {
+        if (value instanceof Parameter) {
+            throw ((Parameter) value).unbound();
+        } else if (value instanceof Map<?, ?>) {
+            for (Object v : ((Map<?, ?>) value).values()) {
+                checkBound(v);
+            }
+        } else if (value instanceof Collection<?>) {
+            for (Object v : (Collection<?>) value) {
+                checkBound(v);
+            }
+        } else if (value instanceof Object[]) {
+            for (Object v : (Object[]) value) {
+                checkBound(v);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the containers of the shape per binding, sharing its leaf
+     * values, so a document handed out never shares mutable state with the
+     * template or another binding.
+     */
+    private static Node compile(Object value, Map<String, Integer> indices) {
+        if (value instanceof Parameter) {
+            String name = ((Parameter) value).name;
+            Integer index = indices.get(name);
+            if (index == null) {
+                indices.put(name, index = indices.size());
+            }
+            return new Slot(index);
+        } else if (value instanceof Map<?, ?>) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            String[] keys = new String[map.size()];
+            Node[] values = new Node[keys.length];
+            int i = 0;
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                keys[i] = String.valueOf(e.getKey());
+                values[i++] = compile(e.getValue(), indices);
+            }
+            return new DocumentNode(keys, values);
+        } else if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            Node[] values = new Node[list.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = compile(list.get(i), indices);
+            }
+            return new ListNode(values);
+        }
+        return new Constant(value);
+    }
+
+    private interface Node {
+
+        Object bind(Object[] values);
+    }
+
+    private static final class Constant implements Node {
+
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object bind(Object[] values) {
+            return value;
+        }
+    }
+
+    private static final class Slot implements Node {
+
+        private final int index;
+
+        Slot(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Object bind(Object[] values) {
+            return values[index];
+        }
+    }
+
+    private static final class DocumentNode implements Node {
+
+        private final String[] keys;
+        private final Node[] values;
+
+        DocumentNode(String[] keys, Node[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public Object bind(Object[] bound) {
+            Document result = new Document();
+            for (int i = 0; i < keys.length; i++) {
+                result.put(keys[i], values[i].bind(bound));
+            }
+            return result;
+        }
+    }
+
+    private static final class ListNode implements Node {
+
+        private final Node[] values;
+
+        ListNode(Node[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object bind(Object[] bound) {
+            List<Object> result = new ArrayList<>(values.length);
+            for (Node node : values) {
+                Object value = node.bind(bound);
+                if (node instanceof Slot && value instanceof Collection<?>) {
+                    result.addAll((Collection<?>) value);
+                } else if (node instanceof Slot && value != null && value.getClass().isArray()) {
+                    for (int i = 0, len = Array.getLength(value); i < len; i++) {
+                        result.add(Array.get(value, i));
+                    }
+                } else {
+                    result.add(value);
+                }
+            }
+            return result;
+        }
+    }
+}
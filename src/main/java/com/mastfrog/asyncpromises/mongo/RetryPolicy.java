@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When and how often to resend operations which failed with errors a
+ * replica set produces transiently, such as during an election.
+ *
+ * @author Tim Boudreau
+ */
+final class RetryPolicy {
+
+    /**
+     * Server error codes for failures caused by replica set state changes,
+     * shutdowns or network trouble, rather than by the operation itself.
+     */
+    private static final int[] TRANSIENT_CODES = {
+        6, // HostUnreachable
+        7, // HostNotFound
+        89, // NetworkTimeout
+        91, // ShutdownInProgress
+        112, // WriteConflict
+        189, // PrimarySteppedDown
+        262, // ExceededTimeLimit
+        9001, // SocketException
+        10107, // NotMaster
+        11600, // InterruptedAtShutdown
+        11602, // InterruptedDueToReplStateChange
+        13435, // NotMasterNoSlaveOk
+        13436 // NotMasterOrSecondary
+    };
+    private static final long MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private final int maxRetries;
+    private final long initialDelayNanos;
+
+    static {
+        Arrays.sort(TRANSIENT_CODES);
+    }
+
+    RetryPolicy(int maxRetries, long initialDelay, TimeUnit unit) {
+        this.maxRetries = maxRetries;
+        this.initialDelayNanos = unit.toNanos(initialDelay);
+    }
+
+    int maxRetries() {
+        return maxRetries;
+    }
+
+    static boolean isTransient(int code) {
+        return Arrays.binarySearch(TRANSIENT_CODES, code) >= 0;
+    }
+
+    /**
+     * Exponential backoff with jitter of plus or minus half, so writers which
+     * failed together do not all retry together.
+     *
+     * @param retry The retry about to be made, starting from 1
+     * @return A delay in nanoseconds, at most 30 seconds, and zero if the
+     * initial delay is zero
+     */
+    long delayNanos(int retry) {
+        if (initialDelayNanos <= 0) {
+            return 0;
+        }
+        int shift = Math.max(0, retry - 1);
+        // Shifting by as many bits as lead with zeros would reach the sign bit
+        long delay = shift >= Long.numberOfLeadingZeros(initialDelayNanos)
+                ? MAX_DELAY_NANOS
+                : Math.min(MAX_DELAY_NANOS, initialDelayNanos << shift);
+        long jittered = (long) (delay * (0.5 + ThreadLocalRandom.current().nextDouble()));
+        return Math.min(MAX_DELAY_NANOS, jittered);
+    }
+}
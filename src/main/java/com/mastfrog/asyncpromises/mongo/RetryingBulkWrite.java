@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One bulk write which, when some operations fail with transient errors,
+ * resends only those after a backoff - for an unordered write, each failed
+ * operation; for an ordered one, everything from the failed operation on,
+ * since the server did not attempt the rest. Results from each attempt are
+ * merged, with indices relative to the original requests.
+ * <p>
+ * Operations an attempt applied are never resent, so a write concern error
+ * from any attempt which applied some still leaves their durability
+ * unconfirmed - they may be rolled back after the very election that caused
+ * the retry. The first such error is reported even if later attempts
+ * succeed.
+ * </p>
+ * <p>
+ * Failures of the whole command are not retried, since whether any of it was
+ * applied is unknown.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class RetryingBulkWrite<T> {
+
+    private final ChunkedBulkWrite.Sink<T> sink;
+    private final RetryPolicy policy;
+    private final BulkWriteOptions opts;
+    private final Trigger<BulkWriteResult> onDone;
+    private final List<BulkWriteUpsert> upserts = new ArrayList<>();
+    private final List<BulkWriteError> errors = new ArrayList<>();
+    private List<WriteModel<? extends T>> current;
+    private int[] indices;
+    private int retries;
+    private int inserted;
+    private int matched;
+    private int deleted;
+    private int modified;
+    private WriteConcernError writeConcernError;
+    private ServerAddress serverAddress;
+
+    RetryingBulkWrite(List<WriteModel<? extends T>> requests, BulkWriteOptions opts, ChunkedBulkWrite.Sink<T> sink, RetryPolicy policy, Trigger<BulkWriteResult> onDone) {
+        this.current = requests;
+        this.opts = opts;
+        this.sink = sink;
+        this.policy = policy;
+        this.onDone = onDone;
+        this.indices = new int[requests.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+    }
+
+    /**
+     * Wrap a sink so each bulk write sent through it retries transient
+     * failures.
+     */
+    static <T> ChunkedBulkWrite.Sink<T> wrap(final ChunkedBulkWrite.Sink<T> sink, final RetryPolicy policy) {
+        return new ChunkedBulkWrite.Sink<T>() {
+            @Override
+            public void bulkWrite(List<WriteModel<? extends T>> requests, BulkWriteOptions opts, Trigger<BulkWriteResult> next) {
+                new RetryingBulkWrite<>(requests, opts, sink, policy, next).start();
+            }
+        };
+    }
+
+    void start() {
+        attempt();
+    }
+
+    private void attempt() {
+        try {
+            sink.bulkWrite(current, opts, new Trigger<BulkWriteResult>() {
+                @Override
+                public void trigger(BulkWriteResult result, Throwable thrown) {
+                    onResult(result, thrown);
+                }
+            });
+        } catch (Exception e) {
+            onDone.trigger(null, e);
+        }
+    }
+
+    private void onResult(BulkWriteResult result, Throwable thrown) {
+        if (thrown != null && !(thrown instanceof MongoBulkWriteException)) {
+            onDone.trigger(null, thrown);
+            return;
+        }
+        if (thrown == null) {
+            if (!result.wasAcknowledged()) {
+                onDone.trigger(result, null);
+                return;
+            }
+            add(result);
+            finish();
+            return;
+        }
+        MongoBulkWriteException bulk = (MongoBulkWriteException) thrown;
+        add(bulk.getWriteResult());
+        serverAddress = bulk.getServerAddress();
+        if (writeConcernError == null && applied(bulk)) {
+            writeConcernError = bulk.getWriteConcernError();
+        }
+        boolean canRetry = retries < policy.maxRetries();
+        List<Integer> retry = new ArrayList<>();
+        for (BulkWriteError err : bulk.getWriteErrors()) {
+            if (canRetry && RetryPolicy.isTransient(err.getCode())) {
+                if (opts.isOrdered()) {
+                    // The server stopped here; nothing after it was attempted
+                    for (int i = err.getIndex(); i < current.size(); i++) {
+                        retry.add(i);
+                    }
+                } else {
+                    retry.add(err.getIndex());
+                }
+            } else {
+                errors.add(new BulkWriteError(err.getCode(), err.getMessage(), err.getDetails(), indices[err.getIndex()]));
+            }
+        }
+        if (retry.isEmpty()) {
+            finish();
+            return;
+        }
+        List<WriteModel<? extends T>> next = new ArrayList<>(retry.size());
+        int[] nextIndices = new int[retry.size()];
+        for (int i = 0; i < nextIndices.length; i++) {
+            next.add(current.get(retry.get(i)));
+            nextIndices[i] = indices[retry.get(i)];
+        }
+        current = next;
+        indices = nextIndices;
+        retries++;
+        Timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt();
+            }
+        }, policy.delayNanos(retries), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Whether any operation of the current attempt was applied, and so will
+     * not be resent.
+     */
+    private boolean applied(MongoBulkWriteException bulk) {
+        List<BulkWriteError> errs = bulk.getWriteErrors();
+        if (opts.isOrdered()) {
+            // The server stops at the first error
+            return errs.isEmpty() || errs.get(0).getIndex() > 0;
+        }
+        return errs.size() < current.size();
+    }
+
+    private void add(BulkWriteResult result) {
+        inserted += result.getInsertedCount();
+        matched += result.getMatchedCount();
+        deleted += result.getDeletedCount();
+        modified += result.getModifiedCount();
+        for (BulkWriteUpsert up : result.getUpserts()) {
+            upserts.add(new BulkWriteUpsert(indices[up.getIndex()], up.getId()));
+        }
+    }
+
+    private void finish() {
+        BulkWriteResult result = BulkWriteResult.acknowledged(inserted, matched, deleted, modified, upserts);
+        if (errors.isEmpty() && writeConcernError == null) {
+            onDone.trigger(result, null);
+            return;
+        }
+        ChunkedBulkWrite.sortByIndex(errors);
+        onDone.trigger(null, new MongoBulkWriteException(result, errors, writeConcernError, serverAddress));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+
+/**
+ * Coalesces concurrent identical calls: the first caller for a key performs
+ * the call, and callers arriving while it is in flight are handed its result
+ * instead of making their own. Nothing is retained once a call completes.
+ * <p>
+ * Joiners get the leader's failures too, so callers must only be coalesced
+ * when a failure of one would have been a failure of the others: calls whose
+ * chain has a {@link Deadline} are never coalesced, since the leader's
+ * budget is not the joiners', and keys include the {@link Priority}, since a
+ * concurrency limit rejects or times out calls by lane (see
+ * {@link #keyed(BsonDocument, Priority)}).
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Join the call in flight for the passed key, if any.
+     *
+     * @param key The key
+     * @param trigger The trigger to notify with the result
+     * @return A trigger the caller must make the call with and pass its result
+     * to, or null if an identical call is already in flight and the passed
+     * trigger will be notified when it completes
+     */
+    Trigger<V> join(K key, Trigger<V> trigger) {
+        for (;;) {
+            Flight flight = new Flight(key);
+            Flight existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                flight.add(trigger);
+                return flight;
+            }
+            if (existing.add(trigger)) {
+                return null;
+            }
+            // Completed between lookup and joining; start a new one
+        }
+    }
+
+    /**
+     * Qualify a key with the priority of the call, so a call is never failed
+     * by a rejection or timeout in a lane it was not queued in.
+     */
+    static BsonDocument keyed(BsonDocument key, Priority priority) {
+        return new BsonDocument("k", key).append("p", new BsonString(priority.name()));
+    }
+
+    int inFlight() {
+        return flights.size();
+    }
+
+    private final class Flight implements Trigger<V> {
+
+        private final K key;
+        private final List<Trigger<V>> waiters = new ArrayList<>(4);
+        private boolean done;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        synchronized boolean add(Trigger<V> trigger) {
+            if (done) {
+                return false;
+            }
+            waiters.add(trigger);
+            return true;
+        }
+
+        @Override
+        public void trigger(V obj, Throwable thrown) {
+            flights.remove(key, this);
+            List<Trigger<V>> toNotify;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                toNotify = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            for (Trigger<V> waiter : toNotify) {
+                waiter.trigger(obj, thrown);
+            }
+        }
+    }
+}
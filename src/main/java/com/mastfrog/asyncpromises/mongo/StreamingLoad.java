@@ -0,0 +1,404 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One execution of a streaming load: pulls documents from a source a batch at
+ * a time and inserts each batch as an unordered bulk write, keeping at most
+ * <code>maxInFlight</code> batches outstanding and pulling the next only when
+ * there is room, so only that many batches are ever held in memory. As with
+ * a single unordered bulk write, documents the server rejects do not stop
+ * the load; their errors are reported at the end with indices counting from
+ * the first document loaded. Only counts of what each batch did are kept,
+ * and at most <code>MAX_ERRORS</code> errors, so a long load which is mostly
+ * rejected does not accumulate them without bound.
+ *
+ * @author Tim Boudreau
+ */
+final class StreamingLoad<T> {
+
+    /**
+     * The most write errors retained for the final exception; past this the
+     * inserted count is the only record of how many documents were rejected.
+     */
+    static final int MAX_ERRORS = 1000;
+
+    private final Source<T> source;
+    private final ChunkedBulkWrite.Sink<T> sink;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final Trigger<BulkWriteResult> onDone;
+    private final AtomicInteger wip = new AtomicInteger();
+    private final List<BulkWriteError> errors = new ArrayList<>();
+    private int inserted;
+    private int matched;
+    private int deleted;
+    private int modified;
+    private boolean unacknowledged;
+    private WriteConcernError writeConcernError;
+    private ServerAddress serverAddress;
+    private Throwable failure;
+    private List<T> ready;
+    private int loaded;
+    private int inFlight;
+    private boolean pulling;
+    private boolean exhausted;
+    private boolean done;
+
+    StreamingLoad(Source<T> source, ChunkedBulkWrite.Sink<T> sink, int batchSize, int maxInFlight, Trigger<BulkWriteResult> onDone) {
+        this.source = source;
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.onDone = onDone;
+    }
+
+    /**
+     * Supplies documents a batch at a time; only one pull is ever outstanding.
+     */
+    interface Source<T> {
+
+        /**
+         * Deliver up to max documents to the trigger, synchronously or later;
+         * an empty list or null means there are no more.
+         */
+        void pull(int max, Trigger<List<T>> into);
+
+        /**
+         * Called if the load fails, to stop producing documents.
+         */
+        void cancel();
+    }
+
+    void start() {
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (step()) {
+                // keep going
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private boolean step() {
+        List<T> batch = null;
+        int offset = 0;
+        boolean pull = false;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            if ((failure != null || exhausted) && ready == null) {
+                if (pulling || inFlight > 0) {
+                    return false;
+                }
+                done = true;
+            } else if (ready != null) {
+                if (inFlight >= maxInFlight) {
+                    return false;
+                }
+                batch = ready;
+                ready = null;
+                offset = loaded;
+                loaded += batch.size();
+                inFlight++;
+            } else if (!pulling && inFlight < maxInFlight) {
+                pulling = pull = true;
+            } else {
+                return false;
+            }
+        }
+        if (batch != null) {
+            send(batch, offset);
+        } else if (pull) {
+            pull();
+        } else {
+            finish();
+            return false;
+        }
+        return true;
+    }
+
+    private void pull() {
+        try {
+            source.pull(batchSize, new Trigger<List<T>>() {
+                @Override
+                public void trigger(List<T> batch, Throwable thrown) {
+                    synchronized (StreamingLoad.this) {
+                        pulling = false;
+                        if (thrown != null) {
+                            if (failure == null) {
+                                failure = thrown;
+                            }
+                        } else if (batch == null || batch.isEmpty()) {
+                            exhausted = true;
+                        } else if (failure == null) {
+                            ready = batch;
+                        }
+                    }
+                    drain();
+                }
+            });
+        } catch (Exception e) {
+            synchronized (this) {
+                pulling = false;
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    private void send(List<T> batch, final int offset) {
+        List<WriteModel<? extends T>> models = new ArrayList<>(batch.size());
+        for (T doc : batch) {
+            models.add(new InsertOneModel<>(doc));
+        }
+        try {
+            sink.bulkWrite(models, new BulkWriteOptions().ordered(false), new Trigger<BulkWriteResult>() {
+                @Override
+                public void trigger(BulkWriteResult result, Throwable thrown) {
+                    batchDone(offset, result, thrown);
+                }
+            });
+        } catch (Exception e) {
+            batchDone(offset, null, e);
+        }
+    }
+
+    private void batchDone(int offset, BulkWriteResult result, Throwable thrown) {
+        boolean cancel = false;
+        synchronized (this) {
+            inFlight--;
+            if (thrown instanceof MongoBulkWriteException) {
+                MongoBulkWriteException bulk = (MongoBulkWriteException) thrown;
+                count(bulk.getWriteResult());
+                for (BulkWriteError err : bulk.getWriteErrors()) {
+                    if (errors.size() >= MAX_ERRORS) {
+                        break;
+                    }
+                    errors.add(new BulkWriteError(err.getCode(), err.getMessage(), err.getDetails(), err.getIndex() + offset));
+                }
+                if (bulk.getWriteConcernError() != null) {
+                    writeConcernError = bulk.getWriteConcernError();
+                }
+                serverAddress = bulk.getServerAddress();
+            } else if (thrown != null) {
+                cancel = failure == null;
+                if (failure == null) {
+                    failure = thrown;
+                }
+                ready = null;
+            } else {
+                count(result);
+            }
+        }
+        if (cancel) {
+            source.cancel();
+        }
+        drain();
+    }
+
+    private void count(BulkWriteResult result) {
+        if (result == null || !result.wasAcknowledged()) {
+            unacknowledged = true;
+            return;
+        }
+        inserted += result.getInsertedCount();
+        matched += result.getMatchedCount();
+        deleted += result.getDeletedCount();
+        modified += result.getModifiedCount();
+    }
+
+    private void finish() {
+        if (failure != null) {
+            onDone.trigger(null, failure);
+            return;
+        }
+        BulkWriteResult merged;
+        synchronized (this) {
+            merged = unacknowledged ? BulkWriteResult.unacknowledged()
+                    : BulkWriteResult.acknowledged(inserted, matched, deleted, modified, Collections.<BulkWriteUpsert>emptyList());
+        }
+        if (errors.isEmpty() && writeConcernError == null) {
+            onDone.trigger(merged, null);
+            return;
+        }
+        ChunkedBulkWrite.sortByIndex(errors);
+        onDone.trigger(null, new MongoBulkWriteException(merged, errors, writeConcernError, serverAddress));
+    }
+
+    /**
+     * Pulls from an iterator on whatever thread asks for the next batch -
+     * usually a driver callback thread, so the iterator should not block for
+     * long.
+     */
+    static final class IteratorSource<T> implements Source<T> {
+
+        private final Iterator<? extends T> iterator;
+
+        IteratorSource(Iterator<? extends T> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void pull(int max, Trigger<List<T>> into) {
+            List<T> batch = new ArrayList<>(max);
+            try {
+                while (batch.size() < max && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                }
+            } catch (Exception e) {
+                into.trigger(null, e);
+                return;
+            }
+            into.trigger(batch, null);
+        }
+
+        @Override
+        public void cancel() {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Requests a batch's worth of documents from a publisher for each pull.
+     */
+    static final class PublisherSource<T> implements Source<T>, FindPublisher.Subscriber<T> {
+
+        private FindPublisher.Subscription subscription;
+        private Trigger<List<T>> waiting;
+        private List<T> batch;
+        private int wanted;
+        private boolean complete;
+        private Throwable failure;
+
+        PublisherSource(FindPublisher<? extends T> publisher) {
+            publisher.subscribe(this);
+        }
+
+        @Override
+        public void pull(int max, Trigger<List<T>> into) {
+            FindPublisher.Subscription sub;
+            synchronized (this) {
+                if (complete || failure != null) {
+                    Throwable f = failure;
+                    into.trigger(f == null ? Collections.<T>emptyList() : null, f);
+                    return;
+                }
+                waiting = into;
+                batch = new ArrayList<>(max);
+                wanted = max;
+                sub = subscription;
+            }
+            sub.request(max);
+        }
+
+        @Override
+        public synchronized void onSubscribe(FindPublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            Trigger<List<T>> deliverTo = null;
+            List<T> full = null;
+            synchronized (this) {
+                batch.add(item);
+                if (batch.size() >= wanted) {
+                    deliverTo = waiting;
+                    full = batch;
+                    waiting = null;
+                    batch = null;
+                }
+            }
+            if (deliverTo != null) {
+                deliverTo.trigger(full, null);
+            }
+        }
+
+        @Override
+        public void onError(Throwable thrown) {
+            Trigger<List<T>> deliverTo;
+            synchronized (this) {
+                failure = thrown;
+                deliverTo = waiting;
+                waiting = null;
+            }
+            if (deliverTo != null) {
+                deliverTo.trigger(null, thrown);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            Trigger<List<T>> deliverTo;
+            List<T> last;
+            synchronized (this) {
+                complete = true;
+                deliverTo = waiting;
+                last = batch;
+                waiting = null;
+                batch = null;
+            }
+            if (deliverTo != null) {
+                deliverTo.trigger(last, null);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            FindPublisher.Subscription sub;
+            synchronized (this) {
+                sub = subscription;
+            }
+            if (sub != null) {
+                sub.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared scheduler for the library's timed work, such as flushing batches,
+ * queue timeouts and hedges. The timer itself runs on a single daemon
+ * thread, which only hands each task, when it is due, to a pool of daemon
+ * worker threads - tasks complete callers' promises, whose continuations
+ * may be slow, and one of them must never hold up every other timeout in
+ * the process. Neither keeps the VM alive.
+ *
+ * @author Tim Boudreau
+ */
+final class Timers {
+
+    private Timers() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Run a task on a worker thread after the passed delay.
+     *
+     * @param task The task
+     * @param delay The delay
+     * @param unit The unit for the delay
+     * @return A future which may be used to cancel the task before it is due
+     */
+    static ScheduledFuture<?> schedule(final Runnable task, long delay, TimeUnit unit) {
+        return Holder.SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Holder.WORKERS.execute(task);
+            }
+        }, delay, unit);
+    }
+
+    private static final class Holder {
+
+        static final ScheduledExecutorService SCHEDULER;
+        static final ExecutorService WORKERS = Executors.newCachedThreadPool(daemon("mongo-promises-worker"));
+
+        static {
+            ScheduledThreadPoolExecutor exe = new ScheduledThreadPoolExecutor(1, daemon("mongo-promises-timer"));
+            exe.setRemoveOnCancelPolicy(true);
+            SCHEDULER = exe;
+        }
+
+        private static ThreadFactory daemon(final String name) {
+            return new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+        }
+    }
+}
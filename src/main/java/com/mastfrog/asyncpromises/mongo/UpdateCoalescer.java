@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.conversions.Bson;
+
+/**
+ * Coalesces updates to hot documents: <code>$inc</code> and
+ * <code>$set</code> modifications which target the same query within a
+ * short window are merged in memory and sent as a single
+ * <code>updateOne</code>. Increments to a field are summed; for
+ * <code>$set</code> the last writer wins. Get one from
+ * <code>CollectionPromises.updateCoalescer()</code>; it is thread-safe and
+ * meant to be shared.
+ * <p>
+ * Every promise whose modification was merged into an update completes with
+ * that update's result (or failure) - so the matched and modified counts
+ * describe the merged update, not the caller's share of it. Modifications
+ * using any other operator are not merged. Updates for the same query are
+ * applied in the order they arrive: each is sent only once the one before it
+ * has completed.
+ * </p>
+ * <p>
+ * Since an update carries modifications from many promises, and one
+ * caller's share of a merged <code>$inc</code> cannot be dropped without
+ * dropping everyone's, updates are sent without any of their contexts: the
+ * Priority and Deadline of the context an updateOne() promise runs in do not
+ * apply to the update it is merged into, which waits for a concurrency limit
+ * with the priority of the CollectionPromises it came from.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public interface UpdateCoalescer<T> {
+
+    /**
+     * Create a promise to apply a modification to the document matching the
+     * query passed to its start() method, merged with any other pending
+     * modifications for the same query.
+     *
+     * @param modification The modification, whose only operators are
+     * <code>$inc</code> and <code>$set</code> if it is to be merged
+     * @return A promise
+     */
+    public AsyncPromise<Bson, UpdateResult> updateOne(Bson modification);
+}
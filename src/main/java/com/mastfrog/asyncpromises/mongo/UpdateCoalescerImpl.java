@@ -0,0 +1,395 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+import com.mastfrog.asyncpromises.Logic;
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.client.result.UpdateResult;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+/**
+ * Holds mergeable modifications per normalized query until the window
+ * elapses after the first of them arrives, then sends one update per query.
+ * Each query has a chain of updates waiting to be sent, in arrival order; at
+ * most one update per query is in flight, and the next is sent only once it
+ * completes, so updates to the same document are never reordered. Only the
+ * last update in a chain, if not yet sent, takes further merges.
+ *
+ * @author Tim Boudreau
+ */
+final class UpdateCoalescerImpl<T> implements UpdateCoalescer<T> {
+
+    private final CodecRegistry registry;
+    private final Class<T> type;
+    private final Sink sink;
+    private final long windowNanos;
+    private final Map<BsonDocument, Chain> chains = new LinkedHashMap<>();
+    private ScheduledFuture<?> timer;
+
+    UpdateCoalescerImpl(CodecRegistry registry, Class<T> type, Sink sink, long window, TimeUnit unit) {
+        this.registry = registry;
+        this.type = type;
+        this.sink = sink;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * Sends a single update; CollectionPromises supplies one which also
+     * invalidates its caches.
+     */
+    interface Sink {
+
+        void updateOne(Bson query, Bson modification, Trigger<UpdateResult> next);
+    }
+
+    @Override
+    public AsyncPromise<Bson, UpdateResult> updateOne(final Bson modification) {
+        FindBuilderImpl.checkNull("modification", modification);
+        return AsyncPromise.create(new Logic<Bson, UpdateResult>() {
+            @Override
+            public void run(Bson data, Trigger<UpdateResult> next, PromiseContext context) throws Exception {
+                FindBuilderImpl.checkNull("query", data);
+                enqueue(data, modification, next);
+            }
+        });
+    }
+
+    private void enqueue(Bson query, Bson modification, Trigger<UpdateResult> trigger) {
+        BsonDocument key = FindBuilderImpl.normalize(query.toBsonDocument(type, registry));
+        BsonDocument mod = modification.toBsonDocument(type, registry);
+        synchronized (this) {
+            Chain chain = chains.get(key);
+            if (chain == null) {
+                chains.put(key, chain = new Chain());
+            }
+            Step last = chain.queue.peekLast();
+            if (mergeable(mod)) {
+                if (last instanceof Pending && ((Pending) last).merge(mod)) {
+                    last.triggers.add(trigger);
+                    return;
+                }
+                // Nothing unsent, or a conflicting field - this starts a new
+                // update, and whatever was unsent can go as soon as its turn
+                // comes
+                Pending nue = new Pending(query);
+                nue.merge(mod);
+                nue.triggers.add(trigger);
+                chain.queue.add(nue);
+                if (timer == null) {
+                    timer = Timers.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flushAll();
+                        }
+                    }, windowNanos, TimeUnit.NANOSECONDS);
+                }
+            } else {
+                chain.queue.add(new Deferred(query, mod, trigger));
+            }
+        }
+        dispatch(key);
+    }
+
+    void flushAll() {
+        List<BsonDocument> keys;
+        synchronized (this) {
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+            for (Chain chain : chains.values()) {
+                for (Step step : chain.queue) {
+                    if (step instanceof Pending) {
+                        ((Pending) step).due = true;
+                    }
+                }
+            }
+            keys = new ArrayList<>(chains.keySet());
+        }
+        for (BsonDocument key : keys) {
+            dispatch(key);
+        }
+    }
+
+    /**
+     * Send the first update waiting for a query, if nothing for it is in
+     * flight and the update is ready to go.
+     */
+    private void dispatch(final BsonDocument key) {
+        final Chain chain;
+        final Step step;
+        synchronized (this) {
+            chain = chains.get(key);
+            if (chain == null || chain.inFlight) {
+                return;
+            }
+            step = chain.queue.peek();
+            if (step == null) {
+                chains.remove(key);
+                return;
+            }
+            if (step instanceof Pending && !((Pending) step).due && chain.queue.size() == 1) {
+                // Still collecting merges
+                return;
+            }
+            chain.queue.poll();
+            chain.inFlight = true;
+        }
+        send(step.query, step.modification(), new Trigger<UpdateResult>() {
+            @Override
+            public void trigger(UpdateResult result, Throwable thrown) {
+                synchronized (UpdateCoalescerImpl.this) {
+                    chain.inFlight = false;
+                }
+                for (Trigger<UpdateResult> t : step.triggers) {
+                    t.trigger(result, thrown);
+                }
+                dispatch(key);
+            }
+        });
+    }
+
+    private void send(Bson query, Bson modification, Trigger<UpdateResult> next) {
+        try {
+            sink.updateOne(query, modification, next);
+        } catch (Exception e) {
+            next.trigger(null, e);
+        }
+    }
+
+    /**
+     * Whether a modification uses nothing but numeric <code>$inc</code>s and
+     * <code>$set</code>s, none of which touch overlapping fields.
+     */
+    static boolean mergeable(BsonDocument mod) {
+        if (mod.isEmpty()) {
+            return false;
+        }
+        for (Map.Entry<String, BsonValue> e : mod.entrySet()) {
+            if (!"$inc".equals(e.getKey()) && !"$set".equals(e.getKey())) {
+                return false;
+            }
+            if (!e.getValue().isDocument()) {
+                return false;
+            }
+        }
+        BsonDocument inc = mod.getDocument("$inc", new BsonDocument());
+        BsonDocument set = mod.getDocument("$set", new BsonDocument());
+        List<String> fields = new ArrayList<>(inc.keySet());
+        fields.addAll(set.keySet());
+        for (Map.Entry<String, BsonValue> e : inc.entrySet()) {
+            if (!isSummable(e.getValue())) {
+                return false;
+            }
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            for (int j = i + 1; j < fields.size(); j++) {
+                if (overlaps(fields.get(i), fields.get(j))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static boolean overlaps(String a, String b) {
+        return a.equals(b) || a.startsWith(b + '.') || b.startsWith(a + '.');
+    }
+
+    private static boolean isSummable(BsonValue value) {
+        return value.isInt32() || value.isInt64() || value.isDouble();
+    }
+
+    /**
+     * Add two numbers the way the server would, or return null if the sum
+     * overflows.
+     */
+    static BsonValue sum(BsonValue a, BsonValue b) {
+        if (a.isDouble() || b.isDouble()) {
+            return new BsonDouble(a.asNumber().doubleValue() + b.asNumber().doubleValue());
+        }
+        long x = a.asNumber().longValue();
+        long y = b.asNumber().longValue();
+        long result = x + y;
+        if (((x ^ result) & (y ^ result)) < 0) {
+            return null;
+        }
+        if (a.isInt32() && b.isInt32() && result == (int) result) {
+            return new BsonInt32((int) result);
+        }
+        return new BsonInt64(result);
+    }
+
+    /**
+     * The updates waiting to be sent for one query.
+     */
+    static final class Chain {
+
+        final ArrayDeque<Step> queue = new ArrayDeque<>();
+        boolean inFlight;
+    }
+
+    /**
+     * One update to send, and the promises waiting on it.
+     */
+    abstract static class Step {
+
+        final Bson query;
+        final List<Trigger<UpdateResult>> triggers = new ArrayList<>(4);
+
+        Step(Bson query) {
+            this.query = query;
+        }
+
+        abstract Bson modification();
+    }
+
+    /**
+     * The merged modification for one query.
+     */
+    static final class Pending extends Step {
+
+        final BsonDocument inc = new BsonDocument();
+        final BsonDocument set = new BsonDocument();
+        boolean due;
+
+        Pending(Bson query) {
+            super(query);
+        }
+
+        @Override
+        Bson modification() {
+            return toDocument();
+        }
+
+        /**
+         * Merge a mergeable modification into this one, unless one of its
+         * fields overlaps a different field already pending, or it would
+         * increment a non-numeric value being set, or overflow.
+         *
+         * @return true if merged, false if nothing was changed
+         */
+        boolean merge(BsonDocument mod) {
+            BsonDocument newInc = mod.getDocument("$inc", new BsonDocument());
+            BsonDocument newSet = mod.getDocument("$set", new BsonDocument());
+            Map<String, BsonValue> sums = new LinkedHashMap<>();
+            for (Map.Entry<String, BsonValue> e : newInc.entrySet()) {
+                String field = e.getKey();
+                if (conflicts(field)) {
+                    return false;
+                }
+                BsonValue prev = set.containsKey(field) ? set.get(field) : inc.get(field);
+                if (prev != null) {
+                    if (!isSummable(prev)) {
+                        return false;
+                    }
+                    BsonValue total = sum(prev, e.getValue());
+                    if (total == null) {
+                        return false;
+                    }
+                    sums.put(field, total);
+                } else {
+                    sums.put(field, e.getValue());
+                }
+            }
+            for (String field : newSet.keySet()) {
+                if (conflicts(field)) {
+                    return false;
+                }
+            }
+            for (Map.Entry<String, BsonValue> e : sums.entrySet()) {
+                if (set.containsKey(e.getKey())) {
+                    set.put(e.getKey(), e.getValue());
+                } else {
+                    inc.put(e.getKey(), e.getValue());
+                }
+            }
+            for (Map.Entry<String, BsonValue> e : newSet.entrySet()) {
+                // A later $set replaces any pending increment of the field
+                inc.remove(e.getKey());
+                set.put(e.getKey(), e.getValue());
+            }
+            return true;
+        }
+
+        private boolean conflicts(String field) {
+            for (String other : inc.keySet()) {
+                if (!other.equals(field) && overlaps(other, field)) {
+                    return true;
+                }
+            }
+            for (String other : set.keySet()) {
+                if (!other.equals(field) && overlaps(other, field)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        BsonDocument toDocument() {
+            BsonDocument result = new BsonDocument();
+            if (!set.isEmpty()) {
+                result.append("$set", set);
+            }
+            if (!inc.isEmpty()) {
+                result.append("$inc", inc);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * An unmergeable update.
+     */
+    static final class Deferred extends Step {
+
+        final Bson modification;
+
+        Deferred(Bson query, Bson modification, Trigger<UpdateResult> trigger) {
+            super(query);
+            this.modification = modification;
+            triggers.add(trigger);
+        }
+
+        @Override
+        Bson modification() {
+            return modification;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class AdaptiveBatchSizeTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Test
+    public void testStartsFromRequestedSizeWithinRange() {
+        AdaptiveBatchSize<Document> sizing = new AdaptiveBatchSize<>(10, 1000, 64 * 1024, new DocumentCodec());
+        assertEquals(10, sizing.batchSize(0));
+        assertEquals(100, sizing.batchSize(100));
+        assertEquals(1000, sizing.batchSize(5000));
+    }
+
+    @Test
+    public void testSmallDocumentsGrowTowardsMax() {
+        AdaptiveBatchSize<Document> sizing = new AdaptiveBatchSize<>(10, 1000, 64 * 1024, new DocumentCodec());
+        int size = sizing.batchSize(0);
+        for (int i = 0; i < 20; i++) {
+            sizing.fetched(batch(size, 16), SLOW);
+            sizing.processed(FAST);
+            int next = sizing.batchSize(size);
+            assertTrue(next >= size);
+            assertTrue("Grew too fast: " + size + " to " + next, next <= size * 2);
+            size = next;
+        }
+        assertEquals(1000, size);
+    }
+
+    @Test
+    public void testLargeDocumentsShrinkTowardsTarget() {
+        AdaptiveBatchSize<Document> sizing = new AdaptiveBatchSize<>(1, 1000, 64 * 1024, new DocumentCodec());
+        int size = 1000;
+        for (int i = 0; i < 20; i++) {
+            sizing.fetched(batch(size, 16 * 1024), SLOW);
+            sizing.processed(FAST);
+            size = sizing.batchSize(size);
+        }
+        // ~16Kb documents, so about four per 64Kb batch
+        assertTrue("Expected about 4, got " + size, size >= 3 && size <= 4);
+    }
+
+    @Test
+    public void testSlowReceiverHoldsBackGrowth() {
+        AdaptiveBatchSize<Document> sizing = new AdaptiveBatchSize<>(10, 1000, 64 * 1024, new DocumentCodec());
+        sizing.fetched(batch(10, 16), FAST);
+        for (int i = 0; i < 5; i++) {
+            sizing.fetched(batch(10, 16), FAST);
+            sizing.processed(SLOW);
+            assertEquals(10, sizing.batchSize(10));
+        }
+    }
+
+    @Test
+    public void testUnencodableDocumentsLeaveSizeAlone() {
+        AdaptiveBatchSize<Document> sizing = new AdaptiveBatchSize<>(10, 1000, 64 * 1024, null);
+        sizing.fetched(batch(10, 16), SLOW);
+        sizing.processed(FAST);
+        assertEquals(50, sizing.batchSize(50));
+    }
+
+    private static List<Document> batch(int count, int bytes) {
+        StringBuilder sb = new StringBuilder(bytes);
+        for (int i = 0; i < bytes; i++) {
+            sb.append('x');
+        }
+        List<Document> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new Document("ix", i).append("payload", sb.toString()));
+        }
+        return result;
+    }
+}
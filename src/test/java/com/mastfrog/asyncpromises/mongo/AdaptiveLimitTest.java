@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mongodb.MongoSocketReadTimeoutException;
+import com.mongodb.ServerAddress;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks how AdaptiveLimit responds to round-trip times.
+ *
+ * @author Tim Boudreau
+ */
+public class AdaptiveLimitTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void testGrowsWhileFastAndBusy() {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 64);
+        long now = 0;
+        for (int i = 0; i < 200; i++) {
+            limit.sample(10 * MS, limit.limit(), null, now += MS);
+        }
+        assertTrue("Should have grown: " + limit, limit.limit() > 10);
+        assertTrue(limit.limit() <= 64);
+    }
+
+    @Test
+    public void testDoesNotGrowWhenIdle() {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 64);
+        long now = 0;
+        for (int i = 0; i < 200; i++) {
+            limit.sample(10 * MS, 1, null, now += MS);
+        }
+        assertEquals(4, limit.limit());
+    }
+
+    @Test
+    public void testShrinksOncePerRoundTripWhenSlow() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 100);
+        long now = 0;
+        for (int i = 0; i < 5000 && limit.limit() < 50; i++) {
+            limit.sample(10 * MS, limit.limit(), null, now += MS);
+        }
+        int before = limit.limit();
+        int slowCalls = 0;
+        while (limit.limit() == before && slowCalls < 100) {
+            limit.sample(50 * MS, before, null, now += MS);
+            slowCalls++;
+        }
+        assertTrue("A single slow call should not count as congestion", slowCalls > 1);
+        assertEquals((int) (before * AdaptiveLimit.BACKOFF), limit.limit());
+        limit.sample(50 * MS, before, null, now += MS);
+        assertEquals("A second slow call within the same round trip should not shrink it again",
+                (int) (before * AdaptiveLimit.BACKOFF), limit.limit());
+        now += 100 * MS;
+        limit.sample(10 * MS, before, new MongoSocketReadTimeoutException("x", new ServerAddress(), null), now);
+        assertTrue(limit.limit() < (int) (before * AdaptiveLimit.BACKOFF));
+    }
+
+    @Test
+    public void testGrowsWithMixedFastAndSlowCalls() {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 64);
+        long now = 0;
+        for (int i = 0; i < 2000; i++) {
+            // A by-id lookup, with every tenth call a much slower count or
+            // bulk write chunk
+            long rtt = i % 10 == 9 ? 20 * MS : MS;
+            limit.sample(rtt, limit.limit(), null, now += MS);
+        }
+        assertTrue("Naturally slower calls should not pin the limit: " + limit, limit.limit() > 20);
+    }
+
+    @Test
+    public void testNeverBelowMinimum() {
+        AdaptiveLimit limit = new AdaptiveLimit(3, 10);
+        long now = 0;
+        limit.sample(MS, 3, null, now);
+        for (int i = 0; i < 100; i++) {
+            limit.sample(100 * MS, 3, null, now += 10 * MS);
+        }
+        assertEquals(3, limit.limit());
+    }
+
+    @Test
+    public void testLimiterStartsAtMinimum() {
+        Limiter limiter = new Limiter(new AdaptiveLimit(2, 10), 100, 0, TimeUnit.SECONDS);
+        assertEquals(2, limiter.limit());
+        LimiterTest.Calls calls = new LimiterTest.Calls();
+        for (int i = 0; i < 3; i++) {
+            limiter.run(Priority.NORMAL, calls, new TestSupport.Result<String>());
+        }
+        assertEquals(2, calls.pending.size());
+        assertEquals(1, limiter.queueDepth());
+    }
+}
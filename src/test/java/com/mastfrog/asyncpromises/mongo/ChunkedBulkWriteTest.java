@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Sink;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks splitting, dispatch and result merging of chunked bulk writes.
+ *
+ * @author Tim Boudreau
+ */
+public class ChunkedBulkWriteTest {
+
+    @Test
+    public void testSplitByOperationCount() {
+        List<List<WriteModel<? extends Document>>> chunks = ChunkedBulkWrite.split(inserts(7), 3, 0, null);
+        assertEquals(3, chunks.size());
+        assertEquals(3, chunks.get(0).size());
+        assertEquals(3, chunks.get(1).size());
+        assertEquals(1, chunks.get(2).size());
+        assertEquals(1, ChunkedBulkWrite.split(inserts(3), 3, 0, null).size());
+    }
+
+    @Test
+    public void testSplitByEncodedSize() {
+        // {ix: n} encodes to 13 bytes
+        List<List<WriteModel<? extends Document>>> chunks = ChunkedBulkWrite.split(inserts(5), 0, 30, collection());
+        assertEquals(3, chunks.size());
+        assertEquals(2, chunks.get(0).size());
+        assertEquals(1, chunks.get(2).size());
+        assertEquals(5, ChunkedBulkWrite.split(inserts(5), 0, 1, collection()).size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCollection<Document> collection() {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(ChunkedBulkWriteTest.class.getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getCodecRegistry":
+                        return MongoClients.getDefaultCodecRegistry();
+                    case "getDocumentClass":
+                        return Document.class;
+                    default:
+                        throw new UnsupportedOperationException(method.toString());
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testUnorderedChunksBoundedAndMerged() {
+        Sink<Document> sink = new Sink<>();
+        Result<BulkWriteResult> result = new Result<>();
+        new ChunkedBulkWrite<>(ChunkedBulkWrite.split(inserts(10), 2, 0, null),
+                new BulkWriteOptions().ordered(false), 2, sink, result).start();
+        assertEquals("Should have two chunks in flight", 2, sink.pending.size());
+        sink.complete(0, BulkWriteResult.acknowledged(0, 1, 0, 1, Arrays.asList(new BulkWriteUpsert(1, new BsonInt32(5)))));
+        assertEquals(2, sink.pending.size());
+        while (!sink.pending.isEmpty()) {
+            sink.complete(0, BulkWriteResult.acknowledged(2, 0, 0, 0, Collections.<BulkWriteUpsert>emptyList()));
+        }
+        assertEquals(5, sink.sent.size());
+        assertNull(result.thrown);
+        assertEquals(8, result.result.getInsertedCount());
+        assertEquals(1, result.result.getMatchedCount());
+        assertEquals(1, result.result.getUpserts().size());
+    }
+
+    @Test
+    public void testUpsertIndicesOffset() {
+        BulkWriteResult a = BulkWriteResult.acknowledged(1, 0, 0, 0, Collections.<BulkWriteUpsert>emptyList());
+        BulkWriteResult b = BulkWriteResult.acknowledged(0, 0, 0, 0, Arrays.asList(new BulkWriteUpsert(1, new BsonInt32(9))));
+        BulkWriteResult merged = ChunkedBulkWrite.merge(new BulkWriteResult[]{a, b, null}, new int[]{0, 3, 6});
+        assertEquals(4, merged.getUpserts().get(0).getIndex());
+        assertEquals(1, merged.getInsertedCount());
+    }
+
+    @Test
+    public void testOrderedStopsAtFirstFailedChunk() {
+        Sink<Document> sink = new Sink<>();
+        Result<BulkWriteResult> result = new Result<>();
+        new ChunkedBulkWrite<>(ChunkedBulkWrite.split(inserts(6), 2, 0, null),
+                new BulkWriteOptions().ordered(true), 4, sink, result).start();
+        assertEquals("Ordered chunks must be sent one at a time", 1, sink.pending.size());
+        sink.complete(0, BulkWriteResult.acknowledged(2, 0, 0, 0, Collections.<BulkWriteUpsert>emptyList()));
+        assertEquals(1, sink.pending.size());
+        BulkWriteError err = new BulkWriteError(11000, "dup", new BsonDocument(), 1);
+        sink.fail(0, new MongoBulkWriteException(BulkWriteResult.acknowledged(1, 0, 0, 0, Collections.<BulkWriteUpsert>emptyList()),
+                Arrays.asList(err), null, new ServerAddress()));
+        assertEquals(2, sink.sent.size());
+        assertTrue(result.thrown instanceof MongoBulkWriteException);
+        MongoBulkWriteException ex = (MongoBulkWriteException) result.thrown;
+        assertEquals(3, ex.getWriteErrors().get(0).getIndex());
+        assertEquals(3, ex.getWriteResult().getInsertedCount());
+    }
+
+    private static List<WriteModel<? extends Document>> inserts(int count) {
+        List<WriteModel<? extends Document>> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(new InsertOneModel<>(new Document("ix", i)));
+        }
+        return result;
+    }
+}
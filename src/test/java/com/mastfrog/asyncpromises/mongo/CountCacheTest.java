@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mongodb.MongoExecutionTimeoutException;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks coalescing, caching and invalidation in CountCache.
+ *
+ * @author Tim Boudreau
+ */
+public class CountCacheTest {
+
+    private static final BsonDocument KEY = new BsonDocument("q", new BsonDocument("type", new BsonString("x")));
+
+    @Test
+    public void testConcurrentCountsCoalescedAndCached() {
+        CountCache cache = new CountCache(10, 1, TimeUnit.HOURS);
+        Result<Long> a = new Result<>();
+        Result<Long> b = new Result<>();
+        Trigger<Long> leader = cache.join(KEY, Priority.NORMAL, a);
+        assertNotNull(leader);
+        assertNull(cache.join(KEY, Priority.NORMAL, b));
+        leader.trigger(42L, null);
+        assertEquals(Long.valueOf(42), a.result);
+        assertEquals(Long.valueOf(42), b.result);
+        assertEquals(Long.valueOf(42), cache.get(KEY));
+    }
+
+    @Test
+    public void testWriteClearsAndDropsRacingCount() {
+        CountCache cache = new CountCache(10, 1, TimeUnit.HOURS);
+        cache.join(KEY, Priority.NORMAL, new Result<Long>()).trigger(1L, null);
+        Trigger<Long> racing = cache.join(KEY, Priority.NORMAL, new Result<Long>());
+        Result<Long> write = new Result<>();
+        Trigger<Long> writeDone = cache.invalidating(write);
+        assertNull(cache.get(KEY));
+        racing.trigger(1L, null);
+        assertNull("Count overlapping a write should not be cached", cache.get(KEY));
+        writeDone.trigger(0L, null);
+        assertEquals(Long.valueOf(0), write.result);
+        cache.join(KEY, Priority.NORMAL, new Result<Long>()).trigger(2L, null);
+        assertEquals(Long.valueOf(2), cache.get(KEY));
+    }
+
+    @Test
+    public void testCountsWithDeadlineOrOtherPriorityAreNotCoalesced() {
+        OperationTest.Fake fake = new OperationTest.Fake();
+        Operation<Bson, Long> op = new CollectionPromises<>(fake.collection())
+                .withCountCache(10, 1, TimeUnit.HOURS).count().countOperation();
+        Result<Long> plain = new Result<>();
+        Result<Long> joiner = new Result<>();
+        Result<Long> withDeadline = new Result<>();
+        Result<Long> batch = new Result<>();
+        op.start(new Document("type", "x"), plain);
+        op.start(new Document("type", "x"), joiner);
+        assertEquals(1, fake.counts.size());
+        PromiseContext deadlined = new PromiseContext();
+        deadlined.put(Deadline.KEY, Deadline.after(1, TimeUnit.HOURS));
+        op.start(new Document("type", "x"), deadlined, withDeadline);
+        assertEquals("A count with a deadline should make its own", 2, fake.counts.size());
+        PromiseContext lowPriority = new PromiseContext();
+        lowPriority.put(Priority.KEY, Priority.BATCH);
+        op.start(new Document("type", "x"), lowPriority, batch);
+        assertEquals("A count of another priority should make its own", 3, fake.counts.size());
+        fake.counts.get(1).onResult(null, new MongoExecutionTimeoutException(Deadline.MAX_TIME_MS_EXPIRED, "expired"));
+        assertTrue(withDeadline.thrown instanceof MongoExecutionTimeoutException);
+        assertFalse(plain.done());
+        fake.counts.get(0).onResult(3L, null);
+        assertEquals(Long.valueOf(3), plain.result);
+        assertEquals(Long.valueOf(3), joiner.result);
+        assertFalse(batch.done());
+        fake.counts.get(2).onResult(3L, null);
+        assertEquals(Long.valueOf(3), batch.result);
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        CountCache cache = new CountCache(10, 1, TimeUnit.MILLISECONDS);
+        cache.join(KEY, Priority.NORMAL, new Result<Long>()).trigger(1L, null);
+        Thread.sleep(5);
+        assertNull(cache.get(KEY));
+    }
+}
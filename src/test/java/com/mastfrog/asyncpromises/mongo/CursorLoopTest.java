@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.async.AsyncBatchCursor;
+import com.mongodb.async.SingleResultCallback;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Drives CursorLoop against a cursor whose batches are released by hand.
+ *
+ * @author Tim Boudreau
+ */
+public class CursorLoopTest {
+
+    @Test
+    public void testWithoutPrefetchFetchesOnlyAfterEachBatch() {
+        FakeCursor cursor = new FakeCursor(batch(1, 2), batch(3, 4), batch(5));
+        Recorder rec = new Recorder(cursor);
+        Done done = new Done();
+        new CursorLoop<>(cursor, rec, new PromiseContext(), 0, 1, done).start();
+        cursor.release();
+        cursor.release();
+        cursor.release();
+        cursor.release();
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), rec.all);
+        assertEquals("A fetch was outstanding while a batch was processed", Arrays.asList(0, 0, 0), rec.pendingWhileProcessing);
+        assertTrue(done.done);
+        assertNull(done.thrown);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testPrefetchOverlapsFetchWithProcessing() {
+        FakeCursor cursor = new FakeCursor(batch(1, 2), batch(3, 4), batch(5));
+        Recorder rec = new Recorder(cursor);
+        Done done = new Done();
+        new CursorLoop<>(cursor, rec, new PromiseContext(), 1, 1, done).start();
+        cursor.release();
+        cursor.release();
+        cursor.release();
+        cursor.release();
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), rec.all);
+        assertEquals(Arrays.asList(1, 1, 1), rec.pendingWhileProcessing);
+        assertTrue(done.done);
+        assertNull(done.thrown);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testStopClosesCursorAfterOutstandingFetch() {
+        FakeCursor cursor = new FakeCursor(batch(1, 2), batch(3, 4), batch(5));
+        Recorder rec = new Recorder(cursor);
+        rec.stopAfter = 1;
+        Done done = new Done();
+        new CursorLoop<>(cursor, rec, new PromiseContext(), 2, 1, done).start();
+        cursor.release();
+        assertFalse("Should not finish with a fetch in flight", done.done);
+        assertFalse(cursor.closed);
+        cursor.release();
+        assertEquals(Arrays.asList(1, 2), rec.all);
+        assertTrue(done.done);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testReceiverFailure() {
+        FakeCursor cursor = new FakeCursor(batch(1, 2), batch(3, 4));
+        Recorder rec = new Recorder(cursor);
+        rec.failOn = 1;
+        Done done = new Done();
+        new CursorLoop<>(cursor, rec, new PromiseContext(), 0, 1, done).start();
+        cursor.release();
+        assertTrue(done.done);
+        assertTrue(done.thrown instanceof IllegalStateException);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testDeferredAcknowledgementResumesCursor() {
+        FakeCursor cursor = new FakeCursor(batch(1), batch(2), batch(3), batch(4));
+        Deferred rec = new Deferred();
+        Done done = new Done();
+        new CursorLoop<>(cursor, rec, new PromiseContext(), 0, 2, done).start();
+        cursor.release();
+        cursor.release();
+        assertEquals(2, rec.held.size());
+        assertTrue("Should not fetch past two unacknowledged batches", cursor.pending.isEmpty());
+        rec.held.remove(0).trigger(true, null);
+        assertEquals(1, cursor.pending.size());
+        cursor.release();
+        assertEquals(2, rec.held.size());
+        assertTrue(cursor.pending.isEmpty());
+        rec.held.remove(0).trigger(true, null);
+        rec.held.remove(0).trigger(true, null);
+        cursor.release();
+        cursor.release();
+        assertFalse("Should wait for the last acknowledgement", done.done);
+        rec.held.remove(0).trigger(true, null);
+        assertEquals(Arrays.asList(1, 2, 3, 4), rec.all);
+        assertTrue(done.done);
+        assertNull(done.thrown);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testDeferredFailure() {
+        FakeCursor cursor = new FakeCursor(batch(1), batch(2));
+        Deferred rec = new Deferred();
+        Done done = new Done();
+        new CursorLoop<>(cursor, rec, new PromiseContext(), 0, 1, done).start();
+        cursor.release();
+        IllegalStateException ex = new IllegalStateException();
+        rec.held.remove(0).trigger(null, ex);
+        assertTrue(done.done);
+        assertTrue(done.thrown == ex);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testSynchronousReceiverWhichDoesNotAcknowledgeStops() {
+        FakeCursor cursor = new FakeCursor(batch(1), batch(2), batch(3));
+        final List<Integer> all = new ArrayList<>();
+        Done done = new Done();
+        new CursorLoop<>(cursor, new FindReceiver<List<Integer>>() {
+            @Override
+            public void withResults(List<Integer> obj, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+                all.addAll(obj);
+            }
+        }, new PromiseContext(), 0, 4, done).start();
+        cursor.release();
+        assertEquals(Arrays.asList(1), all);
+        assertTrue(done.done);
+        assertNull(done.thrown);
+        assertTrue(cursor.closed);
+    }
+
+    static List<Integer> batch(Integer... ints) {
+        return new ArrayList<>(Arrays.asList(ints));
+    }
+
+    static final class Done implements Trigger<Void> {
+
+        boolean done;
+        Throwable thrown;
+
+        @Override
+        public void trigger(Void obj, Throwable thrown) {
+            assertFalse("Called twice", done);
+            done = true;
+            this.thrown = thrown;
+        }
+    }
+
+    static final class Recorder implements FindReceiver<List<Integer>> {
+
+        final List<Integer> all = new ArrayList<>();
+        final List<Integer> pendingWhileProcessing = new ArrayList<>();
+        private final FakeCursor cursor;
+        int stopAfter = Integer.MAX_VALUE;
+        int failOn = Integer.MAX_VALUE;
+        int count;
+
+        Recorder(FakeCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void withResults(List<Integer> obj, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+            if (++count == failOn) {
+                throw new IllegalStateException("Fail");
+            }
+            all.addAll(obj);
+            pendingWhileProcessing.add(cursor.pending.size());
+            trigger.trigger(count < stopAfter, null);
+        }
+    }
+
+    static final class Deferred implements AsyncFindReceiver<List<Integer>> {
+
+        final List<Integer> all = new ArrayList<>();
+        final List<Trigger<Boolean>> held = new ArrayList<>();
+
+        @Override
+        public void withResults(List<Integer> obj, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+            all.addAll(obj);
+            held.add(trigger);
+        }
+    }
+
+    static final class FakeCursor implements AsyncBatchCursor<Integer> {
+
+        final LinkedList<List<Integer>> batches;
+        final LinkedList<SingleResultCallback<List<Integer>>> pending = new LinkedList<>();
+        boolean closed;
+        int batchSize;
+
+        @SafeVarargs
+        FakeCursor(List<Integer>... batches) {
+            this.batches = new LinkedList<>(Arrays.asList(batches));
+        }
+
+        void release() {
+            assertFalse("Nothing to release", pending.isEmpty());
+            pending.pop().onResult(batches.isEmpty() ? null : batches.pop(), null);
+        }
+
+        @Override
+        public void next(SingleResultCallback<List<Integer>> callback) {
+            assertFalse("Called after close", closed);
+            assertTrue("Concurrent next() calls", pending.isEmpty());
+            pending.add(callback);
+        }
+
+        @Override
+        public void tryNext(SingleResultCallback<List<Integer>> callback) {
+            next(callback);
+        }
+
+        @Override
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
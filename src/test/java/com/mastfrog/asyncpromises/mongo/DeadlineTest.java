@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks how a Deadline limits and guards operations.
+ *
+ * @author Tim Boudreau
+ */
+public class DeadlineTest {
+
+    @Test
+    public void testMaxTimeIsTheLesserOfConfiguredAndRemaining() {
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        assertEquals(500, deadline.maxTimeMillis(500));
+        long left = deadline.maxTimeMillis(0);
+        assertTrue(left > TimeUnit.MINUTES.toMillis(59) && left <= TimeUnit.HOURS.toMillis(1));
+        assertEquals("Never zero, which means no limit", 1, Deadline.after(-5, TimeUnit.SECONDS).maxTimeMillis(0));
+    }
+
+    @Test
+    public void testExpiredDeadlineFailsWithoutCalling() {
+        final boolean[] called = new boolean[1];
+        Limiter.Call<String> call = new Limiter.Call<String>() {
+            @Override
+            public void call(SingleResultCallback<String> callback) {
+                called[0] = true;
+                callback.onResult("x", null);
+            }
+        };
+        final Throwable[] thrown = new Throwable[1];
+        SingleResultCallback<String> cb = new SingleResultCallback<String>() {
+            @Override
+            public void onResult(String result, Throwable t) {
+                thrown[0] = t;
+            }
+        };
+        assertSame(call, Deadline.guard(null, call));
+        Deadline.guard(Deadline.after(-1, TimeUnit.MILLISECONDS), call).call(cb);
+        assertFalse(called[0]);
+        assertTrue(thrown[0] instanceof MongoExecutionTimeoutException);
+        assertEquals(Deadline.MAX_TIME_MS_EXPIRED, ((MongoExecutionTimeoutException) thrown[0]).getCode());
+        Deadline.guard(Deadline.after(1, TimeUnit.HOURS), call).call(cb);
+        assertTrue(called[0]);
+    }
+
+    @Test
+    public void testOptionsAreCopiedNotModified() {
+        CountOptions count = new CountOptions().limit(10).skip(2).hintString("ix").maxTime(5, TimeUnit.HOURS);
+        assertSame(count, Deadline.limit(null, count));
+        CountOptions limited = Deadline.limit(Deadline.after(1, TimeUnit.SECONDS), count);
+        assertEquals(TimeUnit.HOURS.toMillis(5), count.getMaxTime(TimeUnit.MILLISECONDS));
+        assertTrue(limited.getMaxTime(TimeUnit.MILLISECONDS) <= 1000);
+        assertEquals(10, limited.getLimit());
+        assertEquals(2, limited.getSkip());
+        assertEquals("ix", limited.getHintString());
+
+        FindOneAndUpdateOptions fou = new FindOneAndUpdateOptions().upsert(true)
+                .returnDocument(ReturnDocument.AFTER).sort(new Document("a", 1));
+        FindOneAndUpdateOptions limitedFou = Deadline.limit(Deadline.after(1, TimeUnit.SECONDS), fou);
+        assertEquals(0, fou.getMaxTime(TimeUnit.MILLISECONDS));
+        assertTrue(limitedFou.getMaxTime(TimeUnit.MILLISECONDS) > 0);
+        assertTrue(limitedFou.isUpsert());
+        assertEquals(ReturnDocument.AFTER, limitedFou.getReturnDocument());
+        assertEquals(new Document("a", 1), limitedFou.getSort());
+    }
+
+    @Test
+    public void testEarlier() {
+        Deadline a = Deadline.after(1, TimeUnit.SECONDS);
+        Deadline b = Deadline.after(1, TimeUnit.HOURS);
+        assertSame(a, a.earlier(b));
+        assertSame(a, b.earlier(a));
+        assertSame(a, a.earlier(null));
+        assertTrue(Deadline.after(0, TimeUnit.SECONDS).isExpired());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mongodb.async.client.MongoClients;
+import java.util.Arrays;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks size measurement and estimation against real encoding.
+ *
+ * @author Tim Boudreau
+ */
+public class EncodedSizeTest {
+
+    private final Encoder<Document> encoder = MongoClients.getDefaultCodecRegistry().get(Document.class);
+
+    @Test
+    public void testSizeMatchesEncoding() {
+        Document doc = new Document("name", "J\u00fcrgen").append("n", 23)
+                .append("nested", new Document("list", Arrays.asList(1, "two", 3.0)));
+        long size = encoded(doc);
+        assertEquals(size, EncodedSize.of(doc, encoder));
+        RawBsonDocument raw = RawBsonDocument.parse(doc.toJson());
+        assertEquals(size, EncodedSize.of(raw, MongoClients.getDefaultCodecRegistry().get(RawBsonDocument.class)));
+    }
+
+    @Test
+    public void testSamplerMeasuresOnlySomeDocuments() {
+        final int[] encoded = new int[1];
+        EncodedSize.Sampler<Document> sampler = new EncodedSize.Sampler<>(new Encoder<Document>() {
+            @Override
+            public void encode(BsonWriter writer, Document value, EncoderContext ctx) {
+                encoded[0]++;
+                encoder.encode(writer, value, ctx);
+            }
+
+            @Override
+            public Class<Document> getEncoderClass() {
+                return Document.class;
+            }
+        });
+        Document small = new Document("x", 1);
+        for (int i = 0; i < EncodedSize.Sampler.INTERVAL; i++) {
+            assertEquals(encoded(small), sampler.estimate(small));
+        }
+        for (int i = 0; i < EncodedSize.Sampler.INTERVAL * 3; i++) {
+            sampler.estimate(small);
+        }
+        assertEquals(EncodedSize.Sampler.INTERVAL + 3, encoded[0]);
+    }
+
+    private long encoded(Document doc) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            encoder.encode(writer, doc, EncoderContext.builder().build());
+        }
+        return buffer.getSize();
+    }
+}
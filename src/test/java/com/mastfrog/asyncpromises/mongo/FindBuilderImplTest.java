@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mastfrog.asyncpromises.mongo.CursorLoopTest.FakeCursor;
+import static com.mastfrog.asyncpromises.mongo.CursorLoopTest.batch;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import org.bson.conversions.Bson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks the per-document forEach(), reduce() and fold() of FindBuilder
+ * against cursors whose batches are released by hand.
+ *
+ * @author Tim Boudreau
+ */
+public class FindBuilderImplTest {
+
+    private static final BiFunction<Integer, Integer, Integer> SUM = new BiFunction<Integer, Integer, Integer>() {
+        @Override
+        public Integer apply(Integer total, Integer item) {
+            return total + item;
+        }
+    };
+
+    @Test
+    public void testForEachPassesEveryDocument() {
+        FakeCursor cursor = new FakeCursor(batch(1, 2), batch(3));
+        Receiver receiver = new Receiver();
+        Result<Void> done = new Result<>();
+        new CollectionPromises<>(FindPublisherImplTest.collection(cursor)).find().forEach(receiver).start(null, done);
+        cursor.release();
+        cursor.release();
+        assertFalse(done.done());
+        cursor.release();
+        assertEquals(Arrays.asList(1, 2, 3), receiver.all);
+        assertTrue(done.done());
+        assertNull(done.thrown);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testForEachStopsWhenReceiverReturnsFalse() {
+        FakeCursor cursor = new FakeCursor(batch(1, 2, 3), batch(4));
+        Receiver receiver = new Receiver();
+        receiver.stopAt = 2;
+        Result<Void> done = new Result<>();
+        new CollectionPromises<>(FindPublisherImplTest.collection(cursor)).find().forEach(receiver).start(null, done);
+        cursor.release();
+        assertEquals("Nothing after the declined document", Arrays.asList(1, 2), receiver.all);
+        assertTrue(done.done());
+        assertNull(done.thrown);
+        assertTrue("No more batches should be fetched", cursor.pending.isEmpty());
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testForEachReceiverFailureFailsFind() {
+        FakeCursor cursor = new FakeCursor(batch(1, 2, 3), batch(4));
+        Receiver receiver = new Receiver();
+        receiver.failAt = 2;
+        Result<Void> done = new Result<>();
+        new CollectionPromises<>(FindPublisherImplTest.collection(cursor)).find().forEach(receiver)
+                .onFailure(done).start(null, done);
+        cursor.release();
+        assertEquals(Arrays.asList(1), receiver.all);
+        assertTrue(done.thrown instanceof IllegalStateException);
+        assertTrue(cursor.pending.isEmpty());
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testReduceStartsEachExecutionFromIdentity() {
+        FakeCursor first = new FakeCursor(batch(1, 2), batch(3));
+        FakeCursor second = new FakeCursor(batch(4));
+        AsyncPromise<Bson, Integer> reduce = new CollectionPromises<>(FindPublisherImplTest.collection(first, second))
+                .find().reduce(10, SUM);
+        Result<Integer> a = new Result<>();
+        reduce.start(null, a);
+        first.release();
+        first.release();
+        first.release();
+        assertEquals(Integer.valueOf(16), a.result);
+        Result<Integer> b = new Result<>();
+        reduce.start(null, b);
+        second.release();
+        second.release();
+        assertEquals(Integer.valueOf(14), b.result);
+        assertTrue(second.closed);
+    }
+
+    @Test
+    public void testReduceOfNoDocumentsIsIdentity() {
+        FakeCursor cursor = new FakeCursor();
+        Integer identity = 1234;
+        Result<Integer> result = new Result<>();
+        new CollectionPromises<>(FindPublisherImplTest.collection(cursor)).find().reduce(identity, SUM).start(null, result);
+        cursor.release();
+        assertNull(result.thrown);
+        assertSame(identity, result.result);
+    }
+
+    @Test
+    public void testReduceAccumulatorFailureFailsFind() {
+        FakeCursor cursor = new FakeCursor(batch(1, 2), batch(3));
+        Result<Integer> result = new Result<>();
+        new CollectionPromises<>(FindPublisherImplTest.collection(cursor)).find().reduce(0, new BiFunction<Integer, Integer, Integer>() {
+            @Override
+            public Integer apply(Integer total, Integer item) {
+                throw new IllegalStateException("Failed on " + item);
+            }
+        }).onFailure(result).start(null, result);
+        cursor.release();
+        assertNull(result.result);
+        assertTrue(result.thrown instanceof IllegalStateException);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testFoldStartsEachExecutionFromANewValue() {
+        FakeCursor first = new FakeCursor(batch(1, 2), batch(3));
+        FakeCursor second = new FakeCursor(batch(4));
+        CollectionPromises<Integer> promises = new CollectionPromises<>(FindPublisherImplTest.collection(first, second));
+        AsyncPromise<Bson, List<Integer>> fold = promises.find().fold(new Supplier<List<Integer>>() {
+            @Override
+            public List<Integer> get() {
+                return new ArrayList<>();
+            }
+        }, new BiFunction<List<Integer>, Integer, List<Integer>>() {
+            @Override
+            public List<Integer> apply(List<Integer> list, Integer item) {
+                list.add(item);
+                return list;
+            }
+        });
+        final List<List<Integer>> results = new ArrayList<>();
+        Trigger<List<Integer>> collect = new Trigger<List<Integer>>() {
+            @Override
+            public void trigger(List<Integer> obj, Throwable thrown) {
+                assertNull(thrown);
+                results.add(obj);
+            }
+        };
+        fold.start(null, collect);
+        first.release();
+        first.release();
+        first.release();
+        fold.start(null, collect);
+        second.release();
+        second.release();
+        assertEquals(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(4)), results);
+    }
+
+    static final class Receiver implements DocumentReceiver<Integer> {
+
+        final List<Integer> all = new ArrayList<>();
+        int stopAt = Integer.MAX_VALUE;
+        int failAt = Integer.MAX_VALUE;
+
+        @Override
+        public boolean withDocument(Integer document, PromiseContext context) throws Exception {
+            if (document == failAt) {
+                throw new IllegalStateException("Failed on " + document);
+            }
+            all.add(document);
+            return document != stopAt;
+        }
+    }
+}
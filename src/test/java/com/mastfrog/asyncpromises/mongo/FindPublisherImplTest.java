@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.mongo.CursorLoopTest.FakeCursor;
+import com.mongodb.async.AsyncBatchCursor;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoCollection;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Drives a FindPublisher against a cursor whose batches are released by
+ * hand.
+ *
+ * @author Tim Boudreau
+ */
+public class FindPublisherImplTest {
+
+    @Test
+    public void testReadAheadSettingsDoNotOverrunDemand() {
+        FakeCursor cursor = new FakeCursor(CursorLoopTest.batch(1, 2), CursorLoopTest.batch(3, 4), CursorLoopTest.batch(5));
+        CollectionPromises<Integer> promises = new CollectionPromises<>(collection(cursor));
+        FindPublisher<Integer> publisher = promises.find().prefetch(1).maxUnacknowledgedBatches(2).publisher();
+        Subscriber subscriber = new Subscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        cursor.release();
+        assertEquals(Arrays.asList(1), subscriber.items);
+        assertTrue("Fetched ahead of demand", cursor.pending.isEmpty());
+        subscriber.subscription.request(10);
+        assertEquals(Arrays.asList(1, 2), subscriber.items);
+        cursor.release();
+        assertEquals(Arrays.asList(1, 2, 3, 4), subscriber.items);
+        cursor.release();
+        cursor.release();
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), subscriber.items);
+        assertTrue(subscriber.complete);
+        assertNull(subscriber.thrown);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void testNoFetchUntilMoreIsRequested() {
+        FakeCursor cursor = new FakeCursor(CursorLoopTest.batch(1, 2), CursorLoopTest.batch(3, 4));
+        CollectionPromises<Integer> promises = new CollectionPromises<>(collection(cursor));
+        Subscriber subscriber = new Subscriber();
+        promises.find().publisher().subscribe(subscriber);
+        subscriber.subscription.request(2);
+        cursor.release();
+        assertEquals(Arrays.asList(1, 2), subscriber.items);
+        assertTrue("Fetched with no demand", cursor.pending.isEmpty());
+        subscriber.subscription.request(3);
+        assertEquals(1, cursor.pending.size());
+        assertEquals("Next fetch should be sized to demand", 3, cursor.batchSize);
+        cursor.release();
+        assertEquals(Arrays.asList(1, 2, 3, 4), subscriber.items);
+        assertFalse(subscriber.complete);
+        cursor.release();
+        assertTrue(subscriber.complete);
+        assertNull(subscriber.thrown);
+    }
+
+    @SuppressWarnings("unchecked")
+    static MongoCollection<Integer> collection(FakeCursor... cursors) {
+        final LinkedList<FakeCursor> remaining = new LinkedList<>(Arrays.asList(cursors));
+        final FindIterable<Integer> find = (FindIterable<Integer>) Proxy.newProxyInstance(FindPublisherImplTest.class.getClassLoader(),
+                new Class<?>[]{FindIterable.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("batchCursor".equals(method.getName())) {
+                    ((SingleResultCallback<AsyncBatchCursor<Integer>>) args[0]).onResult(remaining.pop(), null);
+                    return null;
+                }
+                if (method.getReturnType().isInstance(proxy)) {
+                    return proxy;
+                }
+                throw new UnsupportedOperationException(method.toString());
+            }
+        });
+        return (MongoCollection<Integer>) Proxy.newProxyInstance(FindPublisherImplTest.class.getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("find".equals(method.getName())) {
+                    return find;
+                }
+                throw new UnsupportedOperationException(method.toString());
+            }
+        });
+    }
+
+    static final class Subscriber implements FindPublisher.Subscriber<Integer> {
+
+        final List<Integer> items = new ArrayList<>();
+        FindPublisher.Subscription subscription;
+        boolean complete;
+        Throwable thrown;
+
+        @Override
+        public void onSubscribe(FindPublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            assertFalse("Item after completion", complete);
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable thrown) {
+            this.thrown = thrown;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks which bulk write requests FusedBulkWrite combines.
+ *
+ * @author Tim Boudreau
+ */
+public class FusedBulkWriteTest {
+
+    private static final Document DONE = new Document("$set", new Document("status", "DONE"));
+
+    @Test
+    public void testUnorderedFusesAcrossTheWrite() {
+        List<WriteModel<? extends Document>> reqs = new ArrayList<>();
+        reqs.add(update(1, DONE));
+        reqs.add(new DeleteOneModel<Document>(new Document("_id", 10)));
+        reqs.add(update(2, DONE));
+        reqs.add(new InsertOneModel<>(new Document("_id", 20)));
+        reqs.add(update(3, new Document("$set", new Document("status", "FAILED"))));
+        reqs.add(new DeleteOneModel<Document>(new Document("_id", new Document("$eq", 11))));
+        reqs.add(update(4, DONE));
+        FusedBulkWrite<Document> fused = fuse(reqs, false, 100);
+        List<WriteModel<? extends Document>> out = fused.requests();
+        assertEquals(4, out.size());
+        assertTrue(out.get(0) instanceof UpdateManyModel<?>);
+        assertEquals(BsonDocument.parse("{_id: {$in: [{$numberLong: '1'}, {$numberLong: '2'}, {$numberLong: '4'}]}}"), bson(((UpdateManyModel<?>) out.get(0)).getFilter()));
+        assertEquals(BsonDocument.parse("{$set: {status: 'DONE'}}"), bson(((UpdateManyModel<?>) out.get(0)).getUpdate()));
+        assertTrue(out.get(1) instanceof DeleteManyModel<?>);
+        assertEquals(BsonDocument.parse("{_id: {$in: [{$numberLong: '10'}, {$numberLong: '11'}]}}"), bson(((DeleteManyModel<?>) out.get(1)).getFilter()));
+        assertSame(reqs.get(3), out.get(2));
+        assertSame("A lone update is left as it was", reqs.get(4), out.get(3));
+    }
+
+    @Test
+    public void testOrderedFusesOnlyAdjacentRequests() {
+        List<WriteModel<? extends Document>> reqs = new ArrayList<>();
+        reqs.add(update(1, DONE));
+        reqs.add(update(2, DONE));
+        reqs.add(new InsertOneModel<>(new Document("_id", 20)));
+        reqs.add(update(3, DONE));
+        List<WriteModel<? extends Document>> out = fuse(reqs, true, 100).requests();
+        assertEquals(3, out.size());
+        assertTrue(out.get(0) instanceof UpdateManyModel<?>);
+        assertSame(reqs.get(2), out.get(1));
+        assertSame(reqs.get(3), out.get(2));
+    }
+
+    @Test
+    public void testLimitsAndDuplicatesStartNewGroups() {
+        List<WriteModel<? extends Document>> reqs = new ArrayList<>();
+        Document inc = new Document("$inc", new Document("n", 1));
+        reqs.add(update(1, inc));
+        reqs.add(update(2, inc));
+        reqs.add(update(1, inc));
+        reqs.add(update(3, inc));
+        reqs.add(update(4, inc));
+        List<WriteModel<? extends Document>> out = fuse(reqs, false, 2).requests();
+        assertEquals(3, out.size());
+        assertEquals(BsonDocument.parse("{_id: {$in: [{$numberLong: '1'}, {$numberLong: '2'}]}}"), bson(((UpdateManyModel<?>) out.get(0)).getFilter()));
+        assertEquals(BsonDocument.parse("{_id: {$in: [{$numberLong: '1'}, {$numberLong: '3'}]}}"), bson(((UpdateManyModel<?>) out.get(1)).getFilter()));
+        assertSame(reqs.get(4), out.get(2));
+    }
+
+    @Test
+    public void testUpsertsAndOtherFiltersAreNotFused() {
+        List<WriteModel<? extends Document>> reqs = new ArrayList<>();
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", 1), DONE, new UpdateOptions().upsert(true)));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", 2), DONE, new UpdateOptions().upsert(true)));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", 3).append("status", "NEW"), DONE));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", 4).append("status", "NEW"), DONE));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", new Document("$gt", 5)), DONE));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", new Document("$gt", 5)), DONE));
+        assertEquals(reqs, fuse(reqs, false, 100).requests());
+    }
+
+    @Test
+    public void testPatternAndOperatorIdsAreNotFused() {
+        List<WriteModel<? extends Document>> reqs = new ArrayList<>();
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", Pattern.compile("^a")), DONE));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", Pattern.compile("^b")), DONE));
+        reqs.add(new DeleteOneModel<Document>(new Document("_id", new Document("$eq", Pattern.compile("^a")))));
+        reqs.add(new DeleteOneModel<Document>(new Document("_id", Pattern.compile("^b"))));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", Arrays.asList(1, 2)), DONE));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", Arrays.asList(3, 4)), DONE));
+        reqs.add(new DeleteOneModel<Document>(new Document("_id", new Document("$eq", new Document("$gt", 1)))));
+        reqs.add(new DeleteOneModel<Document>(new Document("_id", new Document("a", 1).append("$gt", 1))));
+        assertEquals(reqs, fuse(reqs, false, 100).requests());
+    }
+
+    @Test
+    public void testIndicesAreMappedBack() {
+        List<WriteModel<? extends Document>> reqs = new ArrayList<>();
+        reqs.add(new InsertOneModel<>(new Document("_id", 20)));
+        reqs.add(update(1, DONE));
+        reqs.add(update(2, DONE));
+        reqs.add(new UpdateOneModel<Document>(new Document("_id", 9), DONE, new UpdateOptions().upsert(true)));
+        reqs.add(update(3, DONE));
+        FusedBulkWrite<Document> fused = fuse(reqs, false, 100);
+        assertEquals(3, fused.requests().size());
+        final Object[] got = new Object[2];
+        Trigger<BulkWriteResult> trigger = fused.remapping(new Trigger<BulkWriteResult>() {
+            @Override
+            public void trigger(BulkWriteResult obj, Throwable thrown) {
+                got[0] = obj;
+                got[1] = thrown;
+            }
+        });
+        BulkWriteResult partial = BulkWriteResult.acknowledged(1, 0, 0, 0, Arrays.asList(new BulkWriteUpsert(2, new org.bson.BsonInt32(9))));
+        trigger.trigger(null, new MongoBulkWriteException(partial,
+                Arrays.asList(new BulkWriteError(121, "Validation", new BsonDocument(), 1)), null, new ServerAddress()));
+        MongoBulkWriteException ex = (MongoBulkWriteException) got[1];
+        assertEquals(1, ex.getWriteErrors().get(0).getIndex());
+        assertEquals(3, ex.getWriteResult().getUpserts().get(0).getIndex());
+        trigger.trigger(BulkWriteResult.acknowledged(1, 3, 0, 3, Collections.<BulkWriteUpsert>emptyList()), null);
+        assertEquals(3, ((BulkWriteResult) got[0]).getMatchedCount());
+    }
+
+    @Test
+    public void testErrorInFusedOperationIsReportedForEachRequest() {
+        List<WriteModel<? extends Document>> reqs = new ArrayList<>();
+        reqs.add(update(1, DONE));
+        reqs.add(new InsertOneModel<>(new Document("_id", 20)));
+        reqs.add(update(2, DONE));
+        reqs.add(new InsertOneModel<>(new Document("_id", 21)));
+        reqs.add(update(3, DONE));
+        FusedBulkWrite<Document> fused = fuse(reqs, false, 100);
+        assertEquals(3, fused.requests().size());
+        final Object[] got = new Object[2];
+        Trigger<BulkWriteResult> trigger = fused.remapping(new Trigger<BulkWriteResult>() {
+            @Override
+            public void trigger(BulkWriteResult obj, Throwable thrown) {
+                got[0] = obj;
+                got[1] = thrown;
+            }
+        });
+        // Validation fails part way through the updateMany, and the second
+        // insert is a duplicate
+        BulkWriteResult partial = BulkWriteResult.acknowledged(1, 1, 0, 1, Collections.<BulkWriteUpsert>emptyList());
+        trigger.trigger(null, new MongoBulkWriteException(partial,
+                Arrays.asList(new BulkWriteError(121, "Validation", new BsonDocument(), 0),
+                        new BulkWriteError(11000, "Duplicate", new BsonDocument(), 2)), null, new ServerAddress()));
+        MongoBulkWriteException ex = (MongoBulkWriteException) got[1];
+        List<Integer> indices = new ArrayList<>();
+        for (BulkWriteError err : ex.getWriteErrors()) {
+            indices.add(err.getIndex());
+        }
+        assertEquals("Every fused request may have been left unapplied", Arrays.asList(0, 2, 3, 4), indices);
+        assertEquals(11000, ex.getWriteErrors().get(2).getCode());
+        assertEquals(121, ex.getWriteErrors().get(3).getCode());
+    }
+
+    private static UpdateOneModel<Document> update(int id, Document modification) {
+        return new UpdateOneModel<>(new Document("_id", id), modification);
+    }
+
+    private static FusedBulkWrite<Document> fuse(List<WriteModel<? extends Document>> reqs, boolean ordered, int maxIds) {
+        return FusedBulkWrite.fuse(reqs, ordered, maxIds, Document.class, MongoClients.getDefaultCodecRegistry());
+    }
+
+    private static BsonDocument bson(Bson bson) {
+        return bson.toBsonDocument(Document.class, MongoClients.getDefaultCodecRegistry());
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mongodb.ReadPreference;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks hedging and the latency percentiles it relies on.
+ *
+ * @author Tim Boudreau
+ */
+public class HedgedReadTest {
+
+    private static final long LONG = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void testFastFirstReadIsNotHedged() {
+        Reads reads = new Reads();
+        Result<String> result = new Result<>();
+        new HedgedRead<>(reads, new LatencyTracker(16), 95, LONG, result).start();
+        assertEquals(1, reads.pending.size());
+        reads.pending.remove(0).onResult("a", null);
+        assertEquals("a", result.result);
+        assertEquals(1, result.calls);
+        assertEquals("[false]", reads.hedges.toString());
+    }
+
+    @Test
+    public void testSlowFirstReadIsHedgedAndFirstAnswerWins() throws Exception {
+        Reads reads = new Reads();
+        reads.hedged = new CountDownLatch(1);
+        Result<String> result = new Result<>();
+        new HedgedRead<>(reads, new LatencyTracker(16), 95, TimeUnit.MILLISECONDS.toNanos(5), result).start();
+        assertTrue("Not hedged", reads.hedged.await(10, TimeUnit.SECONDS));
+        assertEquals("[false, true]", reads.hedges.toString());
+        reads.pending.get(1).onResult("secondary", null);
+        reads.pending.get(0).onResult("primary", null);
+        assertEquals("secondary", result.result);
+        assertEquals("The loser should be ignored", 1, result.calls);
+    }
+
+    @Test
+    public void testFailedFirstReadHedgesImmediately() {
+        Reads reads = new Reads();
+        Result<String> result = new Result<>();
+        new HedgedRead<>(reads, new LatencyTracker(16), 95, LONG, result).start();
+        reads.pending.get(0).onResult(null, new IllegalStateException());
+        assertEquals("[false, true]", reads.hedges.toString());
+        assertFalse(result.done());
+        reads.pending.get(1).onResult("b", null);
+        assertEquals("b", result.result);
+        assertNull(result.thrown);
+    }
+
+    @Test
+    public void testBothFailReportsFirstFailure() {
+        Reads reads = new Reads();
+        Result<String> result = new Result<>();
+        new HedgedRead<>(reads, new LatencyTracker(16), 95, LONG, result).start();
+        IllegalStateException first = new IllegalStateException();
+        reads.pending.get(0).onResult(null, first);
+        reads.pending.get(1).onResult(null, new IllegalArgumentException());
+        assertSame(first, result.thrown);
+        assertEquals(1, result.calls);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        for (int i = 1; i < LatencyTracker.MIN_SAMPLES; i++) {
+            tracker.record(i);
+        }
+        assertEquals("Too few samples", 42, tracker.percentileNanos(50, 42));
+        for (int i = LatencyTracker.MIN_SAMPLES; i <= 100; i++) {
+            tracker.record(i);
+        }
+        assertEquals(50, tracker.percentileNanos(50, 42));
+        assertEquals(95, tracker.percentileNanos(95, 42));
+        assertEquals(100, tracker.percentileNanos(100, 42));
+        for (int i = 0; i < 100; i++) {
+            tracker.record(1000);
+        }
+        assertEquals("Old samples should be overwritten", 1000, tracker.percentileNanos(50, 42));
+    }
+
+    @Test
+    public void testHedgedReadDoesNotFillIdCache() {
+        final AtomicInteger finds = new AtomicInteger();
+        CollectionPromises<Document> promises = new CollectionPromises<>(collection(finds))
+                .withIdCache(10, 1, TimeUnit.HOURS);
+        Result<Document> found = new Result<>();
+        promises.find().hedged(95, 1, TimeUnit.MINUTES).findOne().start(new Document("_id", 1), found);
+        assertEquals(1, finds.get());
+        assertNull(found.thrown);
+        assertEquals(1, found.result.get("_id"));
+        promises.find().findOne().start(new Document("_id", 1), found);
+        assertEquals("A hedged read should not be cached", 2, finds.get());
+        promises.find().findOne().start(new Document("_id", 1), found);
+        assertEquals("A primary read should be cached", 2, finds.get());
+        promises.find().hedged(95, 1, TimeUnit.MINUTES).findOne().start(new Document("_id", 1), found);
+        assertEquals("Hedged reads may still be served from the cache", 2, finds.get());
+    }
+
+    @Test
+    public void testSecondaryReadDoesNotFillIdCache() {
+        final AtomicInteger finds = new AtomicInteger();
+        CollectionPromises<Document> promises = new CollectionPromises<>(collection(finds))
+                .withIdCache(10, 1, TimeUnit.HOURS);
+        CollectionPromises<Document> secondary = promises.withReadPreference(ReadPreference.secondaryPreferred());
+        Result<Document> found = new Result<>();
+        secondary.find().findOne().start(new Document("_id", 1), found);
+        assertEquals(1, found.result.get("_id"));
+        promises.find().findOne().start(new Document("_id", 1), new Result<Document>());
+        assertEquals("A secondary read should not be cached", 2, finds.get());
+        secondary.find().findOne().start(new Document("_id", 1), new Result<Document>());
+        assertEquals("Secondary reads may still be served from the cache", 2, finds.get());
+    }
+
+    private static MongoCollection<Document> collection(final AtomicInteger finds) {
+        return collection(finds, ReadPreference.primary());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCollection<Document> collection(final AtomicInteger finds, final ReadPreference pref) {
+        final FindIterable<Document> find = (FindIterable<Document>) Proxy.newProxyInstance(HedgedReadTest.class.getClassLoader(),
+                new Class<?>[]{FindIterable.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("first".equals(method.getName())) {
+                    finds.incrementAndGet();
+                    ((SingleResultCallback<Document>) args[0]).onResult(new Document("_id", 1), null);
+                    return null;
+                }
+                if (method.getReturnType().isInstance(proxy)) {
+                    return proxy;
+                }
+                throw new UnsupportedOperationException(method.toString());
+            }
+        });
+        return (MongoCollection<Document>) Proxy.newProxyInstance(HedgedReadTest.class.getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "find":
+                        return find;
+                    case "withReadPreference":
+                        return collection(finds, (ReadPreference) args[0]);
+                    case "getReadPreference":
+                        return pref;
+                    case "getCodecRegistry":
+                        return MongoClients.getDefaultCodecRegistry();
+                    case "getDocumentClass":
+                        return Document.class;
+                    default:
+                        throw new UnsupportedOperationException(method.toString());
+                }
+            }
+        });
+    }
+
+    static final class Reads implements HedgedRead.Reader<String> {
+
+        final List<SingleResultCallback<String>> pending = new ArrayList<>();
+        final List<Boolean> hedges = new ArrayList<>();
+        CountDownLatch hedged;
+
+        @Override
+        public synchronized void read(boolean hedge, SingleResultCallback<String> callback) {
+            hedges.add(hedge);
+            pending.add(callback);
+            if (hedge && hedged != null) {
+                hedged.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Checks eviction, expiry and invalidation in IdCache.
+ *
+ * @author Tim Boudreau
+ */
+public class IdCacheTest {
+
+    @Test
+    public void testIdOf() {
+        assertEquals(new BsonString("a"), IdCache.idOf(new BsonDocument("_id", new BsonString("a"))));
+        assertEquals(new BsonInt64(3), IdCache.idOf(new BsonDocument("_id", new BsonDocument("$eq", new BsonInt32(3)))));
+        assertNull(IdCache.idOf(new BsonDocument("_id", new BsonDocument("$in", new BsonString("a")))));
+        assertNull(IdCache.idOf(new BsonDocument("_id", new BsonString("a")).append("x", new BsonInt32(1))));
+        assertNull(IdCache.idOf(new BsonDocument("name", new BsonString("a"))));
+        assertNull(IdCache.idOf(new BsonDocument("_id", new BsonRegularExpression("^a"))));
+        assertNull(IdCache.idOf(new BsonDocument("_id", new BsonDocument("$eq", new BsonRegularExpression("^a")))));
+        assertNull(IdCache.idOf(new BsonDocument("_id", new BsonArray())));
+        assertNull(IdCache.idOf(new BsonDocument("_id", new BsonDocument("a", new BsonInt32(1)).append("$gt", new BsonInt32(1)))));
+        assertEquals(new BsonDocument("a", new BsonInt32(1)), IdCache.idOf(new BsonDocument("_id", new BsonDocument("a", new BsonInt32(1)))));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        IdCache<String> cache = new IdCache<>(2, 1, TimeUnit.HOURS);
+        fill(cache, id(1), "one");
+        fill(cache, id(2), "two");
+        assertEquals("one", cache.get(id(1)));
+        fill(cache, id(3), "three");
+        assertEquals(2, cache.size());
+        assertNull(cache.get(id(2)));
+        assertEquals("one", cache.get(id(1)));
+        assertEquals("three", cache.get(id(3)));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        IdCache<String> cache = new IdCache<>(2, 1, TimeUnit.MILLISECONDS);
+        fill(cache, id(1), "one");
+        Thread.sleep(5);
+        assertNull(cache.get(id(1)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFillRacingInvalidationIsDropped() {
+        IdCache<String> cache = new IdCache<>(10, 1, TimeUnit.HOURS);
+        Trigger<String> read = cache.filling(id(1), new Ignore());
+        cache.invalidate(id(1));
+        read.trigger("stale", null);
+        assertNull(cache.get(id(1)));
+        fill(cache, id(1), "fresh");
+        assertEquals("fresh", cache.get(id(1)));
+        cache.clear();
+        assertNull(cache.get(id(1)));
+    }
+
+    private static BsonValue id(int id) {
+        return new BsonInt64(id);
+    }
+
+    private static void fill(IdCache<String> cache, BsonValue id, String value) {
+        cache.filling(id, new Ignore()).trigger(value, null);
+    }
+
+    static final class Ignore implements Trigger<String> {
+
+        @Override
+        public void trigger(String obj, Throwable thrown) {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.AsyncPromise;
+import com.mastfrog.asyncpromises.Logic;
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mastfrog.asyncpromises.mongo.LimiterTest.Calls;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks the priority and deadline IdLoader sends a batch with.
+ *
+ * @author Tim Boudreau
+ */
+public class IdLoaderImplTest {
+
+    @Test
+    public void testBatchIsBoundedByLatestDeadline() {
+        Finds finds = new Finds();
+        IdLoader<Document> loader = new IdLoaderImpl<>(finds.collection(), null, Priority.NORMAL, 1, TimeUnit.HOURS, 2);
+        load(loader, 1, Deadline.after(1, TimeUnit.MINUTES), null, new Result<Document>());
+        load(loader, 2, Deadline.after(1, TimeUnit.HOURS), null, new Result<Document>());
+        assertEquals(1, finds.pending.size());
+        assertEquals(1, finds.maxTimes.size());
+        assertTrue("Should not be bounded by the earlier deadline: " + finds.maxTimes,
+                finds.maxTimes.get(0) > TimeUnit.MINUTES.toMillis(30));
+    }
+
+    @Test
+    public void testCallerWithoutDeadlineUnboundsBatch() {
+        Finds finds = new Finds();
+        IdLoader<Document> loader = new IdLoaderImpl<>(finds.collection(), null, Priority.NORMAL, 1, TimeUnit.HOURS, 2);
+        load(loader, 1, Deadline.after(1, TimeUnit.MINUTES), null, new Result<Document>());
+        load(loader, 2, null, null, new Result<Document>());
+        assertEquals(1, finds.pending.size());
+        assertTrue(finds.maxTimes.isEmpty());
+    }
+
+    @Test
+    public void testBatchHasHighestPriorityOfItsCallers() {
+        Limiter limiter = new Limiter(1, 10, 0, TimeUnit.SECONDS);
+        Calls calls = new Calls();
+        limiter.run(Priority.NORMAL, calls, new Result<String>());
+        Finds finds = new Finds();
+        IdLoader<Document> loader = new IdLoaderImpl<>(finds.collection(), limiter, Priority.BATCH, 1, TimeUnit.HOURS, 2);
+        Result<Document> a = new Result<>();
+        Result<Document> b = new Result<>();
+        load(loader, 1, null, null, a);
+        load(loader, 2, null, Priority.INTERACTIVE, b);
+        assertEquals(1, limiter.queueDepth(Priority.INTERACTIVE));
+        assertEquals(0, limiter.queueDepth(Priority.BATCH));
+        calls.pending.remove(0).onResult("a", null);
+        assertEquals(1, finds.pending.size());
+        finds.pending.get(0).onResult(new ArrayList<>(Arrays.asList(new Document("_id", 2))), null);
+        assertTrue(a.done());
+        assertNull("Not found", a.result);
+        assertEquals(new Document("_id", 2), b.result);
+    }
+
+    private static void load(IdLoader<Document> loader, Object id, final Deadline deadline, final Priority priority, Result<Document> result) {
+        AsyncPromise.create(new Logic<Void, Void>() {
+            @Override
+            public void run(Void data, Trigger<Void> next, PromiseContext context) throws Exception {
+                if (deadline != null) {
+                    context.put(Deadline.KEY, deadline);
+                }
+                if (priority != null) {
+                    context.put(Priority.KEY, priority);
+                }
+                next.trigger(null, null);
+            }
+        }).then(loader.load(id)).start(null, result);
+    }
+
+    /**
+     * A collection whose finds record the time limit they are sent with and
+     * hold their callbacks until completed by hand.
+     */
+    static final class Finds {
+
+        final List<Long> maxTimes = new ArrayList<>();
+        final List<SingleResultCallback<List<Document>>> pending = new ArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        MongoCollection<Document> collection() {
+            final FindIterable<Document> find = (FindIterable<Document>) Proxy.newProxyInstance(IdLoaderImplTest.class.getClassLoader(),
+                    new Class<?>[]{FindIterable.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "into":
+                            pending.add((SingleResultCallback<List<Document>>) args[1]);
+                            return null;
+                        case "maxTime":
+                            maxTimes.add(((TimeUnit) args[1]).toMillis((Long) args[0]));
+                            return proxy;
+                        case "batchSize":
+                            return proxy;
+                        default:
+                            throw new UnsupportedOperationException(method.toString());
+                    }
+                }
+            });
+            return (MongoCollection<Document>) Proxy.newProxyInstance(IdLoaderImplTest.class.getClassLoader(),
+                    new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "find":
+                            return find;
+                        case "getCodecRegistry":
+                            return MongoClients.getDefaultCodecRegistry();
+                        default:
+                            throw new UnsupportedOperationException(method.toString());
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocument;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks flushing and per-document error mapping in InsertBatcherImpl.
+ *
+ * @author Tim Boudreau
+ */
+public class InsertBatcherImplTest {
+
+    @Test
+    public void testFlushesWhenFull() throws Exception {
+        Sink sink = new Sink();
+        InsertBatcherImpl<String> batcher = new InsertBatcherImpl<>(null, sink, 3, 0, 1, TimeUnit.HOURS);
+        @SuppressWarnings("unchecked")
+        Result<Void>[] results = new Result[4];
+        for (int i = 0; i < results.length; i++) {
+            batcher.insertOne().start("doc" + i, results[i] = new Result<>());
+        }
+        assertEquals(1, sink.batches.size());
+        assertEquals(Arrays.asList("doc0", "doc1", "doc2"), sink.batches.get(0));
+        sink.triggers.get(0).trigger(null, null);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results[i].done());
+            assertNull(results[i].thrown);
+        }
+        assertTrue(!results[3].done());
+    }
+
+    @Test
+    public void testFlushesAfterWindow() throws Exception {
+        final CountDownLatch flushed = new CountDownLatch(1);
+        Sink sink = new Sink() {
+            @Override
+            public synchronized void insertMany(List<String> documents, Trigger<Void> next) {
+                super.insertMany(documents, next);
+                flushed.countDown();
+            }
+        };
+        InsertBatcherImpl<String> batcher = new InsertBatcherImpl<>(null, sink, 100, 0, 10, TimeUnit.MILLISECONDS);
+        batcher.insertOne().start("a", new Result<Void>());
+        batcher.insertOne().start("b", new Result<Void>());
+        assertTrue(flushed.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Arrays.asList("a", "b")), sink.batches);
+    }
+
+    @Test
+    public void testErrorsMappedToDocuments() {
+        List<Trigger<Void>> triggers = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        Result<Void>[] results = new Result[3];
+        for (int i = 0; i < results.length; i++) {
+            triggers.add(results[i] = new Result<>());
+        }
+        BulkWriteError dup = new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1);
+        InsertBatcherImpl.complete(triggers, new MongoBulkWriteException(BulkWriteResult.acknowledged(2, 0, 0, 0, Collections.emptyList()),
+                Arrays.asList(dup), null, new ServerAddress()));
+        assertNull(results[0].thrown);
+        assertTrue(results[1].thrown instanceof MongoWriteException);
+        assertEquals(11000, ((MongoWriteException) results[1].thrown).getError().getCode());
+        assertNull(results[2].thrown);
+    }
+
+    @Test
+    public void testOtherFailuresFailEveryDocument() {
+        Result<Void> a = new Result<>();
+        Result<Void> b = new Result<>();
+        IllegalStateException ex = new IllegalStateException();
+        InsertBatcherImpl.complete(Arrays.<Trigger<Void>>asList(a, b), ex);
+        assertTrue(a.thrown == ex);
+        assertTrue(b.thrown == ex);
+    }
+
+    static class Sink implements InsertBatcherImpl.Sink<String> {
+
+        final List<List<String>> batches = new ArrayList<>();
+        final List<Trigger<Void>> triggers = new ArrayList<>();
+
+        @Override
+        public synchronized void insertMany(List<String> documents, Trigger<Void> next) {
+            batches.add(documents);
+            triggers.add(next);
+        }
+    }
+}
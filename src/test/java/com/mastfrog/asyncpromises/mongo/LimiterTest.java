@@ -0,0 +1,265 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWaitQueueFullException;
+import com.mongodb.async.SingleResultCallback;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks queueing, rejection and timeouts in Limiter.
+ *
+ * @author Tim Boudreau
+ */
+public class LimiterTest {
+
+    @Test
+    public void testQueuesBeyondLimit() {
+        Limiter limiter = new Limiter(2, 10, 0, TimeUnit.SECONDS);
+        Calls calls = new Calls();
+        @SuppressWarnings("unchecked")
+        Result<String>[] results = new Result[4];
+        for (int i = 0; i < results.length; i++) {
+            limiter.run(Priority.NORMAL, calls, results[i] = new Result<>());
+        }
+        assertEquals(2, calls.pending.size());
+        assertEquals(2, limiter.inFlight());
+        assertEquals(2, limiter.queueDepth());
+        assertEquals(2, limiter.queued());
+        calls.pending.remove(0).onResult("a", null);
+        assertEquals("a", results[0].result);
+        assertEquals("A queued call should be sent when a permit is released", 2, calls.pending.size());
+        assertEquals(1, limiter.queueDepth());
+        calls.pending.remove(0).onResult("b", null);
+        calls.pending.remove(0).onResult("c", null);
+        calls.pending.remove(0).onResult("d", null);
+        assertEquals("d", results[3].result);
+        assertEquals(0, limiter.inFlight());
+        assertEquals(0, limiter.queueDepth());
+    }
+
+    @Test
+    public void testRejectsWhenQueueFull() {
+        Limiter limiter = new Limiter(1, 1, 0, TimeUnit.SECONDS);
+        Calls calls = new Calls();
+        Result<String> a = new Result<>();
+        Result<String> b = new Result<>();
+        Result<String> c = new Result<>();
+        limiter.run(Priority.NORMAL, calls, a);
+        limiter.run(Priority.NORMAL, calls, b);
+        limiter.run(Priority.NORMAL, calls, c);
+        assertTrue(c.thrown instanceof MongoWaitQueueFullException);
+        assertFalse(b.done());
+        assertEquals(1, limiter.rejected());
+    }
+
+    @Test
+    public void testSynchronousCompletionDoesNotRecurse() {
+        Limiter limiter = new Limiter(1, 100000, 0, TimeUnit.SECONDS);
+        Calls calls = new Calls();
+        Result<String> first = new Result<>();
+        limiter.run(Priority.NORMAL, calls, first);
+        Limiter.Call<String> immediate = new Limiter.Call<String>() {
+            @Override
+            public void call(SingleResultCallback<String> callback) {
+                callback.onResult("x", null);
+            }
+        };
+        List<Result<String>> results = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            Result<String> r = new Result<>();
+            results.add(r);
+            limiter.run(Priority.NORMAL, immediate, r);
+        }
+        calls.pending.remove(0).onResult("a", null);
+        for (Result<String> r : results) {
+            assertEquals("x", r.result);
+        }
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void testThrowingCallReleasesPermit() {
+        Limiter limiter = new Limiter(1, 10, 0, TimeUnit.SECONDS);
+        Result<String> r = new Result<>();
+        limiter.run(Priority.NORMAL, new Limiter.Call<String>() {
+            @Override
+            public void call(SingleResultCallback<String> callback) {
+                throw new IllegalStateException();
+            }
+        }, r);
+        assertTrue(r.thrown instanceof IllegalStateException);
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void testTimesOut() throws Exception {
+        Limiter limiter = new Limiter(1, 10, 20, TimeUnit.MILLISECONDS);
+        Calls calls = new Calls();
+        limiter.run(Priority.NORMAL, calls, new Result<String>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Throwable[] thrown = new Throwable[1];
+        limiter.run(Priority.NORMAL, calls, new SingleResultCallback<String>() {
+            @Override
+            public void onResult(String result, Throwable t) {
+                thrown[0] = t;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(thrown[0] instanceof MongoTimeoutException);
+        assertEquals(1, limiter.timedOut());
+        assertEquals(0, limiter.queueDepth());
+        calls.pending.remove(0).onResult("a", null);
+        assertEquals(0, limiter.inFlight());
+        assertTrue(calls.pending.isEmpty());
+    }
+
+    @Test
+    public void testQueuedCallFailsWhenDeadlinePasses() throws Exception {
+        // No maximum wait, so only the deadline can take it off the queue
+        Limiter limiter = new Limiter(1, 10, 0, TimeUnit.MILLISECONDS);
+        Calls calls = new Calls();
+        limiter.run(Priority.NORMAL, calls, new Result<String>());
+        Result<String> r = new Result<>();
+        Limiter.run(limiter, Priority.NORMAL, Deadline.after(20, TimeUnit.MILLISECONDS), calls, r);
+        assertEquals(1, limiter.queueDepth());
+        r.await();
+        assertTrue(r.thrown instanceof MongoExecutionTimeoutException);
+        assertEquals(0, limiter.queueDepth());
+        assertEquals("Not a wait queue timeout", 0, limiter.timedOut());
+        calls.pending.remove(0).onResult("a", null);
+        assertTrue("Should never be sent", calls.pending.isEmpty());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void testDeadlineEarlierThanMaxWaitWins() throws Exception {
+        Limiter limiter = new Limiter(1, 10, 1, TimeUnit.HOURS);
+        Calls calls = new Calls();
+        limiter.run(Priority.NORMAL, calls, new Result<String>());
+        Result<String> r = new Result<>();
+        Limiter.run(limiter, Priority.NORMAL, Deadline.after(20, TimeUnit.MILLISECONDS), calls, r);
+        r.await();
+        assertTrue(r.thrown instanceof MongoExecutionTimeoutException);
+    }
+
+    @Test
+    public void testExpiredDeadlineIsNotARoundTrip() {
+        AdaptiveLimit adaptive = new AdaptiveLimit(4, 64);
+        long now = 0;
+        for (int i = 0; i < 500; i++) {
+            adaptive.sample(TimeUnit.MILLISECONDS.toNanos(10), adaptive.limit(), null, now += TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        Limiter limiter = new Limiter(adaptive, 10, 0, TimeUnit.SECONDS);
+        int before = limiter.limit();
+        assertTrue("Should have grown: " + adaptive, before > 4);
+        Calls calls = new Calls();
+        for (int i = 0; i < 50; i++) {
+            Result<String> r = new Result<>();
+            Limiter.run(limiter, Priority.NORMAL, Deadline.after(0, TimeUnit.MILLISECONDS), calls, r);
+            assertTrue(r.thrown instanceof MongoExecutionTimeoutException);
+        }
+        assertTrue("Should never be sent", calls.pending.isEmpty());
+        assertEquals(0, limiter.inFlight());
+        assertEquals("Calls which never reached the server should not shrink the limit", before, limiter.limit());
+    }
+
+    @Test
+    public void testLanesAreServedByWeight() {
+        Limiter limiter = new Limiter(1, 1000, 0, TimeUnit.SECONDS);
+        Calls calls = new Calls();
+        limiter.run(Priority.NORMAL, calls, new Result<String>());
+        final List<Priority> order = new ArrayList<>();
+        for (final Priority p : new Priority[]{Priority.BATCH, Priority.INTERACTIVE}) {
+            for (int i = 0; i < 34; i++) {
+                limiter.run(p, new Limiter.Call<String>() {
+                    @Override
+                    public void call(SingleResultCallback<String> callback) {
+                        order.add(p);
+                        callback.onResult("x", null);
+                    }
+                }, new Result<String>());
+            }
+        }
+        assertEquals(34, limiter.queueDepth(Priority.BATCH));
+        assertEquals(34, limiter.queueDepth(Priority.INTERACTIVE));
+        // Let exactly 17 calls through, one at a time
+        calls.pending.remove(0).onResult("a", null);
+        assertEquals(68, order.size());
+        List<Priority> first = order.subList(0, 17);
+        int batch = 0;
+        for (Priority p : first) {
+            if (p == Priority.BATCH) {
+                batch++;
+            }
+        }
+        assertEquals("Batch should get one in seventeen: " + first, 1, batch);
+        assertEquals(Priority.BATCH, order.get(order.size() - 1));
+    }
+
+    @Test
+    public void testHigherPriorityDisplacesLowerWhenFull() {
+        Limiter limiter = new Limiter(1, 2, 0, TimeUnit.SECONDS);
+        Calls calls = new Calls();
+        limiter.run(Priority.NORMAL, calls, new Result<String>());
+        Result<String> b1 = new Result<>();
+        Result<String> b2 = new Result<>();
+        Result<String> i1 = new Result<>();
+        Result<String> i2 = new Result<>();
+        limiter.run(Priority.BATCH, calls, b1);
+        limiter.run(Priority.BATCH, calls, b2);
+        limiter.run(Priority.INTERACTIVE, calls, i1);
+        assertTrue("Newest batch call should be displaced", b2.thrown instanceof MongoWaitQueueFullException);
+        assertFalse(b1.done());
+        assertFalse(i1.done());
+        limiter.run(Priority.INTERACTIVE, calls, i2);
+        assertTrue(b1.thrown instanceof MongoWaitQueueFullException);
+        Result<String> i3 = new Result<>();
+        limiter.run(Priority.INTERACTIVE, calls, i3);
+        assertTrue("Nothing lower to displace", i3.thrown instanceof MongoWaitQueueFullException);
+        assertEquals(3, limiter.rejected());
+        assertEquals(2, limiter.queueDepth(Priority.INTERACTIVE));
+    }
+
+    static final class Calls implements Limiter.Call<String> {
+
+        final List<SingleResultCallback<String>> pending = new ArrayList<>();
+
+        @Override
+        public void call(SingleResultCallback<String> callback) {
+            pending.add(callback);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Logic;
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that operations keep no state between executions.
+ *
+ * @author Tim Boudreau
+ */
+public class OperationTest {
+
+    @Test
+    public void testOverlappingExecutionsAreIndependent() {
+        Held held = new Held();
+        Operation<Bson, String> op = new Operation<>(held);
+        Result<String> a = new Result<>();
+        Result<String> b = new Result<>();
+        op.start(new Document("x", 1), a);
+        op.start(new Document("x", 2), b);
+        assertEquals(2, held.pending.size());
+        held.pending.get(1).trigger("second", null);
+        held.pending.get(0).trigger("first", null);
+        assertEquals("first", a.result);
+        assertEquals("second", b.result);
+        assertTrue("Each execution should get its own context", held.contexts.get(0) != held.contexts.get(1));
+    }
+
+    @Test
+    public void testWithQuery() {
+        Held held = new Held();
+        Document query = new Document("x", 3);
+        Operation<Void, String> op = Operation.withQuery(query, new Operation<>(held));
+        PromiseContext context = new PromiseContext();
+        op.start(null, context, new Result<String>());
+        assertSame(query, held.inputs.get(0));
+        assertSame(query, context.get(FindBuilderImpl.QUERY_KEY));
+    }
+
+    @Test
+    public void testThrowingLogicFailsExecution() {
+        final IllegalStateException ex = new IllegalStateException();
+        Result<String> result = new Result<>();
+        new Operation<>(new Logic<Bson, String>() {
+            @Override
+            public void run(Bson data, Trigger<String> next, PromiseContext context) throws Exception {
+                throw ex;
+            }
+        }).start(new Document(), result);
+        assertNull(result.result);
+        assertSame(ex, result.thrown);
+    }
+
+    @Test
+    public void testFindOneOperationSnapshotsBuilder() {
+        Fake fake = new Fake();
+        FindBuilder<Document, Bson> builder = new CollectionPromises<>(fake.collection())
+                .find().withProjection(new Document("a", 1)).maxTime(5, TimeUnit.SECONDS);
+        Operation<Bson, Document> op = builder.findOneOperation();
+        builder.withProjection(new Document("b", 1)).maxTime(1, TimeUnit.SECONDS)
+                .filter(new Document("changed", true));
+        Result<Document> result = new Result<>();
+        op.start(new Document("x", 1), result);
+        op.start(new Document("x", 2), new Result<Document>());
+        for (List<String> calls : fake.finds) {
+            assertEquals(Arrays.asList("projection Document{{a=1}}", "maxTime 5000"), calls);
+        }
+        assertEquals(Arrays.<Bson>asList(new Document("x", 1), new Document("x", 2)), fake.findQueries);
+    }
+
+    @Test
+    public void testOverlappingFindOnesAreIndependent() {
+        Fake fake = new Fake();
+        Operation<Bson, Document> op = new CollectionPromises<>(fake.collection()).find().findOneOperation();
+        Result<Document> a = new Result<>();
+        Result<Document> b = new Result<>();
+        op.start(new Document("x", 1), a);
+        op.start(new Document("x", 2), b);
+        assertEquals(2, fake.firsts.size());
+        fake.firsts.get(1).onResult(new Document("x", 2), null);
+        assertFalse(a.done());
+        fake.firsts.get(0).onResult(new Document("x", 1), null);
+        assertEquals(new Document("x", 1), a.result);
+        assertEquals(new Document("x", 2), b.result);
+        assertEquals(1, a.calls);
+        assertEquals(1, b.calls);
+    }
+
+    @Test
+    public void testCountOperationSnapshotsOptions() {
+        Fake fake = new Fake();
+        CountBuilder<Bson> builder = new CollectionPromises<>(fake.collection()).count()
+                .limit(10).skip(2).maxTime(5, TimeUnit.SECONDS);
+        Operation<Bson, Long> op = builder.countOperation();
+        builder.limit(100).skip(20).maxTime(1, TimeUnit.SECONDS).hintString("other");
+        op.start(new Document("x", 1), new Result<Long>());
+        op.start(new Document("x", 2), new Result<Long>());
+        assertEquals(2, fake.countOptions.size());
+        for (CountOptions opts : fake.countOptions) {
+            assertEquals(10, opts.getLimit());
+            assertEquals(2, opts.getSkip());
+            assertEquals(5000, opts.getMaxTime(TimeUnit.MILLISECONDS));
+            assertNull(opts.getHintString());
+        }
+    }
+
+    @Test
+    public void testOverlappingCountsAreIndependent() {
+        Fake fake = new Fake();
+        Operation<Bson, Long> op = new CollectionPromises<>(fake.collection()).count().countOperation();
+        Result<Long> a = new Result<>();
+        Result<Long> b = new Result<>();
+        op.start(new Document("x", 1), a);
+        op.start(new Document("x", 2), b);
+        assertEquals(Arrays.<Bson>asList(new Document("x", 1), new Document("x", 2)), fake.countQueries);
+        fake.counts.get(1).onResult(2L, null);
+        assertFalse(a.done());
+        fake.counts.get(0).onResult(1L, null);
+        assertEquals(Long.valueOf(1), a.result);
+        assertEquals(Long.valueOf(2), b.result);
+    }
+
+    @Test
+    public void testUpdateManyOperationSnapshotsOptions() {
+        Fake fake = new Fake();
+        UpdateOptions opts = new UpdateOptions().upsert(true);
+        Operation<Bson, UpdateResult> op = new CollectionPromises<>(fake.collection())
+                .updateManyOperation(new Document("$inc", new Document("n", 1)), opts);
+        opts.upsert(false).bypassDocumentValidation(true);
+        Result<UpdateResult> result = new Result<>();
+        op.start(new Document("x", 1), result);
+        assertEquals(1, fake.updateOptions.size());
+        UpdateOptions used = fake.updateOptions.get(0);
+        assertTrue(used != opts);
+        assertTrue(used.isUpsert());
+        assertNull(used.getBypassDocumentValidation());
+        fake.updates.get(0).onResult(UpdateResult.acknowledged(1, 1L, null), null);
+        assertEquals(1, result.result.getMatchedCount());
+    }
+
+    static final class Held implements Logic<Bson, String> {
+
+        final List<Trigger<String>> pending = new ArrayList<>();
+        final List<Bson> inputs = new ArrayList<>();
+        final List<PromiseContext> contexts = new ArrayList<>();
+
+        @Override
+        public void run(Bson data, Trigger<String> next, PromiseContext context) throws Exception {
+            inputs.add(data);
+            contexts.add(context);
+            pending.add(next);
+        }
+    }
+
+    /**
+     * A collection which records the queries and options it is called with,
+     * and holds callbacks until the test completes them.
+     */
+    static final class Fake {
+
+        final List<List<String>> finds = new ArrayList<>();
+        final List<Bson> findQueries = new ArrayList<>();
+        final List<SingleResultCallback<Document>> firsts = new ArrayList<>();
+        final List<Bson> countQueries = new ArrayList<>();
+        final List<CountOptions> countOptions = new ArrayList<>();
+        final List<SingleResultCallback<Long>> counts = new ArrayList<>();
+        final List<UpdateOptions> updateOptions = new ArrayList<>();
+        final List<SingleResultCallback<UpdateResult>> updates = new ArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        MongoCollection<Document> collection() {
+            return (MongoCollection<Document>) Proxy.newProxyInstance(OperationTest.class.getClassLoader(),
+                    new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "find":
+                            findQueries.add((Bson) args[0]);
+                            return find();
+                        case "count":
+                            countQueries.add((Bson) args[0]);
+                            countOptions.add((CountOptions) args[1]);
+                            counts.add((SingleResultCallback<Long>) args[2]);
+                            return null;
+                        case "updateMany":
+                            updateOptions.add((UpdateOptions) args[2]);
+                            updates.add((SingleResultCallback<UpdateResult>) args[3]);
+                            return null;
+                        case "getCodecRegistry":
+                            return MongoClients.getDefaultCodecRegistry();
+                        case "getDocumentClass":
+                            return Document.class;
+                        default:
+                            throw new UnsupportedOperationException(method.toString());
+                    }
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private FindIterable<Document> find() {
+            final List<String> calls = new ArrayList<>();
+            finds.add(calls);
+            return (FindIterable<Document>) Proxy.newProxyInstance(OperationTest.class.getClassLoader(),
+                    new Class<?>[]{FindIterable.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "first":
+                            firsts.add((SingleResultCallback<Document>) args[0]);
+                            return null;
+                        case "maxTime":
+                            calls.add("maxTime " + ((TimeUnit) args[1]).toMillis((Long) args[0]));
+                            return proxy;
+                        default:
+                            if (method.getReturnType().isInstance(proxy)) {
+                                calls.add(method.getName() + " " + args[0]);
+                                return proxy;
+                            }
+                            throw new UnsupportedOperationException(method.toString());
+                    }
+                }
+            });
+        }
+    }
+}
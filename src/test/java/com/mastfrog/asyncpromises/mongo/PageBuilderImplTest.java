@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mongodb.async.client.MongoClients;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks continuation tokens and seek predicates for keyset pagination.
+ *
+ * @author Tim Boudreau
+ */
+public class PageBuilderImplTest {
+
+    @Test
+    public void testFirstPageUsesQueryUnchanged() {
+        PageBuilderImpl<Document, Void> pb = builder();
+        pb.descending("when");
+        Document query = new Document("type", "x");
+        assertTrue(query == pb.query(query));
+        assertEquals(new Document("when", -1).append("_id", 1), pb.sort());
+    }
+
+    @Test
+    public void testTokenProducesSeekPredicate() {
+        PageBuilderImpl<Document, Void> pb = builder();
+        pb.descending("when").pageSize(2);
+        List<Document> results = new ArrayList<>(Arrays.asList(
+                new Document("_id", 1).append("when", 30),
+                new Document("_id", 2).append("when", 20),
+                new Document("_id", 3).append("when", 10)));
+        Page<Document> page = pb.toPage(results, MongoClients.getDefaultCodecRegistry());
+        assertEquals(2, page.items().size());
+        assertTrue(page.hasNext());
+
+        PageBuilderImpl<Document, Void> next = builder();
+        next.descending("when").after(page.next());
+        Document query = new Document("type", "x");
+        Document seek = (Document) next.query(query);
+        String json = seek.toJson();
+        assertEquals(json, query, ((List<?>) seek.get("$and")).get(0));
+        Document or = (Document) ((List<?>) seek.get("$and")).get(1);
+        List<?> alternatives = (List<?>) or.get("$or");
+        assertEquals(json, 2, alternatives.size());
+        assertEquals(json, new Document("when", new Document("$lt", new BsonInt32(20))), alternatives.get(0));
+        assertEquals(json, new Document("when", new BsonInt32(20))
+                .append("_id", new Document("$gt", new BsonInt32(2))), alternatives.get(1));
+    }
+
+    @Test
+    public void testLastPageHasNoToken() {
+        PageBuilderImpl<Document, Void> pb = builder();
+        pb.pageSize(5);
+        Page<Document> page = pb.toPage(new ArrayList<>(Arrays.asList(new Document("_id", 1))), MongoClients.getDefaultCodecRegistry());
+        assertFalse(page.hasNext());
+        assertNull(page.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTokenForDifferentSortRejected() {
+        PageBuilderImpl<Document, Void> pb = builder();
+        pb.ascending("name").pageSize(1);
+        Page<Document> page = pb.toPage(new ArrayList<>(Arrays.asList(
+                new Document("_id", 1).append("name", "a"),
+                new Document("_id", 2).append("name", "b"))), MongoClients.getDefaultCodecRegistry());
+        PageBuilderImpl<Document, Void> other = builder();
+        other.ascending("when").after(page.next());
+        other.query(new Document());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGarbageTokenRejected() {
+        builder().after("not a token");
+    }
+
+    private static PageBuilderImpl<Document, Void> builder() {
+        return new PageBuilderImpl<>(null);
+    }
+}
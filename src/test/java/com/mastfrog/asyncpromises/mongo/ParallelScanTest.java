@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks split point selection and batch serialization for parallelFind.
+ *
+ * @author Tim Boudreau
+ */
+public class ParallelScanTest {
+
+    @Test
+    public void testSplitPoints() {
+        ParallelScan<Document> scan = scan(4);
+        List<BsonDocument> sample = new ArrayList<>();
+        sample.add(new BsonDocument("k", BsonNull.VALUE));
+        for (int i = 0; i < 16; i++) {
+            sample.add(new BsonDocument("k", new BsonInt32(i)));
+            sample.add(new BsonDocument("k", new BsonInt32(i)));
+        }
+        assertEquals(Arrays.<BsonValue>asList(new BsonInt32(4), new BsonInt32(8), new BsonInt32(12)),
+                scan.splitPoints(sample));
+    }
+
+    @Test
+    public void testTooFewDistinctValuesGivesFewerRanges() {
+        ParallelScan<Document> scan = scan(8);
+        List<BsonDocument> sample = Arrays.asList(
+                new BsonDocument("k", new BsonInt32(1)),
+                new BsonDocument("k", new BsonInt32(1)),
+                new BsonDocument("k", new BsonInt32(2)));
+        List<BsonValue> splits = scan.splitPoints(sample);
+        assertEquals(Arrays.<BsonValue>asList(new BsonInt32(2)), splits);
+        List<Bson> ranges = scan.ranges(new Document(), splits);
+        assertEquals(2, ranges.size());
+        assertEquals(1, scan.ranges(new Document(), new ArrayList<BsonValue>()).size());
+    }
+
+    @Test
+    public void testSerializedReceiverStopsAllOnDecline() throws Exception {
+        final List<List<Integer>> seen = new ArrayList<>();
+        ParallelScan.SerializedReceiver<Integer> rec = new ParallelScan.SerializedReceiver<>(new FindReceiver<List<Integer>>() {
+            @Override
+            public void withResults(List<Integer> obj, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+                seen.add(obj);
+                trigger.trigger(false, null);
+            }
+        });
+        Acks first = new Acks();
+        Acks second = new Acks();
+        rec.withResults(Arrays.asList(1), first, new PromiseContext());
+        rec.withResults(Arrays.asList(2), second, new PromiseContext());
+        assertEquals(1, seen.size());
+        assertEquals(Arrays.asList(false), first.values);
+        assertEquals(Arrays.asList(false), second.values);
+        assertTrue(first.thrown == null && second.thrown == null);
+    }
+
+    @Test
+    public void testSerializedReceiverStopsUnacknowledgedSynchronousDelegate() throws Exception {
+        ParallelScan.SerializedReceiver<Integer> rec = new ParallelScan.SerializedReceiver<>(new FindReceiver<List<Integer>>() {
+            @Override
+            public void withResults(List<Integer> obj, Trigger<Boolean> trigger, PromiseContext context) throws Exception {
+                // does not acknowledge
+            }
+        });
+        Acks first = new Acks();
+        rec.withResults(Arrays.asList(1), first, new PromiseContext());
+        assertEquals(Arrays.asList(false), first.values);
+    }
+
+    private static ParallelScan<Document> scan(int partitions) {
+        return new ParallelScan<>(null, null, "k", partitions, null, new PromiseContext(), null);
+    }
+
+    static final class Acks implements Trigger<Boolean> {
+
+        final List<Boolean> values = new ArrayList<>();
+        Throwable thrown;
+
+        @Override
+        public void trigger(Boolean obj, Throwable thrown) {
+            values.add(obj);
+            this.thrown = thrown;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import static com.mastfrog.asyncpromises.mongo.QueryTemplate.param;
+import java.util.Arrays;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that templates bind to the same documents the builder produces.
+ *
+ * @author Tim Boudreau
+ */
+public class QueryTemplateTest {
+
+    @Test
+    public void testBindingMatchesBuilder() {
+        QueryTemplate template = QueryBuilderImpl.create()
+                .equal("type", "person")
+                .greaterThan("age", param("minAge"))
+                .lessThanOrEqual("age", 65)
+                .in("city", param("cities"))
+                .elemMatch("logins").equal("country", param("country")).build()
+                .prepare();
+        assertEquals(3, template.parameters().size());
+        Document expected = QueryBuilderImpl.create()
+                .equal("type", "person")
+                .greaterThan("age", 21)
+                .lessThanOrEqual("age", 65)
+                .in("city", "Boston", "Paris")
+                .elemMatch("logins").equal("country", "USA").build()
+                .build();
+        QueryTemplate.Binding binding = template.bind()
+                .with("minAge", 21)
+                .with("cities", Arrays.asList("Boston", "Paris"))
+                .with("country", "USA");
+        Document first = binding.build();
+        assertEquals(expected, first);
+        Document second = binding.with("cities", new String[]{"Boston", "Paris"}).build();
+        assertEquals(expected, second);
+        assertNotSame("Bound documents should not share containers", first.get("age"), second.get("age"));
+        ((Document) first.get("age")).put("$gt", 99);
+        assertEquals(expected, template.bind().with("minAge", 21).with("cities", Arrays.asList("Boston", "Paris"))
+                .with("country", "USA").build());
+    }
+
+    @Test
+    public void testParameterUsedTwiceHasOneSlot() {
+        QueryTemplate template = QueryBuilderImpl.create()
+                .equal("owner", param("user"))
+                .embedded("acl").equal("reader", param("user")).build()
+                .prepare();
+        assertEquals(Arrays.asList("user"), template.parameters());
+        Document doc = template.bind().with("user", "joe").build();
+        assertEquals(new Document("owner", "joe").append("acl.reader", "joe"), doc);
+    }
+
+    @Test
+    public void testUnboundAndUnknownParameters() {
+        QueryTemplate template = QueryBuilderImpl.create().id(param("id")).prepare();
+        try {
+            template.bind().build();
+            fail("Built with an unbound parameter");
+        } catch (IllegalStateException ex) {
+            // ok
+        }
+        try {
+            template.bind().with("nothing", 1);
+            fail("Bound an unknown parameter");
+        } catch (IllegalArgumentException ex) {
+            // ok
+        }
+        assertEquals(new Document("_id", null), template.bind().with("id", null).build());
+    }
+
+    @Test
+    public void testBuildWithoutPreparingRejectsParameters() {
+        assertUnbound(QueryBuilderImpl.create().equal("name", param("name")), "name");
+        assertUnbound(QueryBuilderImpl.create().in("city", "Boston", param("city")), "city");
+        assertUnbound(QueryBuilderImpl.create().greaterThan("age", param("age")), "age");
+        assertUnbound(QueryBuilderImpl.create().elemMatch("logins").equal("country", param("country")).build(), "country");
+        assertUnbound(QueryBuilderImpl.create().embedded("acl").equal("reader", param("user")).build(), "user");
+        assertUnbound(QueryBuilderImpl.create().equal("a", new Document("b", Arrays.asList(1, param("deep")))), "deep");
+        assertUnbound(QueryBuilderImpl.create().exactSubdocument("a").embedded("b").equal("c", param("c")).build().build(), "c");
+        assertEquals(new Document("a", 1), QueryBuilderImpl.create().equal("a", 1).build());
+    }
+
+    @Test
+    public void testHasParameter() {
+        assertFalse(QueryTemplate.hasParameter(new Document("a", Arrays.asList(1, "x", new Object[]{2, null}))));
+        assertFalse(QueryTemplate.hasParameter(null));
+        assertTrue(QueryTemplate.hasParameter(param("p")));
+        assertTrue(QueryTemplate.hasParameter(new Document("a", Arrays.asList(1, new Document("b", param("p"))))));
+        assertTrue(QueryTemplate.hasParameter(new Object[]{1, new Object[]{param("p")}}));
+    }
+
+    private static void assertUnbound(QueryBuilder<?, Document> builder, String name) {
+        try {
+            builder.build();
+            fail("Built with parameter " + name);
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("'" + name + "'"));
+        }
+    }
+}
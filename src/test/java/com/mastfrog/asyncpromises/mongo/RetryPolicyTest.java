@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks backoff delays computed by RetryPolicy.
+ *
+ * @author Tim Boudreau
+ */
+public class RetryPolicyTest {
+
+    private static final long MAX = TimeUnit.SECONDS.toNanos(30);
+
+    @Test
+    public void testZeroInitialDelayMeansNoDelay() {
+        RetryPolicy policy = new RetryPolicy(5, 0, TimeUnit.MILLISECONDS);
+        for (int retry = 1; retry < 70; retry++) {
+            assertEquals(0, policy.delayNanos(retry));
+        }
+    }
+
+    @Test
+    public void testDelaysGrowAndNeverExceedCap() {
+        RetryPolicy policy = new RetryPolicy(100, 1, TimeUnit.MILLISECONDS);
+        long first = policy.delayNanos(1);
+        assertTrue(first >= TimeUnit.MILLISECONDS.toNanos(1) / 2);
+        assertTrue(first <= TimeUnit.MILLISECONDS.toNanos(3) / 2);
+        for (int retry = 1; retry < 100; retry++) {
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.delayNanos(retry);
+                assertTrue(retry + ": " + delay, delay > 0 && delay <= MAX);
+            }
+        }
+        // Near the cap, jitter must not push the delay past it
+        RetryPolicy large = new RetryPolicy(3, 25, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(large.delayNanos(1) <= MAX);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Sink;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that RetryingBulkWrite resends only failed operations.
+ *
+ * @author Tim Boudreau
+ */
+public class RetryingBulkWriteTest {
+
+    private static final int NOT_MASTER = 10107;
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Test
+    public void testUnorderedResendsOnlyTransientFailures() throws InterruptedException {
+        Sink<Document> sink = new Sink<>();
+        // First attempt: ops 1 and 3 fail transiently, op 4 permanently
+        sink.responses.add(failure(2, Arrays.asList(error(NOT_MASTER, 1), error(NOT_MASTER, 3), error(DUPLICATE_KEY, 4))));
+        // Second attempt, of ops 1 and 3: both succeed, op 3 as an upsert
+        sink.responses.add(result(1, Arrays.asList(new BulkWriteUpsert(1, new BsonInt32(33)))));
+        Result<BulkWriteResult> result = run(sink, inserts(5), false);
+        assertEquals(2, sink.sent.size());
+        assertEquals(Arrays.asList(1, 3), ixs(sink.sent.get(1)));
+        assertTrue(result.thrown instanceof MongoBulkWriteException);
+        MongoBulkWriteException ex = (MongoBulkWriteException) result.thrown;
+        assertEquals(1, ex.getWriteErrors().size());
+        assertEquals(4, ex.getWriteErrors().get(0).getIndex());
+        assertEquals(3, ex.getWriteResult().getInsertedCount());
+        assertEquals(3, ex.getWriteResult().getUpserts().get(0).getIndex());
+    }
+
+    @Test
+    public void testOrderedResendsFromFailedOperation() throws InterruptedException {
+        Sink<Document> sink = new Sink<>();
+        sink.responses.add(failure(2, Arrays.asList(error(NOT_MASTER, 2))));
+        sink.responses.add(result(3, Collections.<BulkWriteUpsert>emptyList()));
+        Result<BulkWriteResult> result = run(sink, inserts(5), true);
+        assertEquals(Arrays.asList(2, 3, 4), ixs(sink.sent.get(1)));
+        assertNull(result.thrown);
+        assertEquals(5, result.result.getInsertedCount());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() throws InterruptedException {
+        Sink<Document> sink = new Sink<>();
+        for (int i = 0; i < 3; i++) {
+            sink.responses.add(failure(0, Arrays.asList(error(NOT_MASTER, 0))));
+        }
+        Result<BulkWriteResult> result = run(sink, inserts(1), false);
+        assertEquals(3, sink.sent.size());
+        MongoBulkWriteException ex = (MongoBulkWriteException) result.thrown;
+        assertEquals(NOT_MASTER, ex.getWriteErrors().get(0).getCode());
+    }
+
+    @Test
+    public void testWriteConcernErrorOfEarlierAttemptIsKept() throws InterruptedException {
+        Sink<Document> sink = new Sink<>();
+        WriteConcernError wce = new WriteConcernError(64, "waitForReplication", "timed out", new BsonDocument());
+        // Op 0 is applied but not confirmed; op 1 fails and is resent
+        sink.responses.add(new MongoBulkWriteException(result(1, Collections.<BulkWriteUpsert>emptyList()),
+                Arrays.asList(error(NOT_MASTER, 1)), wce, new ServerAddress()));
+        sink.responses.add(result(1, Collections.<BulkWriteUpsert>emptyList()));
+        Result<BulkWriteResult> result = run(sink, inserts(2), false);
+        MongoBulkWriteException ex = (MongoBulkWriteException) result.thrown;
+        assertSame("A successful retry does not confirm op 0", wce, ex.getWriteConcernError());
+        assertTrue(ex.getWriteErrors().isEmpty());
+        assertEquals(2, ex.getWriteResult().getInsertedCount());
+    }
+
+    @Test
+    public void testFirstWriteConcernErrorIsReported() throws InterruptedException {
+        Sink<Document> sink = new Sink<>();
+        WriteConcernError first = new WriteConcernError(64, "waitForReplication", "first", new BsonDocument());
+        WriteConcernError second = new WriteConcernError(64, "waitForReplication", "second", new BsonDocument());
+        sink.responses.add(new MongoBulkWriteException(result(1, Collections.<BulkWriteUpsert>emptyList()),
+                Arrays.asList(error(NOT_MASTER, 1), error(NOT_MASTER, 2)), first, new ServerAddress()));
+        sink.responses.add(new MongoBulkWriteException(result(1, Collections.<BulkWriteUpsert>emptyList()),
+                Arrays.asList(error(NOT_MASTER, 1)), second, new ServerAddress()));
+        sink.responses.add(result(1, Collections.<BulkWriteUpsert>emptyList()));
+        Result<BulkWriteResult> result = run(sink, inserts(3), false);
+        assertEquals(3, sink.sent.size());
+        MongoBulkWriteException ex = (MongoBulkWriteException) result.thrown;
+        assertSame(first, ex.getWriteConcernError());
+        assertEquals(3, ex.getWriteResult().getInsertedCount());
+    }
+
+    @Test
+    public void testWriteConcernErrorOfLastAttemptIsReported() throws InterruptedException {
+        Sink<Document> sink = new Sink<>();
+        WriteConcernError wce = new WriteConcernError(64, "waitForReplication", "timed out", new BsonDocument());
+        sink.responses.add(failure(1, Arrays.asList(error(NOT_MASTER, 1))));
+        sink.responses.add(new MongoBulkWriteException(result(1, Collections.<BulkWriteUpsert>emptyList()),
+                Collections.<BulkWriteError>emptyList(), wce, new ServerAddress()));
+        Result<BulkWriteResult> result = run(sink, inserts(2), false);
+        MongoBulkWriteException ex = (MongoBulkWriteException) result.thrown;
+        assertSame(wce, ex.getWriteConcernError());
+        assertTrue(ex.getWriteErrors().isEmpty());
+    }
+
+    private static Result<BulkWriteResult> run(Sink<Document> sink, List<WriteModel<? extends Document>> requests, boolean ordered) throws InterruptedException {
+        Result<BulkWriteResult> result = new Result<>();
+        new RetryingBulkWrite<>(requests, new BulkWriteOptions().ordered(ordered), sink,
+                new RetryPolicy(2, 1, TimeUnit.MILLISECONDS), result).start();
+        return result.await();
+    }
+
+    private static List<Integer> ixs(List<WriteModel<? extends Document>> chunk) {
+        List<Integer> result = new ArrayList<>();
+        for (WriteModel<? extends Document> m : chunk) {
+            result.add(((InsertOneModel<? extends Document>) m).getDocument().getInteger("ix"));
+        }
+        return result;
+    }
+
+    private static BulkWriteError error(int code, int index) {
+        return new BulkWriteError(code, "err", new BsonDocument(), index);
+    }
+
+    private static Throwable failure(int inserted, List<BulkWriteError> errors) {
+        return new MongoBulkWriteException(result(inserted, Collections.<BulkWriteUpsert>emptyList()), errors, null, new ServerAddress());
+    }
+
+    private static BulkWriteResult result(int inserted, List<BulkWriteUpsert> upserts) {
+        return BulkWriteResult.acknowledged(inserted, 0, 0, 0, upserts);
+    }
+
+    private static List<WriteModel<? extends Document>> inserts(int count) {
+        List<WriteModel<? extends Document>> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(new InsertOneModel<>(new Document("ix", i)));
+        }
+        return result;
+    }
+}
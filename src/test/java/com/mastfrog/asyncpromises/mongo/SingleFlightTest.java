@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mongodb.MongoExecutionTimeoutException;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that SingleFlight shares one call among concurrent callers.
+ *
+ * @author Tim Boudreau
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallersShareResult() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        Result<String> a = new Result<>();
+        Result<String> b = new Result<>();
+        Result<String> c = new Result<>();
+        Trigger<String> leader = flights.join("k", a);
+        assertNotNull(leader);
+        assertNull("Should join the call in flight", flights.join("k", b));
+        Trigger<String> other = flights.join("other", c);
+        assertNotNull("Different keys should not be coalesced", other);
+        leader.trigger("hello", null);
+        assertEquals("hello", a.result);
+        assertEquals("hello", b.result);
+        assertNull(c.result);
+        assertEquals(1, flights.inFlight());
+        other.trigger("world", null);
+        assertEquals("world", c.result);
+        assertEquals(0, flights.inFlight());
+    }
+
+    @Test
+    public void testCompletedFlightIsNotReused() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        Result<String> a = new Result<>();
+        Result<String> b = new Result<>();
+        flights.join("k", a).trigger("first", null);
+        Trigger<String> second = flights.join("k", b);
+        assertNotNull("A new call should be made after completion", second);
+        second.trigger("second", null);
+        assertEquals("first", a.result);
+        assertEquals("second", b.result);
+        assertEquals(1, a.calls);
+    }
+
+    @Test
+    public void testCallsWithDeadlineOrOtherPriorityAreNotCoalesced() {
+        OperationTest.Fake fake = new OperationTest.Fake();
+        Operation<Bson, Document> op = new CollectionPromises<>(fake.collection())
+                .find().singleFlight().findOneOperation();
+        Result<Document> plain = new Result<>();
+        Result<Document> joiner = new Result<>();
+        Result<Document> withDeadline = new Result<>();
+        Result<Document> batch = new Result<>();
+        op.start(new Document("_id", 1), plain);
+        op.start(new Document("_id", 1), joiner);
+        assertEquals(1, fake.firsts.size());
+        PromiseContext deadlined = new PromiseContext();
+        deadlined.put(Deadline.KEY, Deadline.after(1, TimeUnit.HOURS));
+        op.start(new Document("_id", 1), deadlined, withDeadline);
+        assertEquals("A call with a deadline should make its own", 2, fake.firsts.size());
+        PromiseContext lowPriority = new PromiseContext();
+        lowPriority.put(Priority.KEY, Priority.BATCH);
+        op.start(new Document("_id", 1), lowPriority, batch);
+        assertEquals("A call of another priority should make its own", 3, fake.firsts.size());
+        fake.firsts.get(1).onResult(null, new MongoExecutionTimeoutException(Deadline.MAX_TIME_MS_EXPIRED, "expired"));
+        assertTrue(withDeadline.thrown instanceof MongoExecutionTimeoutException);
+        assertFalse(plain.done());
+        assertFalse(batch.done());
+        fake.firsts.get(0).onResult(new Document("_id", 1), null);
+        assertEquals(new Document("_id", 1), plain.result);
+        assertEquals(new Document("_id", 1), joiner.result);
+        assertFalse(batch.done());
+    }
+
+    @Test
+    public void testFailureSharedWithAllCallers() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        Result<String> a = new Result<>();
+        Result<String> b = new Result<>();
+        Trigger<String> leader = flights.join("k", a);
+        flights.join("k", b);
+        IllegalStateException ex = new IllegalStateException();
+        leader.trigger(null, ex);
+        assertTrue(a.thrown == ex);
+        assertTrue(b.thrown == ex);
+    }
+}
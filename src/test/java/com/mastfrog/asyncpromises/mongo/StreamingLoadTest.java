@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Sink;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.bson.BsonDocument;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that StreamingLoad pulls lazily and bounds batches in flight.
+ *
+ * @author Tim Boudreau
+ */
+public class StreamingLoadTest {
+
+    @Test
+    public void testPullsOnlyWhenThereIsRoom() {
+        Counting source = new Counting(25);
+        Sink<Integer> sink = new Sink<>();
+        Result<BulkWriteResult> result = new Result<>();
+        new StreamingLoad<>(new StreamingLoad.IteratorSource<>(source), sink, 5, 2, result).start();
+        assertEquals(2, sink.pending.size());
+        assertEquals("Should not read ahead of the window", 10, source.next);
+        sink.complete(0, 5);
+        assertEquals(2, sink.pending.size());
+        assertEquals(15, source.next);
+        while (!sink.pending.isEmpty()) {
+            sink.complete(0, 5);
+        }
+        assertEquals(5, sink.sent.size());
+        assertNull(result.thrown);
+        assertEquals(25, result.result.getInsertedCount());
+    }
+
+    @Test
+    public void testRejectedDocumentsReportedWithOverallIndex() {
+        Sink<Integer> sink = new Sink<>();
+        Result<BulkWriteResult> result = new Result<>();
+        new StreamingLoad<>(new StreamingLoad.IteratorSource<>(new Counting(10)), sink, 4, 1, result).start();
+        sink.complete(0, 4);
+        BulkWriteError err = new BulkWriteError(11000, "dup", new BsonDocument(), 2);
+        sink.pending.remove(0).trigger(null, new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(3, 0, 0, 0, Collections.<BulkWriteUpsert>emptyList()),
+                Arrays.asList(err), null, new ServerAddress()));
+        sink.complete(0, 2);
+        assertTrue(result.thrown instanceof MongoBulkWriteException);
+        MongoBulkWriteException ex = (MongoBulkWriteException) result.thrown;
+        assertEquals(6, ex.getWriteErrors().get(0).getIndex());
+        assertEquals(9, ex.getWriteResult().getInsertedCount());
+    }
+
+    @Test
+    public void testRetainedErrorsAreCapped() {
+        Sink<Integer> sink = new Sink<>();
+        Result<BulkWriteResult> result = new Result<>();
+        int size = StreamingLoad.MAX_ERRORS;
+        new StreamingLoad<>(new StreamingLoad.IteratorSource<>(new Counting(size * 3)), sink, size, 1, result).start();
+        for (int i = 0; i < 3; i++) {
+            List<BulkWriteError> errors = new ArrayList<>();
+            for (int j = 0; j < size - 1; j++) {
+                errors.add(new BulkWriteError(11000, "dup", new BsonDocument(), j));
+            }
+            sink.pending.remove(0).trigger(null, new MongoBulkWriteException(
+                    BulkWriteResult.acknowledged(1, 0, 0, 0, Collections.<BulkWriteUpsert>emptyList()),
+                    errors, null, new ServerAddress()));
+        }
+        MongoBulkWriteException ex = (MongoBulkWriteException) result.thrown;
+        assertEquals(StreamingLoad.MAX_ERRORS, ex.getWriteErrors().size());
+        assertEquals(size, ex.getWriteErrors().get(size - 1).getIndex());
+        assertEquals(3, ex.getWriteResult().getInsertedCount());
+    }
+
+    @Test
+    public void testFailureStopsPulling() {
+        Counting source = new Counting(100);
+        Sink<Integer> sink = new Sink<>();
+        Result<BulkWriteResult> result = new Result<>();
+        new StreamingLoad<>(new StreamingLoad.IteratorSource<>(source), sink, 5, 2, result).start();
+        IllegalStateException ex = new IllegalStateException();
+        sink.pending.remove(0).trigger(null, ex);
+        assertEquals(10, source.next);
+        assertNull("Should wait for the batch in flight", result.thrown);
+        sink.complete(0, 5);
+        assertTrue(result.thrown == ex);
+        assertEquals(10, source.next);
+    }
+
+    static final class Counting implements Iterator<Integer> {
+
+        private final int count;
+        int next;
+
+        Counting(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        @Override
+        public Integer next() {
+            return next++;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.FailureHandler;
+import com.mastfrog.asyncpromises.PromiseContext;
+import com.mastfrog.asyncpromises.Trigger;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test doubles shared by the tests in this package.
+ *
+ * @author Tim Boudreau
+ */
+final class TestSupport {
+
+    private TestSupport() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Records what a trigger, driver callback or failure handler is called
+     * with, and fails if it is called more than once.
+     */
+    static final class Result<T> implements Trigger<T>, SingleResultCallback<T>, FailureHandler {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        T result;
+        Throwable thrown;
+        int calls;
+
+        @Override
+        public synchronized void trigger(T obj, Throwable thrown) {
+            assertFalse("Called twice", calls > 0);
+            calls++;
+            result = obj;
+            this.thrown = thrown;
+            latch.countDown();
+        }
+
+        @Override
+        public void onResult(T result, Throwable thrown) {
+            trigger(result, thrown);
+        }
+
+        @Override
+        public <R> boolean onFailure(PromiseContext.Key<R> key, R input, Throwable thrown, PromiseContext context) {
+            trigger(null, thrown);
+            return false;
+        }
+
+        synchronized boolean done() {
+            return calls > 0;
+        }
+
+        Result<T> await() throws InterruptedException {
+            assertTrue("Not called", latch.await(10, TimeUnit.SECONDS));
+            return this;
+        }
+    }
+
+    /**
+     * A bulk write sink which answers each write with the next of its
+     * canned responses - a BulkWriteResult or a Throwable - if it has one,
+     * and otherwise holds it in <code>pending</code> to be completed by hand.
+     */
+    static final class Sink<T> implements ChunkedBulkWrite.Sink<T> {
+
+        final LinkedList<Object> responses = new LinkedList<>();
+        final List<List<WriteModel<? extends T>>> sent = new ArrayList<>();
+        final List<Trigger<BulkWriteResult>> pending = new ArrayList<>();
+
+        @Override
+        public void bulkWrite(List<WriteModel<? extends T>> chunk, BulkWriteOptions opts, Trigger<BulkWriteResult> next) {
+            Object response;
+            synchronized (this) {
+                sent.add(chunk);
+                if (responses.isEmpty()) {
+                    pending.add(next);
+                    return;
+                }
+                response = responses.pop();
+            }
+            if (response instanceof Throwable) {
+                next.trigger(null, (Throwable) response);
+            } else {
+                next.trigger((BulkWriteResult) response, null);
+            }
+        }
+
+        void complete(int ix, BulkWriteResult result) {
+            pending.remove(ix).trigger(result, null);
+        }
+
+        void complete(int ix, int inserted) {
+            complete(ix, BulkWriteResult.acknowledged(inserted, 0, 0, 0, Collections.<BulkWriteUpsert>emptyList()));
+        }
+
+        void fail(int ix, Throwable thrown) {
+            pending.remove(ix).trigger(null, thrown);
+        }
+    }
+}
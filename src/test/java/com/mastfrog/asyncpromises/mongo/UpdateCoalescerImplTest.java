@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2026 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.asyncpromises.mongo;
+
+import com.mastfrog.asyncpromises.Trigger;
+import com.mastfrog.asyncpromises.mongo.TestSupport.Result;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.client.result.UpdateResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks merging and ordering in UpdateCoalescerImpl.
+ *
+ * @author Tim Boudreau
+ */
+public class UpdateCoalescerImplTest {
+
+    @Test
+    public void testIncrementsAndSetsAreMerged() {
+        Sink sink = new Sink();
+        UpdateCoalescerImpl<Document> co = coalescer(sink);
+        Result<UpdateResult> a = new Result<>();
+        Result<UpdateResult> b = new Result<>();
+        Result<UpdateResult> c = new Result<>();
+        Result<UpdateResult> other = new Result<>();
+        co.updateOne(new Document("$inc", new Document("hits", 1))).start(new Document("_id", 1), a);
+        co.updateOne(new Document("$inc", new Document("hits", 2)).append("$set", new Document("last", "x"))).start(new Document("_id", 1), b);
+        co.updateOne(new Document("$set", new Document("last", "y"))).start(new Document("_id", 1), c);
+        co.updateOne(new Document("$inc", new Document("hits", 5))).onFailure(other).start(new Document("_id", 2), other);
+        assertTrue(sink.updates.isEmpty());
+        co.flushAll();
+        assertEquals(2, sink.updates.size());
+        assertEquals(new BsonDocument("$set", new BsonDocument("last", new BsonString("y")))
+                .append("$inc", new BsonDocument("hits", new BsonInt32(3))), sink.updates.get(0));
+        assertEquals(new BsonDocument("$inc", new BsonDocument("hits", new BsonInt32(5))), sink.updates.get(1));
+        UpdateResult result = UpdateResult.acknowledged(1, 1L, null);
+        sink.triggers.get(0).trigger(result, null);
+        assertSame(result, a.result);
+        assertSame(result, b.result);
+        assertSame(result, c.result);
+        assertFalse(other.done());
+        IllegalStateException ex = new IllegalStateException();
+        sink.triggers.get(1).trigger(null, ex);
+        assertSame(ex, other.thrown);
+    }
+
+    @Test
+    public void testIncrementAfterSetAddsToSetValue() {
+        UpdateCoalescerImpl.Pending p = new UpdateCoalescerImpl.Pending(new Document());
+        assertTrue(p.merge(BsonDocument.parse("{$set: {n: 10}}")));
+        assertTrue(p.merge(BsonDocument.parse("{$inc: {n: 2}}")));
+        assertEquals(BsonDocument.parse("{$set: {n: 12}}"), p.toDocument());
+        assertTrue(p.merge(BsonDocument.parse("{$set: {s: 'a'}}")));
+        assertFalse("Cannot increment a string", p.merge(BsonDocument.parse("{$inc: {s: 1}}")));
+        assertFalse("Overlapping path", p.merge(BsonDocument.parse("{$inc: {'n.x': 1}}")));
+        assertEquals(BsonDocument.parse("{$set: {n: 12, s: 'a'}}"), p.toDocument());
+    }
+
+    @Test
+    public void testSums() {
+        assertEquals(new BsonInt64(Integer.MAX_VALUE + 1L), UpdateCoalescerImpl.sum(new BsonInt32(Integer.MAX_VALUE), new BsonInt32(1)));
+        assertNull(UpdateCoalescerImpl.sum(new BsonInt64(Long.MAX_VALUE), new BsonInt32(1)));
+        assertEquals(2.5D, UpdateCoalescerImpl.sum(new BsonInt32(2), new org.bson.BsonDouble(0.5)).asDouble().getValue(), 0);
+    }
+
+    @Test
+    public void testMergeable() {
+        assertTrue(UpdateCoalescerImpl.mergeable(BsonDocument.parse("{$inc: {a: 1}, $set: {b: 2}}")));
+        assertFalse(UpdateCoalescerImpl.mergeable(BsonDocument.parse("{$push: {a: 1}}")));
+        assertFalse(UpdateCoalescerImpl.mergeable(BsonDocument.parse("{$inc: {a: 'x'}}")));
+        assertFalse(UpdateCoalescerImpl.mergeable(BsonDocument.parse("{$inc: {a: 1}, $set: {'a.b': 2}}")));
+    }
+
+    @Test
+    public void testUnmergeableWaitsForPending() {
+        Sink sink = new Sink();
+        UpdateCoalescerImpl<Document> co = coalescer(sink);
+        Result<UpdateResult> a = new Result<>();
+        Result<UpdateResult> b = new Result<>();
+        co.updateOne(new Document("$inc", new Document("hits", 1))).start(new Document("_id", 1), a);
+        co.updateOne(new Document("$push", new Document("log", "x"))).start(new Document("_id", 1), b);
+        assertEquals("Pending update should be sent first", 1, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$inc: {hits: 1}}"), sink.updates.get(0));
+        sink.triggers.get(0).trigger(UpdateResult.acknowledged(1, 1L, null), null);
+        assertTrue(a.done());
+        assertEquals(2, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$push: {log: 'x'}}"), sink.updates.get(1));
+        assertFalse(b.done());
+        co.flushAll();
+        assertEquals(2, sink.updates.size());
+    }
+
+    @Test
+    public void testUnmergeableWaitsForFlushedUpdateInFlight() {
+        Sink sink = new Sink();
+        UpdateCoalescerImpl<Document> co = coalescer(sink);
+        co.updateOne(new Document("$inc", new Document("hits", 1))).start(new Document("_id", 1), new Result<UpdateResult>());
+        co.flushAll();
+        assertEquals(1, sink.updates.size());
+        co.updateOne(new Document("$push", new Document("log", "x"))).start(new Document("_id", 1), new Result<UpdateResult>());
+        assertEquals("Sent while an earlier update was in flight", 1, sink.updates.size());
+        sink.triggers.get(0).trigger(UpdateResult.acknowledged(1, 1L, null), null);
+        assertEquals(2, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$push: {log: 'x'}}"), sink.updates.get(1));
+    }
+
+    @Test
+    public void testUnmergeableWaitsForUnmergeableInFlight() {
+        Sink sink = new Sink();
+        UpdateCoalescerImpl<Document> co = coalescer(sink);
+        co.updateOne(new Document("$push", new Document("log", "x"))).start(new Document("_id", 1), new Result<UpdateResult>());
+        co.updateOne(new Document("$push", new Document("log", "y"))).start(new Document("_id", 1), new Result<UpdateResult>());
+        co.updateOne(new Document("$push", new Document("log", "z"))).start(new Document("_id", 2), new Result<UpdateResult>());
+        assertEquals("Other queries are independent", 2, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$push: {log: 'z'}}"), sink.updates.get(1));
+        sink.triggers.get(0).trigger(UpdateResult.acknowledged(1, 1L, null), null);
+        assertEquals(3, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$push: {log: 'y'}}"), sink.updates.get(2));
+    }
+
+    @Test
+    public void testConflictingMergeableWaitsForEarlierUpdate() {
+        Sink sink = new Sink();
+        UpdateCoalescerImpl<Document> co = coalescer(sink);
+        Result<UpdateResult> a = new Result<>();
+        Result<UpdateResult> b = new Result<>();
+        co.updateOne(new Document("$set", new Document("n", "x"))).start(new Document("_id", 1), a);
+        co.updateOne(new Document("$inc", new Document("n.count", 1))).start(new Document("_id", 1), b);
+        assertEquals("The earlier update should go at once", 1, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$set: {n: 'x'}}"), sink.updates.get(0));
+        co.flushAll();
+        assertEquals("Flushed before the earlier update completed", 1, sink.updates.size());
+        sink.triggers.get(0).trigger(UpdateResult.acknowledged(1, 1L, null), null);
+        assertTrue(a.done());
+        assertFalse(b.done());
+        assertEquals(2, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$inc: {'n.count': 1}}"), sink.updates.get(1));
+    }
+
+    @Test
+    public void testMergeableAfterUnmergeableIsNotMergedAhead() {
+        Sink sink = new Sink();
+        UpdateCoalescerImpl<Document> co = coalescer(sink);
+        co.updateOne(new Document("$inc", new Document("hits", 1))).start(new Document("_id", 1), new Result<UpdateResult>());
+        co.updateOne(new Document("$unset", new Document("hits", ""))).start(new Document("_id", 1), new Result<UpdateResult>());
+        co.updateOne(new Document("$inc", new Document("hits", 2))).start(new Document("_id", 1), new Result<UpdateResult>());
+        assertEquals(1, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$inc: {hits: 1}}"), sink.updates.get(0));
+        co.flushAll();
+        assertEquals(1, sink.updates.size());
+        sink.triggers.get(0).trigger(UpdateResult.acknowledged(1, 1L, null), null);
+        assertEquals(2, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$unset: {hits: ''}}"), sink.updates.get(1));
+        sink.triggers.get(1).trigger(UpdateResult.acknowledged(1, 1L, null), null);
+        assertEquals("The increment should follow the unset", 3, sink.updates.size());
+        assertEquals(BsonDocument.parse("{$inc: {hits: 2}}"), sink.updates.get(2));
+    }
+
+    private static UpdateCoalescerImpl<Document> coalescer(Sink sink) {
+        return new UpdateCoalescerImpl<>(MongoClients.getDefaultCodecRegistry(), Document.class, sink, 1, TimeUnit.HOURS);
+    }
+
+    static class Sink implements UpdateCoalescerImpl.Sink {
+
+        final List<BsonDocument> updates = new ArrayList<>();
+        final List<Trigger<UpdateResult>> triggers = new ArrayList<>();
+
+        @Override
+        public void updateOne(Bson query, Bson modification, Trigger<UpdateResult> next) {
+            updates.add(modification.toBsonDocument(Document.class, MongoClients.getDefaultCodecRegistry()));
+            triggers.add(next);
+        }
+    }
+}